@@ -0,0 +1,100 @@
+package FTP.Server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Logins por segundo de clientes que se reconectan en cada fichero, con y sin la caché de
+ * credenciales ({@code ftp.auth.cache.enabled}).
+ * <p>
+ * Cada operación es la verificación de {@code FtpClientHandler.handlePassCommand}: consultar la
+ * {@link CredentialCache} si está activa y, si no acierta, verificar con el {@link PasswordVerifier}
+ * y recordar el resultado. Un puñado de usuarios repite login desde varios hilos, como las
+ * integraciones que motivaron la caché.
+ * <p>
+ * Uso: {@code mvn -Pbench test-compile exec:exec -Djmh.args=CredentialCache}
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class CredentialCacheBenchmark {
+
+    private static final int USERS = 16;
+
+    /** Valor de ftp.auth.cache.enabled */
+    @Param({ "false", "true" })
+    public boolean cacheEnabled;
+
+    /** Coste bcrypt de los hashes guardados */
+    @Param({ "10" })
+    public int cost;
+
+    /** Usuario que le toca a cada hilo. */
+    @State(Scope.Thread)
+    public static class Client {
+        int next;
+    }
+
+    private String[] usernames;
+    private String[] passwords;
+    private String[] hashes;
+    private PasswordVerifier verifier;
+    private CredentialCache credentials;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        usernames = new String[USERS];
+        passwords = new String[USERS];
+        hashes = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            usernames[i] = "sync" + i;
+            passwords[i] = "secret-" + i;
+            hashes[i] = PasswordHashing.hash(passwords[i], cost);
+        }
+        verifier = new PasswordVerifier(0, 256, 60_000, cost);
+        // Valores por defecto de ftp.auth.cache.size y ftp.auth.cache.ttl.ms
+        credentials = cacheEnabled ? new CredentialCache(1000, 60_000) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        verifier.shutdown();
+    }
+
+    @Benchmark
+    public PasswordVerifier.Result login(Client client) {
+        int i = client.next++ % USERS;
+        String username = usernames[i];
+        String password = passwords[i];
+        String hash = hashes[i];
+        if (credentials != null && credentials.matches(username, password, hash)) {
+            return PasswordVerifier.Result.MATCH;
+        }
+        PasswordVerifier.Result result = verifier.verify(password, hash);
+        if (result == PasswordVerifier.Result.MATCH && credentials != null) {
+            credentials.put(username, password, hash);
+        }
+        return result;
+    }
+}
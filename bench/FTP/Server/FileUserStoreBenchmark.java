@@ -0,0 +1,101 @@
+package FTP.Server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de buscar el usuario de un PASS en un users.txt de 100k usuarios.
+ * <p>
+ * {@code indexed} usa {@link FileUserStore} (índice en memoria); {@code legacyScan} repite la búsqueda
+ * anterior: abrir el fichero y recorrerlo línea a línea en cada login. Los usuarios buscados se reparten
+ * por todo el fichero.
+ * <p>
+ * Uso: {@code mvn -Pbench test-compile exec:exec -Djmh.args=FileUserStore}
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileUserStoreBenchmark {
+
+    /** Hash bcrypt de ejemplo: la búsqueda no lo verifica */
+    private static final String HASH = "$2a$10$N9qo8uLOickgx2ZMRZoMyeIjZAgcfl7p92ldGxad68LJZdL17lhWy";
+
+    @Param({ "100000" })
+    public int users;
+
+    private Path file;
+    private FileUserStore store;
+    private String[] names;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("ftp-bench-users", ".txt");
+        names = new String[users];
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < users; i++) {
+                names[i] = String.format("user%06d", i);
+                w.write(names[i] + ":" + HASH + ":" + UserProfile.values()[i % UserProfile.values().length]);
+                w.newLine();
+            }
+        }
+        store = new FileUserStore(file.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public UserInfo indexed() {
+        return store.findByUsername(nextName());
+    }
+
+    @Benchmark
+    public UserInfo legacyScan() throws IOException {
+        String username = nextName();
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split(":", 3);
+                if (parts.length != 3 || !parts[0].trim().equals(username)) continue;
+                return new UserInfo(parts[0].trim(), parts[1].trim(), UserProfile.valueOf(parts[2].trim()), true);
+            }
+        }
+        return null;
+    }
+
+    /** Recorre los usuarios con un paso primo para no favorecer el principio del fichero. */
+    private String nextName() {
+        next = (next + 7919) % names.length;
+        return names[next];
+    }
+}
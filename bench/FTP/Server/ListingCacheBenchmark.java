@@ -0,0 +1,164 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de enviar LIST y MLSD de un directorio grande (1M entradas por defecto) con y sin la caché
+ * de listados.
+ * <p>
+ * {@code listRendered}/{@code mlsdRendered} recorren el directorio como {@code ServerFunctions}
+ * (DirectoryStream, StringBuilder reutilizado, {@link ListFormatter.DateCache} y {@link ListingSink});
+ * {@code listCached}/{@code mlsdCached} envían el payload que guarda {@link ListingCache}. La salida
+ * se descarta, así que se mide el servidor y no la red.
+ * <p>
+ * Crear el directorio lleva un rato; para una pasada rápida: {@code -Djmh.args="ListingCache -p entries=10000"}.
+ * <p>
+ * Uso: {@code mvn -Pbench test-compile exec:exec -Djmh.args=ListingCache}
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ListingCacheBenchmark {
+
+    /** Sumidero que descarta lo que recibe (OutputStream.nullOutputStream es de Java 11) */
+    private static final class Discard extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    private interface EntryFormatter {
+        void format(StringBuilder line, FtpFile entry, BasicFileAttributes attrs);
+    }
+
+    private static final String MLSD_VARIANT = "MLSD:" + UserProfile.ADMINISTRADOR + ":"
+        + String.join(";", ListFormatter.MLST_FACTS);
+
+    @Param({ "1000000" })
+    public int entries;
+
+    private Path root;
+    private FtpFile dir;
+    private ListingCache cache;
+    private final OutputStream discard = new Discard();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("ftp-bench-list");
+        Path big = Files.createDirectory(root.resolve("big"));
+        for (int i = 0; i < entries; i++) {
+            Files.createFile(big.resolve(String.format("file-%07d.dat", i)));
+        }
+        PathResolver resolver = new PathResolver(root.toString(), PathResolver.SymlinkPolicy.INSIDE, 4096, 5000);
+        dir = new LocalFileSystem(resolver).resolve(null, "/big");
+        // Con maxBytes / 8 por variante, 1 GiB admite listados de hasta 128 MiB
+        cache = new ListingCache(1L << 30, 0);
+        fill("LIST", listFormatter());
+        fill(MLSD_VARIANT, ListingCacheBenchmark::mlsdLine);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long listRendered() throws IOException {
+        return render(new ListingSink(discard), listFormatter());
+    }
+
+    @Benchmark
+    public long mlsdRendered() throws IOException {
+        return render(new ListingSink(discard), ListingCacheBenchmark::mlsdLine);
+    }
+
+    @Benchmark
+    public int listCached() throws IOException {
+        return sendCached("LIST");
+    }
+
+    @Benchmark
+    public int mlsdCached() throws IOException {
+        return sendCached(MLSD_VARIANT);
+    }
+
+    private int sendCached(String variant) throws IOException {
+        byte[] payload = cache.get(dir.getCacheKey(), variant);
+        discard.write(payload);
+        return payload.length;
+    }
+
+    private void fill(String variant, EntryFormatter formatter) throws IOException {
+        ListingCache.Render render = cache.beginRender(dir.getCacheKey());
+        ListingCache.Capture capture = new ListingCache.Capture(discard, cache.getMaxEntryBytes());
+        render(new ListingSink(capture), formatter);
+        byte[] payload = capture.toByteArray();
+        if (payload == null) throw new IllegalStateException("El listado no cabe en la caché");
+        cache.finishRender(render, variant, payload);
+    }
+
+    /** Mismo recorrido que ServerFunctions.writeDirectoryEntries. */
+    private long render(ListingSink sink, EntryFormatter formatter) throws IOException {
+        try (DirectoryStream<FtpFile> list = dir.list()) {
+            StringBuilder line = new StringBuilder(128);
+            for (FtpFile entry : list) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = entry.stat();
+                } catch (IOException e) {
+                    continue;
+                }
+                line.setLength(0);
+                formatter.format(line, entry, attrs);
+                sink.writeLine(line);
+            }
+        }
+        sink.flush();
+        return sink.getBytesWritten();
+    }
+
+    /** Formato LIST con su caché de fechas, una por listado como en el servidor. */
+    private static EntryFormatter listFormatter() {
+        ListFormatter.DateCache dates = new ListFormatter.DateCache(System.currentTimeMillis());
+        return (line, entry, attrs) -> ListFormatter.appendListLine(line, attrs, entry.getName(), dates);
+    }
+
+    private static void mlsdLine(StringBuilder line, FtpFile entry, BasicFileAttributes attrs) {
+        ListFormatter.appendMlsxFacts(line, attrs, UserProfile.ADMINISTRADOR, ListFormatter.MLST_FACTS);
+        line.append(entry.getName());
+    }
+}
@@ -0,0 +1,84 @@
+package FTP.Server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de resolver la ruta de un comando (p. ej. RETR de un fichero a 5 niveles de profundidad).
+ * <p>
+ * {@code legacy} repite la comprobación anterior de {@code isPathSafe}: canonicalizar la raíz y el
+ * destino en cada llamada y comparar cadenas. {@code resolverCached} usa {@link PathResolver} con la
+ * caché de directorios y {@code resolverUncached} sin ella (solo la raíz precalculada).
+ * <p>
+ * Uso: {@code mvn -Pbench test-compile exec:exec}
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathResolverBenchmark {
+
+    private static final String TARGET = "a/b/c/d/e/file.txt";
+
+    private Path root;
+    private String currentDir;
+    private PathResolver cached;
+    private PathResolver uncached;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("ftp-bench");
+        Path dir = Files.createDirectories(root.resolve("a/b/c/d/e"));
+        Files.write(dir.resolve("file.txt"), new byte[] { 1 });
+        currentDir = root.toRealPath().toString();
+        cached = new PathResolver(root.toString(), PathResolver.SymlinkPolicy.INSIDE, 4096, 5000);
+        uncached = new PathResolver(root.toString(), PathResolver.SymlinkPolicy.INSIDE, 0, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public boolean legacy() throws IOException {
+        File rootDir = new File(root.toString()).getCanonicalFile();
+        File target = new File(currentDir, TARGET).getCanonicalFile();
+        return target.getPath().startsWith(rootDir.getPath());
+    }
+
+    @Benchmark
+    public Path resolverCached() {
+        return cached.resolve(currentDir, TARGET);
+    }
+
+    @Benchmark
+    public Path resolverUncached() {
+        return uncached.resolve(currentDir, TARGET);
+    }
+}
@@ -1,7 +1,7 @@
 package FTP.Admin;
 
+import FTP.Server.PasswordHashing;
 import FTP.Server.SqliteUserStore;
-import org.mindrot.jbcrypt.BCrypt;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -325,7 +325,7 @@ public class AdminGUI extends JFrame {
             log("El usuario no puede contener ':'", RETRO_ERROR);
             return;
         }
-        String hash = BCrypt.hashpw(password, BCrypt.gensalt());
+        String hash = PasswordHashing.hash(password, PasswordHashing.configuredCost());
         long now = System.currentTimeMillis();
         try (Connection conn = getConnection()) {
             ensureSchema(conn);
@@ -366,7 +366,7 @@ public class AdminGUI extends JFrame {
         String profile = (String) profileCombo.getSelectedItem();
         try (Connection conn = getConnection()) {
             if (!password.isEmpty()) {
-                String hash = BCrypt.hashpw(password, BCrypt.gensalt());
+                String hash = PasswordHashing.hash(password, PasswordHashing.configuredCost());
                 try (PreparedStatement ps = conn.prepareStatement("UPDATE " + TABLE + " SET password_hash=?, profile=? WHERE username=?")) {
                     ps.setString(1, hash);
                     ps.setString(2, profile);
@@ -0,0 +1,118 @@
+package FTP.Server;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché de atributos de fichero con TTL corto para las ráfagas de SIZE/MDTM de las herramientas de
+ * sincronización, que preguntan por cada fichero antes de decidir qué transferir.
+ * <p>
+ * La clave es la clave de caché de la entrada (ruta canónica en disco) y el valor la instantánea de
+ * {@link FtpFile#stat()}. Acotada en entradas con expulsión LRU. Se invalida desde las mutaciones de
+ * {@link ServerFunctions}; los cambios hechos fuera del servidor se ven, como tarde, al vencer el TTL.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class AttributeCache {
+
+    private static final class Cached {
+        final BasicFileAttributes attrs;
+        final long expiresAt;
+
+        Cached(BasicFileAttributes attrs, long expiresAt) {
+            this.attrs = attrs;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Cached> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxEntries Entradas máximas
+     * @param ttlMillis Vida de cada entrada
+     */
+    public AttributeCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, Cached>(256, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > AttributeCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Atributos en caché de una entrada.
+     *
+     * @param key Clave de caché de la entrada
+     * @return Atributos, o null si no están o han caducado
+     */
+    public BasicFileAttributes get(String key) {
+        synchronized (entries) {
+            Cached e = entries.get(key);
+            if (e != null && e.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return e.attrs;
+            }
+            if (e != null) entries.remove(key);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Guarda los atributos recién leídos de una entrada.
+     *
+     * @param key Clave de caché de la entrada
+     * @param attrs Atributos
+     */
+    public void put(String key, BasicFileAttributes attrs) {
+        Cached e = new Cached(attrs, System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            entries.put(key, e);
+        }
+    }
+
+    /**
+     * Olvida una entrada y, si {@code tree}, todo lo que cuelga de ella.
+     *
+     * @param key Clave de caché de la entrada
+     * @param tree true para un directorio renombrado o borrado
+     */
+    public void invalidate(String key, boolean tree) {
+        invalidations.incrementAndGet();
+        synchronized (entries) {
+            entries.remove(key);
+            if (!tree) return;
+            Iterator<String> it = entries.keySet().iterator();
+            while (it.hasNext()) {
+                if (FtpFile.isUnderKey(it.next(), key)) it.remove();
+            }
+        }
+    }
+
+    /** Resumen para SITE STATS. */
+    public String describe() {
+        long h = hits.get();
+        long m = misses.get();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return String.format("atributos: %d/%d entradas, TTL %d ms, aciertos=%d fallos=%d (%.1f%%), invalidaciones=%d",
+            size, maxEntries, ttlMillis, h, m, (h + m) == 0 ? 0.0 : 100.0 * h / (h + m), invalidations.get());
+    }
+}
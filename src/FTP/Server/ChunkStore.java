@@ -0,0 +1,311 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import FTP.Util.FileLogger;
+
+/**
+ * Almacén de bloques direccionado por contenido (SHA-256) para el backend deduplicado.
+ * <p>
+ * Cada bloque se guarda una sola vez en {@code <dir>/<2 primeros hex>/<hash>} con un contador de
+ * referencias en memoria (se reconstruye al arrancar a partir de los manifiestos). Si un bloque ya
+ * existe no se vuelve a escribir. Los bloques que quedan sin referencias se borran en segundo plano
+ * pasado un periodo de gracia; comprobación y borrado van bajo el mismo lock por franja que la
+ * adquisición, así una subida nunca reutiliza un bloque que el recolector está borrando.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class ChunkStore {
+
+    private static final int STRIPES = 256;
+
+    private static final class Ref {
+        int count;
+        final int length;
+        long releasedAt;
+
+        Ref(int length) {
+            this.length = length;
+        }
+    }
+
+    private final Path dir;
+    private final Path tmpDir;
+    private final Object[] locks = new Object[STRIPES];
+    private final ConcurrentHashMap<String, Ref> refs = new ConcurrentHashMap<>();
+    private final long gcGraceMillis;
+    private final ScheduledExecutorService gc;
+    private final ExecutorService readers;
+
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicLong collected = new AtomicLong();
+    private final AtomicLong gcRuns = new AtomicLong();
+    private final AtomicLong tmpSeq = new AtomicLong();
+
+    /**
+     * @param dir Directorio de bloques (fuera de la raíz servida)
+     * @param gcIntervalMillis Periodo del recolector y gracia mínima de un bloque huérfano
+     * @param readThreads Hilos para lectura anticipada en RETR
+     * @throws IOException Si no se puede crear el directorio
+     */
+    public ChunkStore(Path dir, long gcIntervalMillis, int readThreads) throws IOException {
+        this.dir = dir.toAbsolutePath().normalize();
+        this.tmpDir = this.dir.resolve("tmp");
+        Files.createDirectories(tmpDir);
+        for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+        this.gcGraceMillis = Math.max(1000, gcIntervalMillis);
+        this.gc = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ftp-dedup-gc");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        this.readers = Executors.newFixedThreadPool(Math.max(1, readThreads), r -> {
+            Thread t = new Thread(r, "ftp-dedup-read");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Directorio de bloques (absoluto). */
+    public Path getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Suma una referencia a un bloque durante la reconstrucción inicial (antes de {@link #start()}).
+     *
+     * @param hash Hash hexadecimal
+     * @param length Longitud del bloque
+     */
+    void count(String hash, int length) {
+        Ref r = refs.computeIfAbsent(hash, h -> new Ref(length));
+        r.count++;
+    }
+
+    /**
+     * Termina la reconstrucción: borra los bloques del disco que ningún manifiesto referencia
+     * (subidas interrumpidas) y arranca el recolector.
+     *
+     * @return Número de bloques referenciados que faltan en disco
+     * @throws IOException Si no se puede recorrer el directorio
+     */
+    int start() throws IOException {
+        try (DirectoryStream<Path> tmp = Files.newDirectoryStream(tmpDir)) {
+            for (Path p : tmp) Files.deleteIfExists(p);
+        }
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(dir)) {
+            for (Path prefix : prefixes) {
+                if (prefix.equals(tmpDir) || !Files.isDirectory(prefix)) continue;
+                try (DirectoryStream<Path> chunks = Files.newDirectoryStream(prefix)) {
+                    for (Path chunk : chunks) {
+                        if (!refs.containsKey(chunk.getFileName().toString())) {
+                            Files.deleteIfExists(chunk);
+                            collected.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        }
+        int missing = 0;
+        for (Map.Entry<String, Ref> e : refs.entrySet()) {
+            if (Files.exists(pathOf(e.getKey()))) {
+                storedBytes.addAndGet(e.getValue().length);
+            } else {
+                missing++;
+            }
+        }
+        gc.scheduleWithFixedDelay(this::collectQuietly, gcGraceMillis, gcGraceMillis, TimeUnit.MILLISECONDS);
+        return missing;
+    }
+
+    /**
+     * Guarda un bloque (si no existe ya) y suma una referencia.
+     *
+     * @param hash Hash hexadecimal del contenido
+     * @param data Contenido
+     * @param len Longitud
+     * @throws IOException Si no se puede escribir
+     */
+    public void acquire(String hash, byte[] data, int len) throws IOException {
+        if (retainExisting(hash)) {
+            deduplicated.incrementAndGet();
+            savedBytes.addAndGet(len);
+            return;
+        }
+        // Escritura fuera del lock; la publicación (rename) y el recuento sí van dentro
+        Path tmp = tmpDir.resolve(hash + "." + tmpSeq.incrementAndGet());
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.wrap(data, 0, len);
+            while (b.hasRemaining()) ch.write(b);
+        }
+        synchronized (lockFor(hash)) {
+            Ref r = refs.get(hash);
+            if (r != null && Files.exists(pathOf(hash))) {
+                r.count++;
+                Files.deleteIfExists(tmp);
+                deduplicated.incrementAndGet();
+                savedBytes.addAndGet(len);
+                return;
+            }
+            Path target = pathOf(hash);
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (r == null) {
+                r = new Ref(len);
+                refs.put(hash, r);
+            }
+            r.count++;
+            storedBytes.addAndGet(len);
+            written.incrementAndGet();
+        }
+    }
+
+    /**
+     * Suma una referencia a un bloque que ya debe existir (APPE sobre un manifiesto, lecturas en curso).
+     *
+     * @param hash Hash hexadecimal
+     * @throws IOException Si el bloque no existe
+     */
+    public void retain(String hash) throws IOException {
+        if (!retainExisting(hash)) throw new IOException("Missing chunk " + hash);
+    }
+
+    /**
+     * Resta una referencia; el bloque queda huérfano para el recolector si llega a cero.
+     *
+     * @param hash Hash hexadecimal
+     */
+    public void release(String hash) {
+        synchronized (lockFor(hash)) {
+            Ref r = refs.get(hash);
+            if (r == null || r.count <= 0) return;
+            if (--r.count == 0) r.releasedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Lee un bloque completo en segundo plano (lectura anticipada de RETR).
+     *
+     * @param hash Hash hexadecimal
+     * @param length Longitud esperada
+     * @return Contenido del bloque
+     */
+    public CompletableFuture<ByteBuffer> readAsync(String hash, int length) {
+        CompletableFuture<ByteBuffer> f = new CompletableFuture<>();
+        try {
+            readers.execute(() -> {
+                try {
+                    f.complete(read(hash, length));
+                } catch (IOException | RuntimeException e) {
+                    f.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            f.completeExceptionally(e);
+        }
+        return f;
+    }
+
+    /** Resumen para SITE STATS. */
+    public String describe() {
+        long w = written.get();
+        long d = deduplicated.get();
+        return String.format("bloques=%d (%d bytes), escritos=%d, deduplicados=%d (%.1f%%, %d bytes ahorrados), gc=%d pasadas/%d borrados",
+            refs.size(), storedBytes.get(), w, d, (w + d) == 0 ? 0.0 : 100.0 * d / (w + d), savedBytes.get(),
+            gcRuns.get(), collected.get());
+    }
+
+    /** Detiene el recolector y los lectores. */
+    public void shutdown() {
+        gc.shutdownNow();
+        readers.shutdownNow();
+    }
+
+    private ByteBuffer read(String hash, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        try (FileChannel ch = FileChannel.open(pathOf(hash), StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0) throw new IOException("Truncated chunk " + hash);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private boolean retainExisting(String hash) {
+        synchronized (lockFor(hash)) {
+            Ref r = refs.get(hash);
+            if (r == null) return false;
+            r.count++;
+            return true;
+        }
+    }
+
+    private void collectQuietly() {
+        try {
+            collect();
+        } catch (RuntimeException e) {
+            FileLogger.error("Dedup: recolector de bloques: " + e.getMessage());
+        }
+    }
+
+    /** Borra los bloques huérfanos más antiguos que el periodo de gracia. */
+    private void collect() {
+        gcRuns.incrementAndGet();
+        long cutoff = System.currentTimeMillis() - gcGraceMillis;
+        Iterator<Map.Entry<String, Ref>> it = refs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Ref> e = it.next();
+            Ref candidate = e.getValue();
+            if (candidate.count > 0 || candidate.releasedAt > cutoff) continue;
+            String hash = e.getKey();
+            synchronized (lockFor(hash)) {
+                Ref r = refs.get(hash);
+                if (r != candidate || r.count > 0) continue;
+                try {
+                    Files.deleteIfExists(pathOf(hash));
+                } catch (IOException ex) {
+                    FileLogger.error("Dedup: no se pudo borrar el bloque " + hash + ": " + ex.getMessage());
+                    continue;
+                }
+                refs.remove(hash);
+                storedBytes.addAndGet(-r.length);
+                collected.incrementAndGet();
+            }
+        }
+    }
+
+    private Path pathOf(String hash) {
+        return dir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Object lockFor(String hash) {
+        return locks[(hash.hashCode() & 0x7fffffff) % STRIPES];
+    }
+}
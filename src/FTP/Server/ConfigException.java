@@ -0,0 +1,20 @@
+package FTP.Server;
+
+/**
+ * Error en la configuración del servidor (p. ej. un listener mal definido). A diferencia de un
+ * server.properties ausente, no se puede seguir con valores por defecto: el arranque se aborta.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class ConfigException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message Descripción del error, con la propiedad afectada
+     */
+    public ConfigException(String message) {
+        super(message);
+    }
+}
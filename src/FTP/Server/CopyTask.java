@@ -0,0 +1,188 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import FTP.Util.FileLogger;
+
+/**
+ * Copia en el servidor lanzada con SITE CPFR/CPTO, que se ejecuta en segundo plano.
+ * <p>
+ * La sesión conserva la última copia para informar del progreso con STAT y cancelarla con ABOR.
+ * Mientras se ejecuta retiene el lock de lectura del origen y el de escritura del destino
+ * ({@link PathLockManager}). Si la copia falla o se cancela se borra el destino incompleto, solo si lo
+ * ha creado esta copia: un fichero que otra sesión haya creado entretanto en esa ruta no se toca.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class CopyTask implements Runnable {
+
+    /** Estado de la copia */
+    public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    private final FtpFile source;
+    private final FtpFile target;
+    private final long total;
+    private final String username;
+    private final String clientAddress;
+    private final QuotaManager.Upload upload;
+    private final Runnable onFinish;
+    private final AtomicLong copied = new AtomicLong();
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile State state = State.QUEUED;
+    /** Si el destino lo ha creado esta copia (y por tanto se puede borrar si no termina) */
+    private volatile boolean created;
+    private volatile String error;
+    private volatile Future<?> future;
+
+    /**
+     * @param source Fichero origen
+     * @param target Destino (no existe)
+     * @param total Tamaño del origen
+     * @param username Usuario que lanza la copia (auditoría)
+     * @param clientAddress Dirección del cliente (auditoría)
+     * @param upload Reserva de cuota del destino, o null sin cuotas
+     * @param onFinish Se ejecuta al terminar, con o sin éxito (invalidar cachés)
+     */
+    public CopyTask(FtpFile source, FtpFile target, long total, String username, String clientAddress,
+                    QuotaManager.Upload upload, Runnable onFinish) {
+        this.source = source;
+        this.target = target;
+        this.total = total;
+        this.username = username;
+        this.clientAddress = clientAddress;
+        this.upload = upload;
+        this.onFinish = onFinish;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (state != State.QUEUED) return;
+            state = State.RUNNING;
+            startedAt = System.currentTimeMillis();
+        }
+        PathLockManager.Held lock = JavaFtpServer.getPathLocks().readWrite(source, target);
+        try {
+            State result;
+            if (lock == null) {
+                error = "File busy";
+                result = State.FAILED;
+            } else if (target.exists()) {
+                // Otra sesión ha creado el destino después de CPTO
+                error = "Destination already exists";
+                result = State.FAILED;
+            } else {
+                try {
+                    created = true;
+                    source.copyTo(target, copied::set);
+                    result = State.DONE;
+                } catch (FileAlreadyExistsException e) {
+                    created = false;
+                    error = "Destination already exists";
+                    result = State.FAILED;
+                } catch (IOException | RuntimeException e) {
+                    error = e.getMessage();
+                    result = State.FAILED;
+                }
+            }
+            synchronized (this) {
+                // Una cancelación durante la copia prevalece sobre el resultado
+                if (state == State.RUNNING) state = result;
+            }
+            // La interrupción de ABOR ya ha cumplido; sin limpiarla no se podría borrar el destino
+            Thread.interrupted();
+            complete();
+        } finally {
+            if (lock != null) lock.close();
+        }
+    }
+
+    /**
+     * Cancela la copia (ABOR).
+     *
+     * @return true si estaba pendiente o en curso
+     */
+    public boolean cancel() {
+        boolean queued;
+        synchronized (this) {
+            if (state != State.QUEUED && state != State.RUNNING) return false;
+            queued = state == State.QUEUED;
+            state = State.CANCELLED;
+        }
+        Future<?> f = future;
+        if (f != null) f.cancel(true);
+        // Si no había empezado, run() ya no se ejecutará
+        if (queued) complete();
+        return true;
+    }
+
+    /** Si la copia ha terminado (con o sin éxito). */
+    public boolean isFinished() {
+        return finishedAt != 0;
+    }
+
+    /** Borra el destino si esta copia lo creó y no se completó, ajusta la cuota, audita y avisa. */
+    private void complete() {
+        boolean removed = false;
+        if (state != State.DONE && created && target.exists()) {
+            removed = deleteQuietly();
+        }
+        if (upload != null) {
+            if (!created) {
+                // El destino no es nuestro: solo se devuelve lo reservado
+                upload.cancel();
+            } else if (removed) {
+                upload.abortRemoved();
+            } else {
+                long size;
+                try {
+                    size = target.exists() ? target.stat().size() : 0;
+                } catch (IOException e) {
+                    size = 0;
+                }
+                upload.finish(size);
+            }
+        }
+        FileLogger.logAudit(username, clientAddress, "COPY_" + state.name(),
+            source.getVirtualPath() + " -> " + target.getVirtualPath() + " (" + copied.get() + " bytes"
+            + (error != null ? ", " + error : "") + ")");
+        finishedAt = System.currentTimeMillis();
+        onFinish.run();
+    }
+
+    /** Una línea de estado para STAT. */
+    public String describe() {
+        long done = copied.get();
+        long end = finishedAt != 0 ? finishedAt : System.currentTimeMillis();
+        long elapsed = startedAt != 0 ? Math.max(1, end - startedAt) : 0;
+        StringBuilder sb = new StringBuilder();
+        sb.append("Copy ").append(source.getVirtualPath()).append(" -> ").append(target.getVirtualPath())
+            .append(": ").append(state.name().toLowerCase()).append(", ").append(done).append('/').append(total)
+            .append(" bytes");
+        if (total > 0) sb.append(String.format(" (%.1f%%)", 100.0 * done / total));
+        if (elapsed > 0) sb.append(String.format(", %.1f MB/s", done / 1048.576 / elapsed));
+        else sb.append(", queued ").append((end - createdAt) / 1000).append(" s");
+        if (error != null) sb.append(", error: ").append(error);
+        return sb.toString();
+    }
+
+    private boolean deleteQuietly() {
+        try {
+            target.delete();
+            return true;
+        } catch (IOException e) {
+            FileLogger.error("Copia: no se pudo borrar el destino incompleto " + target.getVirtualPath() + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
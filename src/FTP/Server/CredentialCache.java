@@ -0,0 +1,153 @@
+package FTP.Server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Caché de verificaciones de contraseña correctas, para clientes que se reconectan y hacen login en
+ * cada fichero: un login repetido dentro del TTL se acepta sin volver a pagar bcrypt.
+ * <p>
+ * Nunca guarda la contraseña: por usuario guarda un HMAC-SHA256 de usuario, contraseña y hash bcrypt
+ * con un secreto aleatorio que solo vive en este proceso. El hash bcrypt va dentro del HMAC, así que
+ * un cambio de contraseña en el {@link UserStore} invalida la entrada por sí solo; además se pueden
+ * invalidar usuarios o la caché entera. Acotada en entradas (LRU) y con TTL corto.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class CredentialCache {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final class Verified {
+        final byte[] mac;
+        final long expiresAt;
+
+        Verified(byte[] mac, long expiresAt) {
+            this.mac = mac;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final SecretKeySpec secret;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Verified> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries Usuarios máximos en caché
+     * @param ttlMillis Vida de una verificación
+     */
+    public CredentialCache(int maxEntries, long ttlMillis) {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.secret = new SecretKeySpec(key, ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<String, Verified>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Verified> eldest) {
+                return size() > CredentialCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Comprueba si esta combinación ya se verificó hace menos del TTL.
+     *
+     * @param username Usuario
+     * @param password Contraseña presentada
+     * @param hash Hash bcrypt actual del usuario
+     * @return true si coincide con una verificación vigente
+     */
+    public boolean matches(String username, String password, String hash) {
+        Verified v;
+        synchronized (entries) {
+            v = entries.get(username);
+            if (v != null && v.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(username);
+                v = null;
+            }
+        }
+        if (v != null && MessageDigest.isEqual(v.mac, mac(username, password, hash))) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Recuerda una verificación correcta.
+     *
+     * @param username Usuario
+     * @param password Contraseña verificada
+     * @param hash Hash bcrypt contra el que se verificó
+     */
+    public void put(String username, String password, String hash) {
+        Verified v = new Verified(mac(username, password, hash), System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            entries.put(username, v);
+        }
+    }
+
+    /**
+     * Olvida la verificación de un usuario (cambio de contraseña, desactivación).
+     *
+     * @param username Usuario
+     */
+    public void invalidate(String username) {
+        synchronized (entries) {
+            entries.remove(username);
+        }
+    }
+
+    /** Olvida todas las verificaciones (recarga del almacén de usuarios). */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /** Resumen para SITE STATS. */
+    public String describe() {
+        long h = hits.get();
+        long m = misses.get();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return String.format("credenciales: %d/%d en caché, TTL %d ms, aciertos=%d fallos=%d (%.1f%% bcrypt evitados)",
+            size, maxEntries, ttlMillis, h, m, (h + m) == 0 ? 0.0 : 100.0 * h / (h + m));
+    }
+
+    private byte[] mac(String username, String password, String hash) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            // Cada campo con su longitud delante, así dos combinaciones distintas nunca se confunden
+            for (String field : new String[] { username, password, hash }) {
+                byte[] b = field.getBytes(StandardCharsets.UTF_8);
+                mac.update(ByteBuffer.allocate(4).putInt(b.length).array());
+                mac.update(b);
+            }
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " no disponible", e);
+        }
+    }
+}
@@ -0,0 +1,746 @@
+package FTP.Server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Backend deduplicado: el espacio de nombres es el del disco local, pero cada fichero subido es un
+ * manifiesto con la lista de bloques que lo componen, y el contenido vive una sola vez en un {@link ChunkStore}.
+ * <p>
+ * STOR/APPE trocean el contenido mientras llega (bloques de tamaño fijo o definidos por contenido con
+ * un hash gear, que resisten inserciones) y calculan el SHA-256 de cada bloque sobre la marcha; un bloque
+ * que ya existe no se vuelve a escribir. RETR recompone el fichero leyendo por adelantado los siguientes
+ * bloques. DELE y las sobrescrituras restan referencias; RNTO mueve el manifiesto sin tocarlas.
+ * <p>
+ * Los ficheros que no son manifiestos (p. ej. los que ya había en la raíz) se sirven tal cual.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class DedupFileSystem implements FtpFileSystem {
+
+    /** Primera línea de un manifiesto: {@code MAGIC <tamaño lógico>} */
+    private static final String MAGIC = "#FTPDEDUP1";
+    private static final byte[] MAGIC_BYTES = (MAGIC + " ").getBytes(StandardCharsets.US_ASCII);
+    private static final int PATH_STRIPES = 64;
+    private static final int MAX_SIZE_CACHE = 65536;
+
+    /** Modo de troceado */
+    public enum Chunking {
+        FIXED, CDC;
+
+        /**
+         * @param value Valor de configuración ("fixed" o "cdc")
+         * @return Modo; CDC si el valor no se reconoce
+         */
+        public static Chunking parse(String value) {
+            return "fixed".equalsIgnoreCase(value == null ? "" : value.trim()) ? FIXED : CDC;
+        }
+    }
+
+    /** Tabla del hash gear; semilla fija para que los cortes sean estables entre arranques */
+    private static final long[] GEAR = new long[256];
+    static {
+        Random r = new Random(0x5EEDF7B1L);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = r.nextLong();
+    }
+
+    /** Lista de bloques de un fichero. */
+    private static final class Manifest {
+        final long size;
+        final String[] hashes;
+        final int[] lengths;
+        /** Desplazamiento lógico de cada bloque */
+        final long[] offsets;
+
+        Manifest(long size, List<String> hashes, List<Integer> lengths) {
+            this.size = size;
+            this.hashes = hashes.toArray(new String[0]);
+            this.lengths = new int[lengths.size()];
+            this.offsets = new long[lengths.size()];
+            long off = 0;
+            for (int i = 0; i < this.lengths.length; i++) {
+                this.lengths[i] = lengths.get(i);
+                this.offsets[i] = off;
+                off += this.lengths[i];
+            }
+        }
+
+        /** Índice del bloque que contiene el desplazamiento {@code pos}. */
+        int indexOf(long pos) {
+            int i = Arrays.binarySearch(offsets, pos);
+            return i >= 0 ? i : -i - 2;
+        }
+    }
+
+    private final LocalFileSystem namespace;
+    private final ChunkStore store;
+    private final Chunking chunking;
+    private final int minChunk;
+    private final int maxChunk;
+    private final long cutMask;
+    private final int readAhead;
+    private final DedupFile root;
+    private final Object[] pathLocks = new Object[PATH_STRIPES];
+    /** Tamaño lógico de manifiestos por ruta, validado con fecha y tamaño físico */
+    private final ConcurrentHashMap<Path, long[]> sizes = new ConcurrentHashMap<>();
+    private final AtomicLong manifests = new AtomicLong();
+
+    /**
+     * Crea el backend y reconstruye los contadores de referencias recorriendo los manifiestos.
+     *
+     * @param namespace Backend de disco que guarda directorios y manifiestos
+     * @param store Almacén de bloques
+     * @param chunking Modo de troceado
+     * @param chunkSize Tamaño de bloque (fijo) o tamaño medio (CDC, potencia de dos)
+     * @param readAhead Bloques leídos por adelantado en RETR
+     * @throws IOException Si no se puede recorrer la raíz o el almacén
+     */
+    public DedupFileSystem(LocalFileSystem namespace, ChunkStore store, Chunking chunking, int chunkSize, int readAhead)
+            throws IOException {
+        this.namespace = namespace;
+        this.store = store;
+        this.chunking = chunking;
+        int avg = Integer.highestOneBit(Math.max(4096, chunkSize));
+        this.cutMask = avg - 1;
+        this.minChunk = chunking == Chunking.CDC ? avg / 4 : avg;
+        this.maxChunk = chunking == Chunking.CDC ? avg * 4 : avg;
+        this.readAhead = Math.max(0, readAhead);
+        for (int i = 0; i < PATH_STRIPES; i++) pathLocks[i] = new Object();
+        this.root = new DedupFile(namespace.getRoot());
+        rebuild();
+    }
+
+    @Override
+    public FtpFile getRoot() {
+        return root;
+    }
+
+    @Override
+    public FtpFile resolve(FtpFile base, String path) {
+        FtpFile resolved = namespace.resolve(base instanceof DedupFile ? ((DedupFile) base).delegate : null, path);
+        return resolved != null ? new DedupFile(resolved) : null;
+    }
+
+    @Override
+    public void changed(FtpFile changed, boolean tree) {
+        if (changed instanceof DedupFile) namespace.changed(((DedupFile) changed).delegate, tree);
+    }
+
+    @Override
+    public String describe() {
+        return "almacenamiento: deduplicado (" + chunking.name().toLowerCase() + ", bloque " + (chunking == Chunking.CDC
+            ? minChunk + ".." + maxChunk : String.valueOf(maxChunk)) + " bytes, " + manifests.get() + " manifiestos; "
+            + store.describe() + ") sobre " + namespace.describe().replaceFirst("^almacenamiento: ", "");
+    }
+
+    /** Detiene los hilos del almacén de bloques. */
+    public void shutdown() {
+        store.shutdown();
+    }
+
+    /** Recorre la raíz, cuenta las referencias de cada manifiesto y limpia bloques huérfanos. */
+    private void rebuild() throws IOException {
+        long start = System.currentTimeMillis();
+        Path rootPath = LocalFileSystem.toPath(namespace.getRoot());
+        if (store.getDirectory().startsWith(rootPath)) {
+            throw new IOException("El directorio de bloques no puede estar dentro de la raíz: " + store.getDirectory());
+        }
+        Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+                try {
+                    Manifest m = readManifest(file);
+                    if (m != null) {
+                        for (int i = 0; i < m.hashes.length; i++) store.count(m.hashes[i], m.lengths[i]);
+                        manifests.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    FTP.Util.FileLogger.error("Dedup: manifiesto ilegible " + file + ": " + e.getMessage());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        int missing = store.start();
+        FTP.Util.FileLogger.info("Dedup: " + manifests.get() + " manifiestos indexados en "
+            + (System.currentTimeMillis() - start) + " ms" + (missing > 0 ? ", " + missing + " bloques perdidos" : ""));
+    }
+
+    /**
+     * Lee un manifiesto.
+     *
+     * @return Manifiesto, o null si el fichero no es un manifiesto (contenido normal)
+     */
+    private static Manifest readManifest(Path path) throws IOException {
+        if (!isManifest(path)) return null;
+        try (BufferedReader r = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+            String header = r.readLine();
+            long size = Long.parseLong(header.substring(MAGIC.length()).trim());
+            List<String> hashes = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                int sp = line.indexOf(' ');
+                hashes.add(line.substring(0, sp));
+                lengths.add(Integer.parseInt(line.substring(sp + 1)));
+            }
+            return new Manifest(size, hashes, lengths);
+        } catch (RuntimeException e) {
+            throw new IOException("Manifiesto corrupto: " + e.getMessage());
+        }
+    }
+
+    private static boolean isManifest(Path path) throws IOException {
+        byte[] head = new byte[MAGIC_BYTES.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n = 0;
+            while (n < head.length) {
+                int r = in.read(head, n, head.length - n);
+                if (r < 0) return false;
+                n += r;
+            }
+        }
+        return Arrays.equals(head, MAGIC_BYTES);
+    }
+
+    /** Tamaño lógico de un fichero (cacheado por fecha y tamaño físico del manifiesto). */
+    private long logicalSize(Path path, BasicFileAttributes attrs) throws IOException {
+        long mtime = attrs.lastModifiedTime().toMillis();
+        long[] cached = sizes.get(path);
+        if (cached != null && cached[0] == mtime && cached[1] == attrs.size()) return cached[2];
+        long size = attrs.size();
+        if (isManifest(path)) {
+            try (BufferedReader r = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+                size = Long.parseLong(r.readLine().substring(MAGIC.length()).trim());
+            } catch (RuntimeException e) {
+                throw new IOException("Manifiesto corrupto: " + path);
+            }
+        }
+        if (sizes.size() >= MAX_SIZE_CACHE) sizes.clear();
+        sizes.put(path, new long[] { mtime, attrs.size(), size });
+        return size;
+    }
+
+    private Object lockFor(Path path) {
+        return pathLocks[(path.hashCode() & 0x7fffffff) % PATH_STRIPES];
+    }
+
+    private void releaseAll(Manifest m) {
+        if (m == null) return;
+        for (String h : m.hashes) store.release(h);
+    }
+
+    /** Atributos de disco con el tamaño lógico del fichero. */
+    private static final class LogicalAttrs implements BasicFileAttributes {
+        private final BasicFileAttributes disk;
+        private final long size;
+
+        LogicalAttrs(BasicFileAttributes disk, long size) {
+            this.disk = disk;
+            this.size = size;
+        }
+
+        @Override public FileTime lastModifiedTime() { return disk.lastModifiedTime(); }
+        @Override public FileTime lastAccessTime() { return disk.lastAccessTime(); }
+        @Override public FileTime creationTime() { return disk.creationTime(); }
+        @Override public boolean isRegularFile() { return disk.isRegularFile(); }
+        @Override public boolean isDirectory() { return disk.isDirectory(); }
+        @Override public boolean isSymbolicLink() { return disk.isSymbolicLink(); }
+        @Override public boolean isOther() { return disk.isOther(); }
+        @Override public long size() { return size; }
+        @Override public Object fileKey() { return disk.fileKey(); }
+    }
+
+    /** Entrada del backend: envuelve la entrada de disco que guarda el directorio o el manifiesto. */
+    private final class DedupFile implements FtpFile {
+        private final FtpFile delegate;
+
+        DedupFile(FtpFile delegate) {
+            this.delegate = delegate;
+        }
+
+        private Path path() {
+            return LocalFileSystem.toPath(delegate);
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public String getVirtualPath() {
+            return delegate.getVirtualPath();
+        }
+
+        @Override
+        public FtpFile getParent() {
+            FtpFile parent = delegate.getParent();
+            return parent != null ? new DedupFile(parent) : null;
+        }
+
+        @Override
+        public FtpFileSystem getFileSystem() {
+            return DedupFileSystem.this;
+        }
+
+        @Override
+        public String getCacheKey() {
+            return delegate.getCacheKey();
+        }
+
+        @Override
+        public BasicFileAttributes stat() throws IOException {
+            BasicFileAttributes attrs = delegate.stat();
+            if (!attrs.isRegularFile()) return attrs;
+            return new LogicalAttrs(attrs, logicalSize(path(), attrs));
+        }
+
+        @Override
+        public boolean exists() {
+            return delegate.exists();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return delegate.isDirectory();
+        }
+
+        @Override
+        public boolean isFile() {
+            return delegate.isFile();
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return delegate.isSymbolicLink();
+        }
+
+        @Override
+        public DirectoryStream<FtpFile> list() throws IOException {
+            DirectoryStream<FtpFile> stream = delegate.list();
+            return new DirectoryStream<FtpFile>() {
+                @Override
+                public Iterator<FtpFile> iterator() {
+                    Iterator<FtpFile> it = stream.iterator();
+                    return new Iterator<FtpFile>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public FtpFile next() {
+                            return new DedupFile(it.next());
+                        }
+                    };
+                }
+
+                @Override
+                public void close() throws IOException {
+                    stream.close();
+                }
+            };
+        }
+
+        @Override
+        public SeekableByteChannel openRead() throws IOException {
+            Manifest m = delegate.isFile() ? readManifest(path()) : null;
+            if (m == null) return delegate.openRead();
+            // Fija los bloques mientras dure la lectura, aunque el fichero se sobrescriba o se borre
+            int pinned = 0;
+            try {
+                for (; pinned < m.hashes.length; pinned++) store.retain(m.hashes[pinned]);
+            } catch (IOException e) {
+                for (int i = 0; i < pinned; i++) store.release(m.hashes[i]);
+                throw e;
+            }
+            return new ManifestChannel(m);
+        }
+
+        @Override
+        public WritableByteChannel openWrite(boolean append) throws IOException {
+            if (delegate.isDirectory()) throw new IOException("Is a directory: " + getVirtualPath());
+            ChunkingChannel out = new ChunkingChannel(this);
+            if (append && delegate.isFile()) {
+                Manifest existing = readManifest(path());
+                if (existing != null) {
+                    out.adopt(existing);
+                } else {
+                    // Fichero normal: se trocea su contenido actual delante de lo nuevo
+                    try (SeekableByteChannel in = delegate.openRead()) {
+                        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+                        while (in.read(buf) != -1) {
+                            buf.flip();
+                            out.write(buf);
+                            buf.clear();
+                        }
+                    } catch (IOException e) {
+                        out.discard();
+                        throw e;
+                    }
+                }
+            }
+            return out;
+        }
+
+        @Override
+        public void rename(FtpFile target) throws IOException {
+            if (!(target instanceof DedupFile)) throw new IOException("Cross-filesystem rename not supported");
+            DedupFile to = (DedupFile) target;
+            if (equals(to)) return;
+            if (!delegate.isFile() || !to.delegate.isFile()) {
+                // El manifiesto se mueve con sus referencias
+                delegate.rename(to.delegate);
+                return;
+            }
+            // Sustituye a un fichero existente: sus bloques se liberan como en un borrado
+            Path replaced = to.path();
+            synchronized (lockFor(replaced)) {
+                Manifest m = readManifest(replaced);
+                delegate.rename(to.delegate);
+                if (m != null) {
+                    manifests.decrementAndGet();
+                    releaseAll(m);
+                }
+            }
+        }
+
+        /** Copiar un manifiesto solo suma referencias a sus bloques: no se lee ni escribe contenido. */
+        @Override
+        public void copyTo(FtpFile target, LongConsumer progress) throws IOException {
+            Manifest m = delegate.isFile() ? readManifest(path()) : null;
+            if (m == null || !(target instanceof DedupFile)) {
+                FtpFile.super.copyTo(target, progress);
+                return;
+            }
+            if (target.exists()) throw new FileAlreadyExistsException(target.getVirtualPath());
+            ChunkingChannel out = new ChunkingChannel((DedupFile) target);
+            try {
+                out.adopt(m);
+            } catch (IOException e) {
+                out.discard();
+                throw e;
+            }
+            out.close();
+            progress.accept(m.size);
+        }
+
+        @Override
+        public void delete() throws IOException {
+            if (!delegate.isFile()) {
+                delegate.delete();
+                return;
+            }
+            Path path = path();
+            synchronized (lockFor(path)) {
+                Manifest m = readManifest(path);
+                delegate.delete();
+                if (m != null) {
+                    manifests.decrementAndGet();
+                    releaseAll(m);
+                }
+            }
+        }
+
+        @Override
+        public void mkdir() throws IOException {
+            delegate.mkdir();
+        }
+
+        @Override
+        public void setLastModified(long millis) throws IOException {
+            // La fecha lógica es la del manifiesto (o la del fichero plano)
+            delegate.setLastModified(millis);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof DedupFile && ((DedupFile) o).delegate.equals(delegate);
+        }
+
+        @Override
+        public int hashCode() {
+            return delegate.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    /**
+     * Canal de escritura que trocea y calcula el hash de cada bloque según llegan los datos; al cerrar
+     * publica el manifiesto de forma atómica y suelta las referencias del contenido sustituido.
+     */
+    private final class ChunkingChannel implements WritableByteChannel {
+        private final DedupFile file;
+        private final byte[] buf = new byte[maxChunk];
+        private final MessageDigest digest;
+        private final List<String> hashes = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private int len = 0;
+        private long gear = 0;
+        private long size = 0;
+        private boolean open = true;
+
+        ChunkingChannel(DedupFile file) throws IOException {
+            this.file = file;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /** APPE sobre un manifiesto: sus bloques pasan a ser también del nuevo. */
+        void adopt(Manifest m) throws IOException {
+            for (int i = 0; i < m.hashes.length; i++) {
+                store.retain(m.hashes[i]);
+                hashes.add(m.hashes[i]);
+                lengths.add(m.lengths[i]);
+            }
+            size = m.size;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            int total = src.remaining();
+            while (src.hasRemaining()) {
+                int room = maxChunk - len;
+                int take = Math.min(room, src.remaining());
+                boolean cut = false;
+                if (chunking == Chunking.CDC) {
+                    int pos = src.position();
+                    for (int i = 0; i < take; i++) {
+                        gear = (gear << 1) + GEAR[src.get(pos + i) & 0xff];
+                        if (len + i + 1 >= minChunk && (gear & cutMask) == 0) {
+                            take = i + 1;
+                            cut = true;
+                            break;
+                        }
+                    }
+                }
+                src.get(buf, len, take);
+                digest.update(buf, len, take);
+                len += take;
+                if (cut || len == maxChunk) emit();
+            }
+            size += total;
+            return total;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) return;
+            open = false;
+            try {
+                if (len > 0) emit();
+                publish();
+            } catch (IOException e) {
+                for (String h : hashes) store.release(h);
+                throw e;
+            }
+        }
+
+        /** Descarta lo escrito (fallo antes de devolver el canal). */
+        void discard() {
+            open = false;
+            for (String h : hashes) store.release(h);
+        }
+
+        private void emit() throws IOException {
+            String hash = hex(digest.digest());
+            store.acquire(hash, buf, len);
+            hashes.add(hash);
+            lengths.add(len);
+            len = 0;
+            gear = 0;
+        }
+
+        private void publish() throws IOException {
+            Path target = LocalFileSystem.toPath(file.delegate);
+            Path tmp = store.getDirectory().resolve("tmp").resolve("manifest." + Thread.currentThread().getId() + "." + System.nanoTime());
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.US_ASCII)) {
+                w.write(MAGIC + " " + size + "\n");
+                for (int i = 0; i < hashes.size(); i++) {
+                    w.write(hashes.get(i));
+                    w.write(' ');
+                    w.write(Integer.toString(lengths.get(i)));
+                    w.write('\n');
+                }
+            }
+            Files.createDirectories(target.getParent());
+            synchronized (lockFor(target)) {
+                Manifest previous = null;
+                boolean existed = Files.isRegularFile(target);
+                if (existed) {
+                    try {
+                        previous = readManifest(target);
+                    } catch (IOException e) {
+                        previous = null;
+                    }
+                }
+                try {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    Files.deleteIfExists(tmp);
+                    throw e;
+                }
+                if (previous == null) manifests.incrementAndGet();
+                releaseAll(previous);
+            }
+        }
+    }
+
+    /** Lectura de un manifiesto con lectura anticipada de los bloques siguientes. */
+    private final class ManifestChannel implements SeekableByteChannel {
+        private final Manifest manifest;
+        private final ArrayDeque<CompletableFuture<ByteBuffer>> ahead = new ArrayDeque<>();
+        /** Índice del próximo bloque a pedir */
+        private int nextRequest;
+        private int currentIndex = -1;
+        private ByteBuffer current;
+        private long position = 0;
+        private boolean open = true;
+
+        ManifestChannel(Manifest manifest) {
+            this.manifest = manifest;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            if (position >= manifest.size) return -1;
+            int index = manifest.indexOf(position);
+            if (index != currentIndex) load(index);
+            current.position((int) (position - manifest.offsets[index]));
+            int n = Math.min(dst.remaining(), current.remaining());
+            ByteBuffer slice = current.duplicate();
+            slice.limit(slice.position() + n);
+            dst.put(slice);
+            position += n;
+            return n;
+        }
+
+        /** Toma el bloque {@code index} de la cola de lectura anticipada y pide los siguientes. */
+        private void load(int index) throws IOException {
+            if (index != currentIndex + 1 || ahead.isEmpty()) {
+                for (CompletableFuture<ByteBuffer> f : ahead) f.cancel(false);
+                ahead.clear();
+                nextRequest = index;
+            }
+            while (ahead.size() <= readAhead && nextRequest < manifest.hashes.length) {
+                ahead.add(store.readAsync(manifest.hashes[nextRequest], manifest.lengths[nextRequest]));
+                nextRequest++;
+            }
+            try {
+                current = ahead.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            currentIndex = index;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return manifest.size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            if (!open) return;
+            open = false;
+            for (CompletableFuture<ByteBuffer> f : ahead) f.cancel(false);
+            ahead.clear();
+            releaseAll(manifest);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        final char[] digits = "0123456789abcdef".toCharArray();
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,46 @@
+package FTP.Server;
+
+/**
+ * Vista del sistema de ficheros de una sesión FTP: el backend compartido más el directorio
+ * de trabajo propio del usuario. No es thread-safe (la usa solo el hilo de la sesión).
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class FileSystemView {
+    private final FtpFileSystem fileSystem;
+    private FtpFile workingDirectory;
+
+    public FileSystemView(FtpFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        this.workingDirectory = fileSystem.getRoot();
+    }
+
+    public FtpFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    public FtpFile getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    /**
+     * Cambia el directorio de trabajo.
+     *
+     * @param dir Directorio existente del mismo sistema de ficheros
+     */
+    public void setWorkingDirectory(FtpFile dir) {
+        this.workingDirectory = dir;
+    }
+
+    /**
+     * Resuelve una ruta de cliente respecto al directorio de trabajo.
+     *
+     * @param path Ruta del cliente; null o vacía devuelve el directorio de trabajo
+     * @return Entrada bajo la raíz, o null si la ruta no es válida o sale de la raíz
+     */
+    public FtpFile resolve(String path) {
+        if (path == null || path.trim().isEmpty()) return workingDirectory;
+        return fileSystem.resolve(workingDirectory, path.trim());
+    }
+}
@@ -6,20 +6,66 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Almacén de usuarios desde fichero TXT (formato username:bcryptHash:profile).
  * Retrocompatibilidad cuando ftp.users.database no está configurado. Todos los usuarios se consideran enabled.
+ * <p>
+ * El fichero se carga una vez en un índice inmutable por nombre de usuario, así PASS no vuelve a leer
+ * el disco. Con {@link #startReloading(long)} un hilo en segundo plano comprueba la fecha y el tamaño
+ * del fichero y, si cambian, lo vuelve a cargar y sustituye el índice de una vez (los logins en curso
+ * ven el índice anterior o el nuevo, nunca uno a medias). Las líneas mal formadas se avisan una sola
+ * vez por carga. {@link #updatePasswordHash} reescribe la línea del usuario (fichero temporal y
+ * renombrado atómico) y recarga el índice.
  *
  * @author Eduardo Díaz Sánchez
  * @version 1.0
  */
 public class FileUserStore implements UserStore {
 
+    /** Índice inmutable de una carga del fichero. */
+    private static final class Snapshot {
+        final Map<String, UserInfo> users;
+        final long modified;
+        final long size;
+        final int malformed;
+
+        Snapshot(Map<String, UserInfo> users, long modified, long size, int malformed) {
+            this.users = users;
+            this.modified = modified;
+            this.size = size;
+            this.malformed = malformed;
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(Collections.<String, UserInfo>emptyMap(), -1, -1, 0);
+
     private final String filePath;
+    private volatile Snapshot snapshot = EMPTY;
+    private ScheduledExecutorService reloader;
+    /** Fecha y tamaño de la última carga fallida, para no repetir el error en cada comprobación */
+    private long failedModified = -1;
+    private long failedSize = -1;
+
+    private final AtomicLong reloads = new AtomicLong();
+    private volatile long lastLoadMillis;
 
     public FileUserStore(String filePath) {
         this.filePath = filePath;
+        reloadIfChanged();
     }
 
     @Override
@@ -27,42 +73,150 @@ public class FileUserStore implements UserStore {
         if (username == null || username.trim().isEmpty()) {
             return null;
         }
+        return snapshot.users.get(username.trim());
+    }
+
+    /**
+     * Comprueba periódicamente si el fichero ha cambiado y lo recarga en segundo plano.
+     *
+     * @param intervalMillis Periodo de comprobación
+     */
+    public synchronized void startReloading(long intervalMillis) {
+        if (reloader != null || intervalMillis <= 0) return;
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ftp-users-reload");
+            t.setDaemon(true);
+            return t;
+        });
+        reloader.scheduleWithFixedDelay(this::reloadIfChanged, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Detiene la recarga en segundo plano. */
+    public synchronized void shutdown() {
+        if (reloader != null) reloader.shutdownNow();
+        reloader = null;
+    }
+
+    /**
+     * Recarga el fichero si su fecha o tamaño han cambiado desde la última carga.
+     *
+     * @return true si se ha recargado
+     */
+    public synchronized boolean reloadIfChanged() {
+        return reload(false);
+    }
+
+    private boolean reload(boolean force) {
         File file = new File(filePath);
-        if (!file.exists() || !file.isFile()) {
-            return null;
+        long modified = file.lastModified();
+        long size = file.length();
+        Snapshot current = snapshot;
+        if (!force && modified == current.modified && size == current.size) return false;
+        if (!force && modified == failedModified && size == failedSize) return false;
+        if (!file.isFile()) {
+            failedModified = modified;
+            failedSize = size;
+            FTP.Util.FileLogger.error("Fichero de usuarios no encontrado: " + filePath
+                + (current == EMPTY ? "" : " (se mantienen los " + current.users.size() + " usuarios cargados)"));
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            Snapshot loaded = load(file, modified, size);
+            snapshot = loaded;
+            CredentialCache credentials = JavaFtpServer.getCredentialCache();
+            if (credentials != null) credentials.invalidateAll();
+            failedModified = -1;
+            failedSize = -1;
+            lastLoadMillis = (System.nanoTime() - start) / 1_000_000;
+            if (reloads.getAndIncrement() > 0) {
+                FTP.Util.FileLogger.info("Fichero de usuarios recargado: " + loaded.users.size() + " usuarios en "
+                    + lastLoadMillis + " ms");
+            }
+            return true;
+        } catch (IOException e) {
+            failedModified = modified;
+            failedSize = size;
+            FTP.Util.FileLogger.error("Error leyendo fichero de usuarios: " + e.getMessage());
+            return false;
         }
+    }
+
+    @Override
+    public synchronized boolean updatePasswordHash(String username, String oldHash, String newHash) {
+        Path path = Paths.get(filePath);
+        try {
+            List<String> lines = new ArrayList<>(Files.readAllLines(path, StandardCharsets.UTF_8));
+            boolean updated = false;
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split(":", 3);
+                if (parts.length != 3 || !parts[0].trim().equals(username)) continue;
+                // Solo la primera aparición cuenta, como en la carga; si el hash ha cambiado entretanto, no se toca
+                if (parts[1].trim().equals(oldHash)) {
+                    lines.set(i, parts[0].trim() + ":" + newHash + ":" + parts[2].trim());
+                    updated = true;
+                }
+                break;
+            }
+            if (!updated) return false;
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Mismo tamaño y quizá la misma fecha (resolución de segundos): se recarga sin comprobarlas
+            reload(true);
+            return true;
+        } catch (IOException e) {
+            FTP.Util.FileLogger.error("Error actualizando el hash de " + username + " en " + filePath + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public String describe() {
+        Snapshot s = snapshot;
+        return "usuarios: fichero " + filePath + ", " + s.users.size() + " usuarios, " + s.malformed
+            + " líneas mal formadas, cargas=" + reloads.get() + " (última " + lastLoadMillis + " ms)";
+    }
+
+    private static Snapshot load(File file, long modified, long size) throws IOException {
+        Map<String, UserInfo> users = new HashMap<>();
+        int malformed = 0;
+        int lineNumber = 0;
         try (FileInputStream fis = new FileInputStream(file);
              InputStreamReader isr = new InputStreamReader(fis, StandardCharsets.UTF_8);
              BufferedReader br = new BufferedReader(isr)) {
             String line;
             while ((line = br.readLine()) != null) {
+                lineNumber++;
                 line = line.trim();
                 if (line.isEmpty() || line.startsWith("#")) {
                     continue;
                 }
                 String[] parts = line.split(":", 3);
                 if (parts.length != 3) {
-                    FTP.Util.FileLogger.warning("Línea de usuario mal formada (se esperan 3 campos): " + line);
+                    malformed++;
+                    FTP.Util.FileLogger.warning("Línea de usuario mal formada (se esperan 3 campos), línea " + lineNumber);
                     continue;
                 }
                 String u = parts[0].trim();
                 String hash = parts[1].trim();
                 String profileStr = parts[2].trim();
-                if (!u.equals(username.trim())) {
-                    continue;
-                }
                 UserProfile profile;
                 try {
                     profile = UserProfile.valueOf(profileStr);
                 } catch (IllegalArgumentException e) {
-                    FTP.Util.FileLogger.warning("Perfil de usuario no válido: " + profileStr);
-                    return null;
+                    malformed++;
+                    FTP.Util.FileLogger.warning("Perfil de usuario no válido en la línea " + lineNumber + ": " + profileStr);
+                    continue;
+                }
+                // Como en la búsqueda lineal, gana la primera aparición
+                if (users.putIfAbsent(u, new UserInfo(u, hash, profile, true)) != null) {
+                    FTP.Util.FileLogger.warning("Usuario duplicado en la línea " + lineNumber + ": " + u + " (se usa el primero)");
                 }
-                return new UserInfo(u, hash, profile, true);
             }
-        } catch (IOException e) {
-            FTP.Util.FileLogger.error("Error leyendo fichero de usuarios: " + e.getMessage());
         }
-        return null;
+        return new Snapshot(Collections.unmodifiableMap(users), modified, size, malformed);
     }
 }
@@ -0,0 +1,479 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import FTP.Util.FileLogger;
+
+/**
+ * Índice en memoria de los nombres del árbol servido, para SITE FIND sin recorrer el disco.
+ * <p>
+ * Es un trie por componentes de ruta: cada nodo guarda solo su nombre, su padre y (si es directorio)
+ * sus hijos ordenados, así una ruta no se repite entera en cada entrada. Se construye al arrancar con
+ * un recorrido paralelo ({@link ForkJoinPool}) y se mantiene al día por dos vías: las mutaciones de
+ * {@link ServerFunctions} (a través de {@code notifyChanged}) y un {@link WatchService} sobre cada
+ * directorio para los cambios hechos fuera del servidor. Ambas son idempotentes.
+ * <p>
+ * Las búsquedas toman el lock de lectura y recorren solo el subárbol del directorio de trabajo del
+ * cliente, con lo que nunca devuelven rutas fuera de lo que ese cliente puede ver.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class FilenameIndex {
+
+    /** Coste aproximado de un nodo: cabecera y campos, String y entrada del TreeMap del padre */
+    private static final int NODE_BYTES = 32 + 40 + 40;
+    /** Coste aproximado del TreeMap de hijos de un directorio */
+    private static final int DIR_BYTES = 48;
+
+    /** Resultado de una búsqueda. */
+    public static final class Result {
+        public final List<String> paths;
+        public final boolean truncated;
+        public final long visited;
+
+        Result(List<String> paths, boolean truncated, long visited) {
+            this.paths = paths;
+            this.truncated = truncated;
+            this.visited = visited;
+        }
+    }
+
+    private static final class Node {
+        final String name;
+        Node parent;
+        /** Hijos por nombre; null en ficheros */
+        final TreeMap<String, Node> children;
+        WatchKey watchKey;
+
+        Node(String name, boolean directory) {
+            this.name = name;
+            this.children = directory ? new TreeMap<>() : null;
+        }
+
+        boolean isDirectory() {
+            return children != null;
+        }
+    }
+
+    private final FtpFileSystem fs;
+    private final ForkJoinPool pool;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node root = new Node("", true);
+    private final Map<WatchKey, Node> watched = new ConcurrentHashMap<>();
+    private WatchService watcher;
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong dirs = new AtomicLong();
+    private final AtomicLong nameChars = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong hookUpdates = new AtomicLong();
+    private final AtomicLong watchUpdates = new AtomicLong();
+    private final AtomicLong watchFailures = new AtomicLong();
+    private volatile long buildMillis;
+
+    /**
+     * @param fs Sistema de ficheros a indexar
+     * @param parallelism Hilos del recorrido inicial y de las re-indexaciones de subárboles
+     */
+    public FilenameIndex(FtpFileSystem fs, int parallelism) {
+        this.fs = fs;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            Thread t = new Thread(this::watchLoop, "ftp-index-watch");
+            t.setDaemon(true);
+            t.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            watcher = null;
+            FileLogger.warning("Índice de nombres sin WatchService (solo cambios hechos por el servidor): " + e.getMessage());
+        }
+    }
+
+    /**
+     * Indexa el árbol completo (al arrancar).
+     *
+     * @return Milisegundos empleados
+     */
+    public long build() {
+        long start = System.currentTimeMillis();
+        Node scanned = pool.invoke(new ScanTask(fs.getRoot(), ""));
+        lock.writeLock().lock();
+        try {
+            for (Node child : scanned.children.values()) {
+                child.parent = root;
+                root.children.put(child.name, child);
+            }
+            root.watchKey = scanned.watchKey;
+            if (root.watchKey != null) watched.put(root.watchKey, root);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        buildMillis = System.currentTimeMillis() - start;
+        return buildMillis;
+    }
+
+    /**
+     * Actualiza el índice tras una mutación del servidor (STOR, DELE, MKD, RMD, RNTO, copias...).
+     *
+     * @param changed Entrada creada, modificada, borrada o renombrada
+     * @param tree true si el subárbol entero puede haber cambiado
+     */
+    public void changed(FtpFile changed, boolean tree) {
+        hookUpdates.incrementAndGet();
+        sync(changed, tree);
+    }
+
+    /**
+     * Busca entradas bajo {@code base} cuyo nombre (o ruta relativa a {@code base}, si el patrón
+     * contiene '/') encaja con el glob.
+     *
+     * @param base Directorio desde el que buscar (el de trabajo del cliente)
+     * @param glob Patrón con *, ? y [...]
+     * @param maxResults Resultados máximos
+     * @return Rutas virtuales ordenadas por recorrido
+     */
+    public Result find(FtpFile base, String glob, int maxResults) {
+        searches.incrementAndGet();
+        boolean byPath = glob.indexOf('/') >= 0;
+        Pattern pattern = Pattern.compile(globToRegex(byPath && glob.startsWith("/") ? glob.substring(1) : glob));
+        String basePath = base.getVirtualPath();
+        String prefix = "/".equals(basePath) ? "/" : basePath + "/";
+        List<String> out = new ArrayList<>();
+        long visited = 0;
+        boolean truncated = false;
+        lock.readLock().lock();
+        try {
+            Node start = lookup(basePath);
+            if (start == null || !start.isDirectory()) return new Result(out, false, 0);
+            Deque<Iterator<Node>> stack = new ArrayDeque<>();
+            Deque<String> relStack = new ArrayDeque<>();
+            stack.push(start.children.values().iterator());
+            relStack.push("");
+            while (!stack.isEmpty()) {
+                Iterator<Node> it = stack.peek();
+                if (!it.hasNext()) {
+                    stack.pop();
+                    relStack.pop();
+                    continue;
+                }
+                Node n = it.next();
+                visited++;
+                String rel = relStack.peek() + n.name;
+                if (pattern.matcher(byPath ? rel : n.name).matches()) {
+                    if (out.size() >= maxResults) {
+                        truncated = true;
+                        break;
+                    }
+                    out.add(prefix + rel);
+                }
+                if (n.isDirectory() && !n.children.isEmpty()) {
+                    stack.push(n.children.values().iterator());
+                    relStack.push(rel + "/");
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new Result(out, truncated, visited);
+    }
+
+    /** Resumen para SITE STATS: tamaño, memoria aproximada y tiempo de construcción. */
+    public String describe() {
+        long f = files.get();
+        long d = dirs.get();
+        long bytes = (f + d) * NODE_BYTES + d * DIR_BYTES + nameChars.get();
+        return String.format("índice: %d ficheros, %d dirs, ≈%d KB, construido en %d ms, búsquedas=%d, actualizaciones=%d servidor/%d watch, vigilados=%d (fallos=%d)",
+            f, d, bytes / 1024, buildMillis, searches.get(), hookUpdates.get(), watchUpdates.get(), watched.size(), watchFailures.get());
+    }
+
+    /** Detiene la vigilancia y el pool. */
+    public void shutdown() {
+        pool.shutdownNow();
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ignored) {
+                // cerrando
+            }
+        }
+    }
+
+    /**
+     * Convierte un glob (*, ?, [...]) en una expresión regular; '*' y '?' no cruzan '/'.
+     *
+     * @param glob Patrón
+     * @return Expresión regular equivalente
+     */
+    static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder(glob.length() + 8);
+        boolean inClass = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (inClass) {
+                if (c == ']') inClass = false;
+                if (c == '\\') sb.append('\\');
+                sb.append(c);
+                continue;
+            }
+            switch (c) {
+                case '*': sb.append("[^/]*"); break;
+                case '?': sb.append("[^/]"); break;
+                case '[':
+                    inClass = glob.indexOf(']', i + 1) > i + 1;
+                    sb.append(inClass ? "[" : "\\[");
+                    if (inClass && i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+                        sb.append('^');
+                        i++;
+                    }
+                    break;
+                default:
+                    if ("\\.^$|+(){}".indexOf(c) >= 0) sb.append('\\');
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Sincroniza el nodo de {@code file} con el estado real del backend. */
+    private void sync(FtpFile file, boolean tree) {
+        String path = file.getVirtualPath();
+        if ("/".equals(path)) {
+            if (tree) rescanChildren(root, file);
+            return;
+        }
+        if (!file.exists()) {
+            lock.writeLock().lock();
+            try {
+                Node n = lookup(path);
+                if (n != null) detach(n);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+        FtpFile parentFile = file.getParent();
+        Node existing;
+        Node parent;
+        lock.readLock().lock();
+        try {
+            existing = lookup(path);
+            parent = lookup(parentFile.getVirtualPath());
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (parent == null || !parent.isDirectory()) {
+            // El padre tampoco estaba indexado: se indexa desde él
+            sync(parentFile, true);
+            return;
+        }
+        boolean directory = file.isDirectory() && !file.isSymbolicLink();
+        if (existing != null && existing.isDirectory() == directory && !(directory && tree)) return;
+        Node fresh = directory ? pool.invoke(new ScanTask(file, file.getName())) : new Node(file.getName(), false);
+        if (!directory) countNew(fresh);
+        lock.writeLock().lock();
+        try {
+            if (parent.parent != null || parent == root) {
+                attach(parent, fresh);
+            } else {
+                discard(fresh); // el padre se ha borrado mientras tanto
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Reconstruye los hijos de un directorio indexado (desbordamiento de eventos, cambios en la raíz). */
+    private void rescanChildren(Node dir, FtpFile file) {
+        Node scanned = pool.invoke(new ScanTask(file, dir.name));
+        lock.writeLock().lock();
+        try {
+            // El nodo recién escaneado solo envuelve a los hijos: el directorio ya estaba contado
+            dirs.decrementAndGet();
+            nameChars.addAndGet(-scanned.name.length());
+            if (scanned.watchKey != null) {
+                dir.watchKey = scanned.watchKey;
+                watched.put(dir.watchKey, dir);
+            }
+            for (Node child : new ArrayList<>(dir.children.values())) detach(child);
+            for (Node child : new ArrayList<>(scanned.children.values())) attach(dir, child);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Cuelga un nodo (y su subárbol ya contado) de {@code parent}, sustituyendo al anterior. Requiere el lock de escritura. */
+    private void attach(Node parent, Node child) {
+        Node old = parent.children.get(child.name);
+        if (old != null) detach(old);
+        child.parent = parent;
+        parent.children.put(child.name, child);
+    }
+
+    /** Quita un nodo del árbol, descuenta su subárbol y cancela sus vigilancias. Requiere el lock de escritura. */
+    private void detach(Node n) {
+        if (n.parent != null && n.parent.children.get(n.name) == n) n.parent.children.remove(n.name);
+        n.parent = null;
+        discard(n);
+    }
+
+    private void discard(Node n) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(n);
+        while (!stack.isEmpty()) {
+            Node x = stack.pop();
+            nameChars.addAndGet(-x.name.length());
+            if (x.isDirectory()) {
+                dirs.decrementAndGet();
+                // Al re-indexar una ruta el registro devuelve la misma clave, que pasa al nodo nuevo
+                if (x.watchKey != null && watched.remove(x.watchKey, x)) x.watchKey.cancel();
+                x.watchKey = null;
+                stack.addAll(x.children.values());
+            } else {
+                files.decrementAndGet();
+            }
+        }
+    }
+
+    private void countNew(Node n) {
+        nameChars.addAndGet(n.name.length());
+        if (n.isDirectory()) dirs.incrementAndGet(); else files.incrementAndGet();
+    }
+
+    /** Nodo de una ruta virtual, o null. Requiere algún lock. */
+    private Node lookup(String virtualPath) {
+        Node n = root;
+        for (String part : virtualPath.split("/")) {
+            if (part.isEmpty()) continue;
+            if (!n.isDirectory()) return null;
+            n = n.children.get(part);
+            if (n == null) return null;
+        }
+        return n;
+    }
+
+    private String virtualPathOf(Node n) {
+        Deque<String> parts = new ArrayDeque<>();
+        for (Node x = n; x != null && x != root; x = x.parent) parts.push(x.name);
+        if (parts.isEmpty()) return "/";
+        StringBuilder sb = new StringBuilder();
+        for (String p : parts) sb.append('/').append(p);
+        return sb.toString();
+    }
+
+    /** Vigila un directorio; solo es posible en backends respaldados por disco. */
+    private WatchKey watch(FtpFile dir) {
+        if (watcher == null) return null;
+        try {
+            return Paths.get(dir.getCacheKey()).register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | RuntimeException e) {
+            watchFailures.incrementAndGet();
+            return null;
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Node dir = watched.get(key);
+            List<WatchEvent<?>> events = key.pollEvents();
+            key.reset();
+            if (dir == null) continue;
+            String dirPath;
+            lock.readLock().lock();
+            try {
+                if (dir.parent == null && dir != root) continue; // ya no está en el árbol
+                dirPath = virtualPathOf(dir);
+            } finally {
+                lock.readLock().unlock();
+            }
+            FtpFile dirFile = fs.resolve(fs.getRoot(), dirPath);
+            if (dirFile == null) continue;
+            try {
+                for (WatchEvent<?> event : events) {
+                    watchUpdates.incrementAndGet();
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescanChildren(dir, dirFile);
+                        break;
+                    }
+                    Object ctx = event.context();
+                    if (!(ctx instanceof Path)) continue;
+                    FtpFile child = fs.resolve(dirFile, ((Path) ctx).getFileName().toString());
+                    if (child != null) sync(child, true);
+                }
+            } catch (RuntimeException e) {
+                FileLogger.error("Índice de nombres: evento de " + dirPath + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** Indexa un subárbol en paralelo y devuelve su nodo raíz (desconectado del árbol). */
+    private final class ScanTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final FtpFile dir;
+        private final String name;
+
+        ScanTask(FtpFile dir, String name) {
+            this.dir = dir;
+            this.name = name;
+        }
+
+        @Override
+        protected Node compute() {
+            Node node = new Node(name, true);
+            countNew(node);
+            node.watchKey = watch(dir);
+            if (node.watchKey != null) watched.put(node.watchKey, node);
+            List<ScanTask> subdirs = new ArrayList<>();
+            try (DirectoryStream<FtpFile> entries = dir.list()) {
+                for (FtpFile child : entries) {
+                    if (child.isDirectory() && !child.isSymbolicLink()) {
+                        subdirs.add(new ScanTask(child, child.getName()));
+                    } else {
+                        Node leaf = new Node(child.getName(), false);
+                        countNew(leaf);
+                        leaf.parent = node;
+                        node.children.put(leaf.name, leaf);
+                    }
+                }
+            } catch (IOException e) {
+                // Directorio ilegible o borrado durante el recorrido: queda vacío en el índice
+            }
+            for (ScanTask t : invokeAll(subdirs)) {
+                Node sub = t.join();
+                sub.parent = node;
+                node.children.put(sub.name, sub);
+            }
+            return node;
+        }
+    }
+}
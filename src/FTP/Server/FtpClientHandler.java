@@ -1,20 +1,30 @@
 package FTP.Server;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 
-import org.mindrot.jbcrypt.BCrypt;
-
 import FTP.Util.Util;
 
 /**
@@ -42,6 +52,12 @@ public class FtpClientHandler implements Runnable {
 	/** Socket del servidor para modo pasivo */
 	private ServerSocket passiveDataSocket;
 
+	/** Conexión pasiva aceptada (o en curso de aceptarse) en segundo plano tras PASV/EPSV */
+	private CompletableFuture<Socket> pendingPassive;
+
+	/** Espera máxima a que termine el accept() pasivo descartado por un PASV/EPSV/PORT posterior */
+	private static final long PASSIVE_DISCARD_WAIT_MILLIS = 1000;
+
 	/** Dirección IP para conexión de datos en modo pasivo */
 	private String passiveDataIp;
 
@@ -75,12 +91,18 @@ public class FtpClientHandler implements Runnable {
 	/** Instancia de funciones del servidor FTP */
 	private final ServerFunctions serverFunctions;
 
-	/** Directorio de trabajo actual del cliente */
-	private String currentDirectory;
+	/** Vista del sistema de ficheros de la sesión (backend compartido + directorio de trabajo) */
+	private final FileSystemView fileSystemView;
 
 	/** Tipo de transferencia actual: "A" (ASCII) o "I" (Binary/Image) */
 	private String transferType = "A";
 
+	/** Comandos leídos mientras se buscaba ABOR durante una operación larga; se procesan después */
+	private final Deque<String> queuedCommands = new ArrayDeque<>();
+
+	/** Tamaño anunciado con ALLO para la próxima subida (-1 = ninguno) */
+	private long allocationHint = -1;
+
 	/** Configuración del servidor (timeout, rango pasivo, etc.) */
 	private final ServerConfig config;
 
@@ -90,14 +112,41 @@ public class FtpClientHandler implements Runnable {
 	/** Almacén de usuarios (SQLite o fichero) */
 	private final UserStore userStore;
 
-	/** Timestamp del último comando (para timeout de sesión; usado en log al cerrar por timeout) */
-	private long lastActivityAt;
+	/** Timestamp del último comando o transferencia (lo consulta la rueda de timeouts) */
+	private volatile long lastActivityAt;
+
+	/** Rueda de timeouts compartida por todas las sesiones */
+	private final TimeoutWheel timeoutWheel;
+
+	/** Timeout de inactividad del canal de control (lo reprograma la rueda y lo cancela la sesión) */
+	private volatile TimeoutWheel.Timeout idleTimeout;
+
+	/** Si la sesión se cerró por inactividad */
+	private volatile boolean idleExpired;
+
+	/** Plazo de aceptación de la conexión pasiva pendiente */
+	private TimeoutWheel.Timeout acceptDeadline;
+
+	/** Socket de datos de la transferencia en curso (para abortarla si se queda parada) */
+	private volatile Socket transferSocket;
+
+	/** Timestamp del último progreso de la transferencia en curso */
+	private volatile long lastTransferProgress;
+
+	/** Timeout de transferencia parada (lo reprograma la rueda y lo cancela la sesión) */
+	private volatile TimeoutWheel.Timeout stallTimeout;
+
+	/** Hechos MLSD/MLST activos en la sesión (OPTS MLST) */
+	private Set<String> mlstFacts = ListFormatter.MLST_FACTS;
 
 	/** Si el canal de control está cifrado (AUTH TLS) */
 	private boolean tlsActive;
 
-	/** Si el canal de datos debe cifrarse (PROT P) */
-	private boolean dataProtection;
+	/** Si el canal de datos debe cifrarse (PROT P); lo lee también el accept pasivo en segundo plano */
+	private volatile boolean dataProtection;
+
+	/** Listener por el que llegó la conexión (modo TLS y nombre para logs) */
+	private final ListenerConfig listener;
 
 	/**
 	 * Constructor del manejador de cliente.
@@ -109,14 +158,31 @@ public class FtpClientHandler implements Runnable {
 	 * @throws IOException Si ocurre un error al inicializar el manejador
 	 */
 	public FtpClientHandler(Socket controlSocket, ServerConfig config, LoginThrottle loginThrottle, UserStore userStore) throws IOException {
+		this(controlSocket, config, loginThrottle, userStore, null);
+	}
+
+	/**
+	 * Constructor del manejador de cliente para una conexión aceptada por un listener concreto.
+	 *
+	 * @param controlSocket Socket de control establecido con el cliente
+	 * @param config Configuración del servidor (puede ser null para valores por defecto)
+	 * @param loginThrottle Throttle de login (puede ser null para desactivar)
+	 * @param userStore Almacén de usuarios (SQLite o fichero)
+	 * @param listener Listener que aceptó la conexión (null = primer listener de la configuración)
+	 * @throws IOException Si ocurre un error al inicializar el manejador
+	 */
+	public FtpClientHandler(Socket controlSocket, ServerConfig config, LoginThrottle loginThrottle, UserStore userStore,
+	                        ListenerConfig listener) throws IOException {
 		this.controlSocket = controlSocket;
 		this.config = config != null ? config : new ServerConfig();
+		this.listener = listener != null ? listener : this.config.getListeners().get(0);
 		this.loginThrottle = loginThrottle;
 		this.userStore = userStore != null ? userStore : new FileUserStore(JavaFtpServer.USERS_FILE);
 		currentUser = new User();
 		serverFunctions = new ServerFunctions(this);
-		currentDirectory = JavaFtpServer.dirRoot;
+		fileSystemView = JavaFtpServer.getFileSystem().createView();
 		this.lastActivityAt = System.currentTimeMillis();
+		this.timeoutWheel = JavaFtpServer.getTimeoutWheel();
 		this.tlsActive = false;
 		this.dataProtection = false;
 	}
@@ -131,10 +197,18 @@ public class FtpClientHandler implements Runnable {
 		System.out.println("\nConexión con el cliente " + controlSocket.getInetAddress());
 
 		try {
+			// La rueda vigila la sesión antes de cualquier E/S; las lecturas que no cubre tienen su propio plazo
+			final Socket rawControl = controlSocket;
 			long sessionTimeout = config.getSessionTimeout();
 			if (sessionTimeout > 0) {
-				int soTimeout = (int) Math.min(sessionTimeout, Integer.MAX_VALUE);
-				controlSocket.setSoTimeout(soTimeout);
+				idleTimeout = timeoutWheel.schedule(() -> checkIdle(rawControl), sessionTimeout);
+			}
+
+			if (controlSocket instanceof SSLSocket) {
+				// FTPS implícito: handshake antes del saludo; los datos van cifrados por defecto
+				handshake((SSLSocket) controlSocket);
+				tlsActive = true;
+				dataProtection = true;
 			}
 
 			// Usar UTF-8 explícitamente para soportar nombres con acentos, ñ, etc.
@@ -143,13 +217,13 @@ public class FtpClientHandler implements Runnable {
 
 			sendReply(220, "Welcome to the FTP server");
 
-			while ((command = in.readLine()) != null) {
+			while ((command = nextCommand()) != null) {
 				lastActivityAt = System.currentTimeMillis();
 				String[] commandParts = command.split(" ", 2); // Límite 2: comando + resto
 			    String commandName = commandParts[0];
 			    String commandArg = (commandParts.length > 1) ? commandParts[1] : null; // Toma TODO después del espacio
 
-				if (config.isTlsRequired() && !tlsActive && !commandName.equals("AUTH") && !commandName.equals("QUIT")) {
+				if (listener.isTlsRequired() && !tlsActive && !commandName.equals("AUTH") && !commandName.equals("QUIT")) {
 					sendReply(530, "Please use AUTH TLS first.");
 					continue;
 				}
@@ -176,7 +250,10 @@ public class FtpClientHandler implements Runnable {
 						sendReplyMultilineBody(" UTF8");
 						sendReplyMultilineBody(" SIZE");
 						sendReplyMultilineBody(" MDTM");
+						sendReplyMultilineBody(" MFMT");
+						sendReplyMultilineBody(" MFF modify;");
 						sendReplyMultilineBody(" TVFS");
+						sendReplyMultilineBody(" " + ListFormatter.mlstFeature(mlstFacts));
 						sendReply(211, "End");
 						break;
 
@@ -185,6 +262,8 @@ public class FtpClientHandler implements Runnable {
 							sendReply(200, "OPTS UTF8 OK");
 						} else if (commandArg != null && commandArg.trim().toUpperCase().startsWith("UTF8 OFF")) {
 							sendReply(504, "UTF8 mode is always on.");
+						} else if (commandArg != null && commandArg.trim().toUpperCase().startsWith("MLST")) {
+							handleOptsMlst(commandArg.trim().substring(4).trim());
 						} else {
 							sendReply(501, "Syntax error in parameters or arguments.");
 						}
@@ -203,7 +282,7 @@ public class FtpClientHandler implements Runnable {
 						break;
 						
 					case "PASS":
-						handlePassCommand(commandArg);
+						if (!handlePassCommand(commandArg)) return; // 421: se cierra la conexión
 						break;
 						
 					case "PASV":
@@ -211,6 +290,11 @@ public class FtpClientHandler implements Runnable {
 							handlePasvCommand();
 						break;
 						
+					case "EPSV":
+						if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+							handleEpsvCommand(commandArg);
+						break;
+
 					case "PORT":
 						if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR)) 
 							handlePortCommand(commandArg);
@@ -218,12 +302,37 @@ public class FtpClientHandler implements Runnable {
 						
 					case "LIST":
 				        if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR)) 
-				        	serverFunctions.handleListCommand();
+				        	serverFunctions.handleListCommand(commandArg);
+						break;
+
+					case "NLST":
+						if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+							serverFunctions.handleNlstCommand(commandArg);
 						break;
 						
+					case "MLSD":
+						if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+							serverFunctions.handleMlsdCommand(commandArg);
+						break;
+
+					case "MLST":
+						if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+							serverFunctions.handleMlstCommand(commandArg);
+						break;
+
 					case "STOR":
 					    if (checkAuthentication(UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
-					    	serverFunctions.handleUploadFileCommand(commandArg);
+					    	serverFunctions.handleUploadFileCommand(commandArg, false);
+					    break;
+
+					case "APPE":
+					    if (checkAuthentication(UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+					    	serverFunctions.handleUploadFileCommand(commandArg, true);
+					    break;
+
+					case "ALLO":
+					    if (checkAuthentication(UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+					    	handleAlloCommand(commandArg);
 					    break;
 					    
 					case "RETR":
@@ -236,6 +345,16 @@ public class FtpClientHandler implements Runnable {
 							handleSizeCommand(commandArg);
 						break;
 
+					case "MFMT":
+						if (checkAuthentication(UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+							handleMfmtCommand(commandArg);
+						break;
+
+					case "MFF":
+						if (checkAuthentication(UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+							handleMffCommand(commandArg);
+						break;
+
 					case "MDTM":
 						if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
 							handleMdtmCommand(commandArg);
@@ -281,6 +400,26 @@ public class FtpClientHandler implements Runnable {
 				    		serverFunctions.handlePrintWorkingDirectory();
 				        break;
 
+				    case "SITE":
+				    	if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+				    		handleSiteCommand(commandArg);
+				        break;
+
+				    case "STAT":
+				    	if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR))
+				    		handleStatCommand(commandArg);
+				        break;
+
+				    case "ABOR":
+				    	if (checkAuthentication(UserProfile.BASICO, UserProfile.INTERMEDIO, UserProfile.ADMINISTRADOR)) {
+				    		if (serverFunctions.abortCopy()) {
+				    			sendReply(226, "Abort successful; copy cancelled.");
+				    		} else {
+				    			sendReply(225, "No transfer to abort.");
+				    		}
+				    	}
+				        break;
+
 				    case "QUIT":
 				    	sendReply(221, "Goodbye.");
 				    	Util.printGreenColor("Cliente desconectado mediante comando QUIT");
@@ -293,15 +432,21 @@ public class FtpClientHandler implements Runnable {
 				}
 			}
 
-		} catch (SocketTimeoutException e) {
-			Util.printYellowColor("\nSesión cerrada por timeout de inactividad");
-			FTP.Util.FileLogger.info("Cliente desconectado por timeout: " + controlSocket.getInetAddress() + " (última actividad: " + lastActivityAt + ")");
 		} catch (IOException e) {
-			Util.printRedColor("\nError con el cliente: " + e.getMessage());
+			if (idleExpired) {
+				Util.printYellowColor("\nSesión cerrada por timeout de inactividad");
+				FTP.Util.FileLogger.info("Cliente desconectado por timeout: " + controlSocket.getInetAddress() + " (última actividad: " + lastActivityAt + ")");
+			} else {
+				Util.printRedColor("\nError con el cliente: " + e.getMessage());
+			}
 		} catch (Exception e) {
 			Util.printRedColor("\nError: " + e.getMessage());
 			FTP.Util.FileLogger.error("Error en handler: " + e.getMessage());
 		} finally {
+			TimeoutWheel.Timeout idle = idleTimeout;
+			if (idle != null) idle.cancel();
+			transferFinished();
+			closeDataSocket();
 			try {
 				if (in != null) in.close();
 				if (out != null) out.close();
@@ -313,12 +458,12 @@ public class FtpClientHandler implements Runnable {
 	}
 
 	/**
-	 * Obtiene el directorio de trabajo actual del cliente.
+	 * Obtiene la vista del sistema de ficheros de la sesión (incluye el directorio de trabajo).
 	 *
-	 * @return Ruta del directorio actual
+	 * @return Vista de la sesión
 	 */
-	public String getCurrentDirectory() {
-	    return currentDirectory;
+	public FileSystemView getFileSystemView() {
+	    return fileSystemView;
 	}
 
 	/** Nombre del usuario actual (para auditoría) o null si no autenticado */
@@ -331,19 +476,21 @@ public class FtpClientHandler implements Runnable {
 	    return controlSocket != null ? controlSocket.getInetAddress().getHostAddress() : "-";
 	}
 
+	/** Perfil del usuario actual o null si no autenticado */
+	public UserProfile getCurrentProfile() {
+	    return currentUser != null ? currentUser.getProfile() : null;
+	}
+
+	/** Hechos MLSD/MLST seleccionados con OPTS MLST */
+	public Set<String> getMlstFacts() {
+	    return mlstFacts;
+	}
+
 	/** Tipo de transferencia actual (A=ASCII, I=Binary) según comando TYPE */
 	public String getTransferType() {
 	    return transferType;
 	}
 
-	/**
-	 * Establece el directorio de trabajo actual del cliente.
-	 *
-	 * @param currentDirectory Nueva ruta del directorio
-	 */
-	public void setCurrentDirectory(String currentDirectory) {
-	    this.currentDirectory = currentDirectory;
-	}
 
 	/**
 	 * Maneja el comando USER para iniciar la autenticación.
@@ -356,38 +503,249 @@ public class FtpClientHandler implements Runnable {
 	}
 
 	/**
-	 * Maneja el comando PASS para completar la autenticación.
+	 * Maneja el comando PASS para completar la autenticación. La comprobación bcrypt se hace en el pool
+	 * acotado de {@link PasswordVerifier}; si está saturado se responde 421 y se cierra la conexión.
 	 *
 	 * @param passwordInput Contraseña proporcionada
+	 * @return false si hay que cerrar la conexión (421)
 	 */
-	private void handlePassCommand(String passwordInput) {
+	private boolean handlePassCommand(String passwordInput) {
 	    if (usernameBuffer == null) {
 	        sendReply(530, "Authentication failed."); // No se ha enviado USER antes
-	        return;
+	        return true;
 	    }
 
 	    String clientIp = controlSocket.getInetAddress().getHostAddress();
-	    if (loginThrottle != null && loginThrottle.isBlocked(clientIp)) {
+	    if (loginThrottle != null && loginThrottle.isBlocked(clientIp, usernameBuffer)) {
 	        sendReply(530, "Too many failed attempts. Try again later.");
-	        FTP.Util.FileLogger.logAuthBlocked(clientIp);
+	        FTP.Util.FileLogger.logAuthBlocked(clientIp + " (usuario " + usernameBuffer + ")");
 	        usernameBuffer = null;
-	        return;
+	        return true;
 	    }
 
 	    UserInfo info = userStore.findByUsername(usernameBuffer);
-	    if (info != null && info.isEnabled() && BCrypt.checkpw(passwordInput, info.getPasswordHash())) {
-	        if (loginThrottle != null) loginThrottle.clear(clientIp);
+	    PasswordVerifier.Result result = PasswordVerifier.Result.MISMATCH;
+	    if (info != null && info.isEnabled()) {
+	        CredentialCache credentials = JavaFtpServer.getCredentialCache();
+	        if (credentials != null && credentials.matches(info.getUsername(), passwordInput, info.getPasswordHash())) {
+	            result = PasswordVerifier.Result.MATCH;
+	        } else {
+	            result = JavaFtpServer.getPasswordVerifier().verify(passwordInput, info.getPasswordHash());
+	            if (result == PasswordVerifier.Result.MATCH && credentials != null) {
+	                credentials.put(info.getUsername(), passwordInput, info.getPasswordHash());
+	            }
+	        }
+	    }
+	    if (result == PasswordVerifier.Result.BUSY) {
+	        // Saturado: ni éxito ni fallo (no cuenta para el bloqueo por intentos)
+	        sendReply(421, "Too many logins in progress. Try again later.");
+	        FTP.Util.FileLogger.warning("Login de " + usernameBuffer + " rechazado: verificación de contraseñas saturada");
+	        usernameBuffer = null;
+	        return false;
+	    }
+	    if (result == PasswordVerifier.Result.MATCH) {
+	        if (loginThrottle != null) loginThrottle.clear(clientIp, info.getUsername());
+	        JavaFtpServer.getPasswordVerifier().rehashIfOutdated(userStore, info.getUsername(), passwordInput,
+	            info.getPasswordHash());
 	        currentUser = new User(info.getUsername(), info.getProfile());
 	        sendReply(230, "User logged in, proceed.");
 	        Util.printGreenColor("Usuario logeado correctamente");
 	        FTP.Util.FileLogger.logAuth(usernameBuffer, true);
 	    } else {
-	        if (loginThrottle != null) loginThrottle.recordFailure(clientIp);
+	        if (loginThrottle != null) loginThrottle.recordFailure(clientIp, usernameBuffer);
 	        sendReply(530, "Authentication failed.");
 	        FTP.Util.FileLogger.logAuth(usernameBuffer, false);
 	    }
 
 	    usernameBuffer = null;
+	    return true;
+	}
+
+	/**
+	 * Maneja OPTS MLST: selecciona los hechos que devolverán MLSD/MLST (RFC 3659, 7.9).
+	 * Los hechos desconocidos se ignoran; la respuesta enumera los que quedan activos.
+	 *
+	 * @param factList Lista "hecho;hecho;..." (vacía = ninguno)
+	 */
+	private void handleOptsMlst(String factList) {
+		Set<String> selected = new LinkedHashSet<>();
+		for (String fact : factList.split(";")) {
+			String f = fact.trim().toLowerCase();
+			if (ListFormatter.MLST_FACTS.contains(f)) selected.add(f);
+		}
+		mlstFacts = Collections.unmodifiableSet(selected);
+		StringBuilder sb = new StringBuilder();
+		for (String f : mlstFacts) sb.append(f).append(';');
+		sendReply(200, "MLST OPTS " + sb);
+	}
+
+	/**
+	 * Maneja SITE &lt;subcomando&gt; [argumentos].
+	 * <ul>
+	 *   <li>SITE STATS (ADMINISTRADOR): estado de cachés y temporizadores del servidor</li>
+	 *   <li>SITE QUOTA: uso y cuota del usuario actual</li>
+	 *   <li>SITE CPFR / SITE CPTO (ADMINISTRADOR): copia en el servidor, en segundo plano</li>
+	 *   <li>SITE RMTREE (ADMINISTRADOR): borrado recursivo de un directorio, cancelable con ABOR</li>
+	 *   <li>SITE FIND &lt;glob&gt;: búsqueda por nombre en el índice, bajo el directorio actual</li>
+	 * </ul>
+	 *
+	 * @param arg Subcomando y argumentos
+	 */
+	private void handleSiteCommand(String arg) {
+		if (arg == null || arg.trim().isEmpty()) {
+			sendReply(501, "Syntax error in parameters or arguments.");
+			return;
+		}
+		String[] parts = arg.trim().split(" ", 2);
+		String sub = parts[0].toUpperCase();
+		switch (sub) {
+			case "STATS":
+				if (checkAuthentication(UserProfile.ADMINISTRADOR)) {
+					sendReplyMultilineStart(211, "Server statistics:");
+					sendReplyMultilineBody(" " + timeoutWheel.describe());
+					sendReplyMultilineBody(" " + userStore.describe());
+					sendReplyMultilineBody(" " + JavaFtpServer.getPasswordVerifier().describe());
+					if (loginThrottle != null) sendReplyMultilineBody(" " + loginThrottle.describe());
+					CredentialCache credentials = JavaFtpServer.getCredentialCache();
+					sendReplyMultilineBody(" " + (credentials != null ? credentials.describe() : "credenciales: caché desactivada"));
+					ListingCache cache = JavaFtpServer.getListingCache();
+					sendReplyMultilineBody(" " + (cache != null ? cache.describe() : "listados: caché desactivada"));
+					AttributeCache attrCache = JavaFtpServer.getAttributeCache();
+					sendReplyMultilineBody(" " + (attrCache != null ? attrCache.describe() : "atributos: caché desactivada"));
+					sendReplyMultilineBody(" " + JavaFtpServer.getFileSystem().describe());
+					QuotaManager quotas = JavaFtpServer.getQuotaManager();
+					sendReplyMultilineBody(" " + (quotas != null ? quotas.describe() : "cuotas: desactivadas"));
+					sendReplyMultilineBody(" " + JavaFtpServer.getTreeDeleter().describe());
+					sendReplyMultilineBody(" " + JavaFtpServer.getPathLocks().describe());
+					FilenameIndex index = JavaFtpServer.getFilenameIndex();
+					sendReplyMultilineBody(" " + (index != null ? index.describe() : "índice: desactivado"));
+					sendReply(211, "End");
+				}
+				break;
+			case "RMTREE":
+				if (checkAuthentication(UserProfile.ADMINISTRADOR))
+					serverFunctions.handleRemoveTreeCommand(parts.length > 1 ? parts[1] : null);
+				break;
+			case "CPFR":
+				if (checkAuthentication(UserProfile.ADMINISTRADOR))
+					serverFunctions.handleCopyFromCommand(parts.length > 1 ? parts[1] : null);
+				break;
+			case "CPTO":
+				if (checkAuthentication(UserProfile.ADMINISTRADOR))
+					serverFunctions.handleCopyToCommand(parts.length > 1 ? parts[1] : null);
+				break;
+			case "FIND":
+				serverFunctions.handleFindCommand(parts.length > 1 ? parts[1] : null);
+				break;
+			case "QUOTA":
+				QuotaManager quotas = JavaFtpServer.getQuotaManager();
+				if (quotas == null) {
+					sendReply(200, "Quotas disabled.");
+				} else {
+					sendReply(200, "Quota for " + getCurrentUsername() + ": " + quotas.describeUser(getCurrentUsername()));
+				}
+				break;
+			default:
+				sendReply(504, "SITE " + sub + " not implemented.");
+				break;
+		}
+	}
+
+	/**
+	 * Siguiente comando del cliente: primero los que quedaron en cola durante una operación larga.
+	 *
+	 * @return Línea de comando, o null si el cliente cerró la conexión
+	 * @throws IOException Si falla la lectura
+	 */
+	private String nextCommand() throws IOException {
+		String queued = queuedCommands.poll();
+		return queued != null ? queued : in.readLine();
+	}
+
+	/**
+	 * Comprueba sin bloquear si el cliente ha enviado ABOR durante una operación larga en el canal de
+	 * control. Se ignoran los bytes Telnet IP/Synch que algunos clientes anteponen; cualquier otro comando
+	 * se guarda para procesarlo al terminar.
+	 *
+	 * @return true si llegó ABOR o se cerró la conexión
+	 */
+	protected boolean pollAbort() {
+		try {
+			while (in.ready()) {
+				String line = in.readLine();
+				if (line == null) return true;
+				lastActivityAt = System.currentTimeMillis();
+				if (line.replaceFirst("^[^A-Za-z]+", "").trim().equalsIgnoreCase("ABOR")) return true;
+				queuedCommands.add(line);
+			}
+			return false;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Maneja STAT. Sin argumentos: estado de la sesión y progreso de la copia en curso (SITE CPTO).
+	 * Con ruta: listado por el canal de control (ver {@link ServerFunctions#handleStatListCommand(String)}).
+	 *
+	 * @param arg Ruta opcional
+	 */
+	private void handleStatCommand(String arg) {
+		if (arg != null && !arg.trim().isEmpty()) {
+			serverFunctions.handleStatListCommand(arg);
+			return;
+		}
+		sendReplyMultilineStart(211, "FTP server status:");
+		sendReplyMultilineBody(" Connected from " + getClientAddress());
+		sendReplyMultilineBody(" Logged in as " + getCurrentUsername());
+		sendReplyMultilineBody(" TYPE: " + ("I".equals(transferType) ? "BINARY" : "ASCII")
+			+ (connectionMode != null ? ", mode " + connectionMode.toLowerCase() : ""));
+		String copy = serverFunctions.describeCopy();
+		if (copy != null) sendReplyMultilineBody(" " + copy);
+		sendReply(211, "End of status");
+	}
+
+	/**
+	 * Maneja ALLO &lt;bytes&gt; [R &lt;registro&gt;]: con cuotas activas rechaza con 552 si el tamaño anunciado
+	 * no cabe y, si cabe, lo guarda para que la siguiente STOR/APPE lo compruebe antes de abrir la conexión.
+	 *
+	 * @param arg Tamaño en bytes (el registro opcional se ignora)
+	 */
+	private void handleAlloCommand(String arg) {
+		long size;
+		try {
+			size = Long.parseLong(arg == null ? "" : arg.trim().split("\\s+")[0]);
+		} catch (NumberFormatException e) {
+			sendReply(501, "Syntax error in parameters or arguments.");
+			return;
+		}
+		if (size < 0) {
+			sendReply(501, "Syntax error in parameters or arguments.");
+			return;
+		}
+		QuotaManager quotas = JavaFtpServer.getQuotaManager();
+		if (quotas == null) {
+			sendReply(202, "No storage allocation necessary.");
+			return;
+		}
+		if (!quotas.fits(getCurrentUsername(), size)) {
+			allocationHint = -1;
+			sendReply(552, "Requested file action aborted. Exceeded storage allocation.");
+			return;
+		}
+		allocationHint = size;
+		sendReply(200, "ALLO command successful.");
+	}
+
+	/**
+	 * Consume el tamaño anunciado con ALLO (solo vale para la siguiente subida).
+	 *
+	 * @return Bytes anunciados, o -1 si no hubo ALLO
+	 */
+	protected long takeAllocationHint() {
+		long hint = allocationHint;
+		allocationHint = -1;
+		return hint;
 	}
 
 	/**
@@ -420,8 +778,12 @@ public class FtpClientHandler implements Runnable {
 			sendReply(504, "AUTH not supported for that parameter.");
 			return;
 		}
+		if (tlsActive) {
+			sendReply(503, "TLS already active.");
+			return;
+		}
 		SSLContext ctx = config.getSslContext();
-		if (ctx == null) {
+		if (ctx == null || listener.getTlsMode() == ListenerConfig.TlsMode.NONE) {
 			sendReply(502, "TLS not configured.");
 			return;
 		}
@@ -438,7 +800,7 @@ public class FtpClientHandler implements Runnable {
 				true
 			);
 			sslSocket.setUseClientMode(false);
-			sslSocket.startHandshake();
+			handshake(sslSocket);
 			in = new BufferedReader(new InputStreamReader(sslSocket.getInputStream(), "UTF-8"));
 			out = new PrintWriter(sslSocket.getOutputStream(), true);
 			controlSocket = sslSocket;
@@ -474,51 +836,185 @@ public class FtpClientHandler implements Runnable {
 
 	/**
 	 * Maneja el comando PASV para configurar modo pasivo.
-	 * El servidor abre un puerto y espera que el cliente se conecte.
+	 * El servidor abre un puerto y empieza a aceptar en segundo plano en cuanto responde 227.
 	 */
 	private void handlePasvCommand() {
-		int p1, p2;
-		
-		connectionMode = "PASSIVE";
+		try {
+			openPassiveListener();
 
-		if (passiveDataSocket != null) {
-			try { passiveDataSocket.close(); } catch (IOException ignored) { }
-			passiveDataSocket = null;
+		    startPassiveAccept();
+
+		    // Envía la respuesta PASV al cliente
+		    int p1 = passiveDataPort / 256;
+		    int p2 = passiveDataPort % 256;
+		    sendReply(227, "Entering Passive Mode (" + passiveDataIp.replace(".", ",") + "," + p1 + "," + p2 + ")");
+
+		    System.out.println("Modo pasivo configurado en IP " + passiveDataIp + " y puerto " + passiveDataPort);
+		} catch (IOException e) {
+			sendReply(425, "Can't open data connection");
 		}
+	}
 
+	/**
+	 * Maneja el comando EPSV (RFC 2428): como PASV pero solo anuncia el puerto.
+	 *
+	 * @param arg Protocolo de red opcional, o "ALL"
+	 */
+	private void handleEpsvCommand(String arg) {
+		if (arg != null && arg.trim().equalsIgnoreCase("ALL")) {
+			sendReply(200, "EPSV ALL OK.");
+			return;
+		}
+		if (arg != null && !arg.trim().isEmpty() && !arg.trim().equals("1") && !arg.trim().equals("2")) {
+			sendReply(522, "Network protocol not supported, use (1,2)");
+			return;
+		}
 		try {
-			int min = config.getPassivePortMin();
-			int max = config.getPassivePortMax();
-			if (min > 0 && max >= min) {
-				Random r = new Random();
-				int rangeSize = max - min + 1;
-				int tries = Math.min(rangeSize, 100);
-				for (int i = 0; i < tries; i++) {
-					int port = min + r.nextInt(rangeSize);
-					try {
-						passiveDataSocket = new ServerSocket(port);
-						passiveDataPort = port;
-						break;
-					} catch (IOException ignored) {
-						// puerto en uso, intentar otro
-					}
+			openPassiveListener();
+			startPassiveAccept();
+			sendReply(229, "Entering Extended Passive Mode (|||" + passiveDataPort + "|)");
+		} catch (IOException e) {
+			sendReply(425, "Can't open data connection");
+		}
+	}
+
+	/**
+	 * Abre el ServerSocket pasivo (dentro de ftp.passive.port.range si está definido),
+	 * descartando cualquier listener o conexión pasiva anterior.
+	 *
+	 * @throws IOException Si no se puede abrir ningún puerto
+	 */
+	private void openPassiveListener() throws IOException {
+		connectionMode = "PASSIVE";
+		discardPassive();
+
+		ServerSocket opened = null;
+		int min = config.getPassivePortMin();
+		int max = config.getPassivePortMax();
+		if (min > 0 && max >= min) {
+			Random r = new Random();
+			int rangeSize = max - min + 1;
+			int tries = Math.min(rangeSize, 100);
+			for (int i = 0; i < tries; i++) {
+				int port = min + r.nextInt(rangeSize);
+				try {
+					opened = new ServerSocket(port);
+					break;
+				} catch (IOException ignored) {
+					// puerto en uso, intentar otro
 				}
 			}
-			if (passiveDataSocket == null) {
-				passiveDataSocket = new ServerSocket(0);
-				passiveDataPort = passiveDataSocket.getLocalPort();
+		}
+		if (opened == null) {
+			opened = new ServerSocket(0);
+		}
+		synchronized (this) {
+			passiveDataSocket = opened;
+			passiveDataPort = opened.getLocalPort();
+		}
+		passiveDataIp = controlSocket.getLocalAddress().getHostAddress();
+	}
+
+	/**
+	 * Lanza el accept() pasivo en segundo plano y deja la conexión aparcada en la sesión.
+	 * Si el canal de datos va cifrado, el handshake TLS se solapa con el siguiente comando del cliente.
+	 * El plazo ftp.data.accept.timeout (rueda de timeouts) cierra el listener si nadie se conecta.
+	 *
+	 * @throws IOException Si el pool de conexiones pasivas está saturado (el listener se descarta)
+	 */
+	private void startPassiveAccept() throws IOException {
+		final ServerSocket listening;
+		synchronized (this) {
+			listening = passiveDataSocket;
+		}
+		if (acceptDeadline != null) acceptDeadline.cancel();
+		final TimeoutWheel.Timeout deadline = timeoutWheel.schedule(() -> closeQuietly(listening), config.getDataAcceptTimeout());
+		acceptDeadline = deadline;
+
+		CompletableFuture<Socket> future;
+		try {
+			future = CompletableFuture.supplyAsync(() -> acceptPassive(listening, deadline), JavaFtpServer.getPassiveExecutor());
+		} catch (RejectedExecutionException e) {
+			deadline.cancel();
+			synchronized (this) {
+				if (passiveDataSocket == listening) passiveDataSocket = null;
 			}
-			
-			passiveDataIp = controlSocket.getLocalAddress().getHostAddress();
+			closeQuietly(listening);
+			FTP.Util.FileLogger.warning("PASV rechazado: pool de conexiones pasivas saturado (" + getClientAddress() + ")");
+			throw new IOException("Pool de conexiones pasivas saturado");
+		}
 
-		    // Envía la respuesta PASV al cliente
-		    p1 = passiveDataPort / 256;
-		    p2 = passiveDataPort % 256;
-		    sendReply(227, "Entering Passive Mode (" + passiveDataIp.replace(".", ",") + "," + p1 + "," + p2 + ")");
-		    
-		    System.out.println("Modo pasivo configurado en IP " + passiveDataIp + " y puerto " + passiveDataPort);
+		synchronized (this) {
+			if (passiveDataSocket == listening) {
+				pendingPassive = future;
+				return;
+			}
+		}
+		// Un PASV posterior ya sustituyó a este listener
+		future.thenAccept(FtpClientHandler::closeQuietly);
+	}
+
+	/**
+	 * Tarea del pool de conexiones pasivas: acepta la conexión de datos y, si va cifrada, lanza su handshake.
+	 */
+	private Socket acceptPassive(ServerSocket listening, TimeoutWheel.Timeout deadline) {
+		Socket accepted = null;
+		try {
+			accepted = listening.accept();
+			deadline.cancel();
+			// Una conexión por PASV: el listener ya no hace falta
+			closeQuietly(listening);
+			if (dataProtection && config.getSslContext() != null) {
+				final SSLSocket ssl = wrapDataSocket(accepted);
+				final TimeoutWheel.Timeout handshakeDeadline = timeoutWheel.schedule(() -> closeQuietly(ssl), config.getDataAcceptTimeout());
+				// El handshake avanza en segundo plano: los clientes que lo inician al conectar lo solapan con
+				// su siguiente comando, y los que esperan al 150 no se bloquean (la E/S espera al handshake)
+				try {
+					JavaFtpServer.getPassiveExecutor().execute(() -> {
+						try {
+							ssl.startHandshake();
+						} catch (IOException e) {
+							closeQuietly(ssl);
+						} finally {
+							handshakeDeadline.cancel();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// Pool saturado: el handshake se completa con la primera E/S de la transferencia
+					handshakeDeadline.cancel();
+				}
+				accepted = ssl;
+			}
+			return accepted;
 		} catch (IOException e) {
-			sendReply(425, "Can't open data connection");
+			if (accepted != null) closeQuietly(accepted);
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Cierra el listener pasivo y cualquier conexión pasiva aparcada que no se haya usado.
+	 */
+	private void discardPassive() {
+		ServerSocket listening;
+		CompletableFuture<Socket> pending;
+		synchronized (this) {
+			listening = passiveDataSocket;
+			pending = pendingPassive;
+			passiveDataSocket = null;
+			pendingPassive = null;
+		}
+		if (acceptDeadline != null) acceptDeadline.cancel();
+		if (listening != null) closeQuietly(listening);
+		if (pending == null) return;
+		pending.thenAccept(FtpClientHandler::closeQuietly);
+		// Con el listener cerrado el accept() termina enseguida; esperarlo deja un solo hilo del pool por sesión
+		try {
+			pending.get(PASSIVE_DISCARD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			// accept() cerrado o tarea aún en cola: nada que hacer
 		}
 	}
 
@@ -557,6 +1053,7 @@ public class FtpClientHandler implements Runnable {
 			sendReply(501, "Syntax error in parameters or arguments.");
 			return;
 		}
+		discardPassive();
 		connectionMode = "ACTIVE";
 		sendReply(200, "PORT command successful");
 		System.out.println("Modo activo configurado en IP " + activeDataIp + " y puerto " + activeDataPort);
@@ -571,20 +1068,21 @@ public class FtpClientHandler implements Runnable {
 			sendReply(501, "Syntax error in parameters or arguments.");
 			return;
 		}
-		File file = serverFunctions.resolvePathToFile(pathArg.trim());
-		if (file == null || !file.exists()) {
+		BasicFileAttributes attrs = statPath(pathArg);
+		if (attrs == null) {
 			sendReply(550, "File not found or access denied.");
 			return;
 		}
-		if (!file.isFile()) {
+		if (!attrs.isRegularFile()) {
 			sendReply(550, "Not a plain file.");
 			return;
 		}
-		sendReply(213, String.valueOf(file.length()));
+		sendReply(213, String.valueOf(attrs.size()));
 	}
 
 	/**
-	 * Maneja el comando MDTM: devuelve la fecha de modificación del archivo en formato YYYYMMDDHHmmss.
+	 * Maneja el comando MDTM: devuelve la fecha de modificación del archivo en formato YYYYMMDDHHmmss,
+	 * en UTC (RFC 3659), igual que el hecho "modify" de MLST.
 	 * Requiere autenticación. Resuelve la ruta igual que LIST/RETR.
 	 */
 	private void handleMdtmCommand(String pathArg) {
@@ -592,81 +1090,268 @@ public class FtpClientHandler implements Runnable {
 			sendReply(501, "Syntax error in parameters or arguments.");
 			return;
 		}
-		File file = serverFunctions.resolvePathToFile(pathArg.trim());
-		if (file == null || !file.exists()) {
+		BasicFileAttributes attrs = statPath(pathArg);
+		if (attrs == null) {
 			sendReply(550, "File not found or access denied.");
 			return;
 		}
-		if (!file.isFile()) {
+		if (!attrs.isRegularFile()) {
 			sendReply(550, "Not a plain file.");
 			return;
 		}
-		java.text.SimpleDateFormat fmt = new java.text.SimpleDateFormat("yyyyMMddHHmmss");
-		String mdtm = fmt.format(new java.util.Date(file.lastModified()));
-		sendReply(213, mdtm);
+		sendReply(213, ListFormatter.MLSX_TIME.format(attrs.lastModifiedTime().toInstant()));
+	}
+
+	/**
+	 * Maneja MFMT &lt;YYYYMMDDHHMMSS[.sss]&gt; &lt;ruta&gt;: fija la fecha de modificación (UTC), para que los
+	 * clientes de sincronización conserven la fecha original al subir. Mismos permisos que STOR.
+	 *
+	 * @param arg Fecha y ruta
+	 */
+	private void handleMfmtCommand(String arg) {
+		String[] parts = arg == null ? new String[0] : arg.trim().split(" ", 2);
+		if (parts.length < 2 || parts[1].trim().isEmpty()) {
+			sendReply(501, "Syntax error in parameters or arguments.");
+			return;
+		}
+		serverFunctions.handleSetModifiedCommand("MFMT", parts[0], parts[1].trim(), "Modify=");
+	}
+
+	/**
+	 * Maneja MFF &lt;hecho=valor;...&gt; &lt;ruta&gt; (draft-somers-ftp-mfxx). Solo se admite el hecho "modify".
+	 *
+	 * @param arg Hechos y ruta
+	 */
+	private void handleMffCommand(String arg) {
+		String[] parts = arg == null ? new String[0] : arg.trim().split(" ", 2);
+		if (parts.length < 2 || parts[1].trim().isEmpty()) {
+			sendReply(501, "Syntax error in parameters or arguments.");
+			return;
+		}
+		String time = null;
+		for (String fact : parts[0].split(";")) {
+			if (fact.isEmpty()) continue;
+			int eq = fact.indexOf('=');
+			if (eq > 0 && fact.substring(0, eq).equalsIgnoreCase("modify")) {
+				time = fact.substring(eq + 1);
+			} else {
+				sendReply(504, "Fact not supported: " + (eq > 0 ? fact.substring(0, eq) : fact));
+				return;
+			}
+		}
+		if (time == null) {
+			sendReply(501, "Syntax error in parameters or arguments.");
+			return;
+		}
+		serverFunctions.handleSetModifiedCommand("MFF", time, parts[1].trim(), "modify=");
+	}
+
+	/**
+	 * Resuelve una ruta del cliente y lee sus atributos con una sola llamada al backend, o de la caché
+	 * de atributos si está activa (SIZE/MDTM en ráfaga).
+	 *
+	 * @return Atributos, o null si la ruta no es válida o no existe
+	 */
+	private BasicFileAttributes statPath(String pathArg) {
+		FtpFile file = serverFunctions.resolvePath(pathArg.trim());
+		if (file == null) return null;
+		AttributeCache cache = JavaFtpServer.getAttributeCache();
+		BasicFileAttributes attrs = cache != null ? cache.get(file.getCacheKey()) : null;
+		if (attrs != null) return attrs;
+		try {
+			attrs = file.stat();
+		} catch (IOException e) {
+			return null;
+		}
+		if (cache != null) cache.put(file.getCacheKey(), attrs);
+		return attrs;
 	}
 
 	/**
 	 * Obtiene el socket de datos según el modo de conexión configurado.
-	 * En modo PASSIVE acepta la conexión del cliente, en ACTIVE se conecta al cliente.
+	 * En modo PASSIVE recoge la conexión que se aceptó en segundo plano tras PASV/EPSV;
+	 * en ACTIVE se conecta al cliente. No se mantiene ningún lock durante operaciones bloqueantes.
 	 *
 	 * @return Socket de datos establecido
 	 * @throws IOException Si no se puede establecer la conexión de datos
 	 */
     protected Socket getDataSocket() throws IOException {
 		Socket dataSocket;
-		synchronized (this) {
-	        if (connectionMode.equals("PASSIVE")) {
-	            if (passiveDataSocket == null) {
-	                throw new IOException("Modo pasivo no inicializado.");
-	            }
-	            passiveDataSocket.setSoTimeout(10000); // Timeout de 10 segundos para evitar bloqueos
-	            dataSocket = passiveDataSocket.accept();
-	        } else if (connectionMode.equals("ACTIVE")) {
-	            if (activeDataIp == null || activeDataPort == 0) {
-	                throw new IOException("Modo activo no inicializado.");
-	            }
-	            activeDataSocket = new Socket(activeDataIp, activeDataPort);
-	            dataSocket = activeDataSocket;
-	        } else {
-				throw new IOException("Modo de conexión no válido");
-			}
+        if ("PASSIVE".equals(connectionMode)) {
+            CompletableFuture<Socket> pending;
+            synchronized (this) {
+                pending = pendingPassive;
+                pendingPassive = null;
+            }
+            if (pending == null) {
+                throw new IOException("Modo pasivo no inicializado.");
+            }
+            try {
+                dataSocket = pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrumpido esperando la conexión de datos");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        } else if ("ACTIVE".equals(connectionMode)) {
+            if (activeDataIp == null || activeDataPort == 0) {
+                throw new IOException("Modo activo no inicializado.");
+            }
+            final Socket connecting = new Socket();
+            TimeoutWheel.Timeout connectDeadline = timeoutWheel.schedule(() -> closeQuietly(connecting), config.getDataAcceptTimeout());
+            try {
+                connecting.connect(new InetSocketAddress(activeDataIp, activeDataPort));
+            } finally {
+                connectDeadline.cancel();
+            }
+            synchronized (this) {
+                activeDataSocket = connecting;
+            }
+            dataSocket = connecting;
+        } else {
+			throw new IOException("Modo de conexión no válido");
 		}
-		if (dataProtection && config.getSslContext() != null) {
-			SSLSocket sslData = (SSLSocket) config.getSslContext().getSocketFactory().createSocket(
-				dataSocket,
-				dataSocket.getInetAddress().getHostName(),
-				dataSocket.getPort(),
-				true
-			);
-			sslData.startHandshake();
-			return sslData;
+		transferStarted(dataSocket);
+		// PROT P recibido después de PASV: la conexión aparcada aún va en claro
+		if (dataProtection && config.getSslContext() != null && !(dataSocket instanceof SSLSocket)) {
+			return wrapDataSocket(dataSocket);
 		}
 		return dataSocket;
     }
 
+	/**
+	 * Envuelve un socket de datos en TLS en modo servidor. El handshake no se fuerza aquí:
+	 * muchos clientes solo lo inician tras recibir el 150, así que se completa con la primera E/S.
+	 *
+	 * @param raw Socket de datos en claro
+	 * @return Socket TLS en modo servidor
+	 * @throws IOException Si no se puede crear el socket TLS
+	 */
+	private SSLSocket wrapDataSocket(Socket raw) throws IOException {
+		SSLSocket sslData = (SSLSocket) config.getSslContext().getSocketFactory().createSocket(
+			raw,
+			raw.getInetAddress().getHostAddress(),
+			raw.getPort(),
+			true
+		);
+		sslData.setUseClientMode(false);
+		return sslData;
+	}
+
 	/**
 	 * Cierra el socket de datos y libera recursos.
 	 * Maneja tanto modo ACTIVE como PASSIVE de forma segura.
 	 */
     protected void closeDataSocket() {
-        synchronized (this) {  // Evita problemas si varios hilos acceden al cierre de sockets
-            try {
-                if (activeDataSocket != null) {
-                    activeDataSocket.close();
-                    activeDataSocket = null;
-                }
-
-                if (passiveDataSocket != null && "PASSIVE".equals(connectionMode)) {
-                    passiveDataSocket.close();
-                    passiveDataSocket = null;
-                }
-            } catch (IOException e) {
-            	Util.printRedColor("Error al cerrar socket de datos: " + e.getMessage());
-            }
+        Socket active;
+        synchronized (this) {
+            active = activeDataSocket;
+            activeDataSocket = null;
         }
+        if (active != null) closeQuietly(active);
+        discardPassive();
     }
 
+	/**
+	 * Marca el inicio de una transferencia y arma el timeout de transferencia parada.
+	 *
+	 * @param dataSocket Socket de datos que se cerrará si la transferencia deja de progresar
+	 */
+	private void transferStarted(Socket dataSocket) {
+		transferSocket = dataSocket;
+		lastTransferProgress = System.currentTimeMillis();
+		long stall = config.getTransferStallTimeout();
+		if (stall > 0) {
+			TimeoutWheel.Timeout previous = stallTimeout;
+			if (previous != null) previous.cancel();
+			stallTimeout = timeoutWheel.schedule(this::checkStall, stall);
+		}
+	}
+
+	/**
+	 * Registra progreso en la transferencia en curso (una escritura volátil; llamar por bloque transferido).
+	 */
+	protected void transferProgress() {
+		lastTransferProgress = System.currentTimeMillis();
+	}
+
+	/**
+	 * Marca actividad en el canal de control durante una operación larga sin conexión de datos
+	 * (p. ej. SITE RMTREE), para que no cuente como inactividad.
+	 */
+	protected void markActivity() {
+		lastActivityAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Marca el fin de la transferencia en curso. Idempotente.
+	 */
+	protected void transferFinished() {
+		TimeoutWheel.Timeout stall = stallTimeout;
+		if (stall != null) {
+			stall.cancel();
+			stallTimeout = null;
+		}
+		if (transferSocket != null) {
+			transferSocket = null;
+			lastActivityAt = System.currentTimeMillis();
+		}
+	}
+
+	/** Tarea de la rueda: aborta la transferencia si no ha progresado en ftp.transfer.stall.timeout. */
+	private void checkStall() {
+		Socket socket = transferSocket;
+		if (socket == null) return;
+		long stall = config.getTransferStallTimeout();
+		long idle = System.currentTimeMillis() - lastTransferProgress;
+		if (idle >= stall) {
+			FTP.Util.FileLogger.warning("Transferencia abortada por falta de progreso (" + idle + " ms): " + getClientAddress());
+			closeQuietly(socket);
+		} else {
+			stallTimeout = timeoutWheel.schedule(this::checkStall, stall - idle);
+		}
+	}
+
+	/**
+	 * Tarea de la rueda: cierra la sesión si lleva ftp.session.timeout sin comandos.
+	 * Durante una transferencia solo se reprograma (la cubre el timeout de transferencia parada).
+	 *
+	 * @param rawControl Socket de control original (cerrarlo desbloquea el readLine del hilo de sesión)
+	 */
+	private void checkIdle(Socket rawControl) {
+		long timeout = config.getSessionTimeout();
+		long idle = System.currentTimeMillis() - lastActivityAt;
+		if (transferSocket != null || idle < timeout) {
+			idleTimeout = timeoutWheel.schedule(() -> checkIdle(rawControl), transferSocket != null ? timeout : timeout - idle);
+			return;
+		}
+		idleExpired = true;
+		closeQuietly(rawControl);
+	}
+
+	/**
+	 * Handshake TLS del canal de control con un plazo propio (ftp.tls.handshake.timeout), para que un
+	 * cliente que conecta y no envía el ClientHello no retenga el hilo ni los permisos de conexión.
+	 *
+	 * @param socket Socket TLS en modo servidor
+	 * @throws IOException Si el handshake falla o no termina a tiempo
+	 */
+	private void handshake(SSLSocket socket) throws IOException {
+		long timeout = config.getTlsHandshakeTimeout();
+		if (timeout > 0) socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeout));
+		socket.startHandshake();
+		// Tras el handshake la inactividad la vigila la rueda de timeouts
+		if (timeout > 0) socket.setSoTimeout(0);
+	}
+
+	private static void closeQuietly(java.io.Closeable c) {
+		try {
+			c.close();
+		} catch (IOException ignored) { }
+	}
+
 	/**
 	 * Envía una respuesta FTP al cliente.
 	 *
@@ -679,13 +1364,13 @@ public class FtpClientHandler implements Runnable {
 	}
 
 	/** Envía la primera línea de una respuesta multilínea (código con guión, ej. "211-Extensions"). */
-	private void sendReplyMultilineStart(int code, String line) {
+	protected void sendReplyMultilineStart(int code, String line) {
 		out.print(code + "-" + line + "\r\n");
 		out.flush();
 	}
 
 	/** Envía una línea del cuerpo de una respuesta multilínea (sin código, solo texto). */
-	private void sendReplyMultilineBody(String line) {
+	protected void sendReplyMultilineBody(String line) {
 		out.print(line + "\r\n");
 		out.flush();
 	}
@@ -0,0 +1,163 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.LongConsumer;
+
+/**
+ * Fichero o directorio del sistema de ficheros virtual servido por FTP.
+ * <p>
+ * Un {@code FtpFile} siempre está dentro de la raíz de su {@link FtpFileSystem}: solo se obtienen
+ * mediante {@link FtpFileSystem#resolve(FtpFile, String)} o listando un directorio, que ya aplican
+ * las reglas de contención. Puede que la entrada aún no exista (p. ej. destino de STOR o MKD).
+ * Los errores se notifican con las excepciones estándar de NIO ({@link java.nio.file.NoSuchFileException},
+ * {@link java.nio.file.FileAlreadyExistsException}, {@link java.nio.file.DirectoryNotEmptyException}...).
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public interface FtpFile {
+
+    /** Nombre de la entrada ("" en la raíz). */
+    String getName();
+
+    /** Ruta virtual que ve el cliente ("/" = raíz). */
+    String getVirtualPath();
+
+    /** Directorio padre, o null en la raíz. */
+    FtpFile getParent();
+
+    /** Sistema de ficheros al que pertenece. */
+    FtpFileSystem getFileSystem();
+
+    /**
+     * Clave estable de la entrada para cachés compartidas (p. ej. ruta real en disco).
+     *
+     * @return Clave única dentro del servidor
+     */
+    String getCacheKey();
+
+    /**
+     * Si una clave de caché cuelga de otra (subárboles en las cachés compartidas). Las claves locales
+     * separan componentes con {@link java.io.File#separatorChar} y las virtuales con '/'.
+     *
+     * @param key Clave de la entrada
+     * @param ancestorKey Clave del directorio
+     * @return true si {@code key} está por debajo de {@code ancestorKey} (no si son iguales)
+     */
+    static boolean isUnderKey(String key, String ancestorKey) {
+        int n = ancestorKey.length();
+        if (key.length() <= n || !key.startsWith(ancestorKey)) return false;
+        char boundary = n > 0 && isKeySeparator(ancestorKey.charAt(n - 1)) ? '/' : key.charAt(n);
+        return isKeySeparator(boundary);
+    }
+
+    /** Separador de componentes en una clave de caché. */
+    static boolean isKeySeparator(char c) {
+        return c == '/' || c == java.io.File.separatorChar;
+    }
+
+    /**
+     * Lee los atributos de la entrada (una sola llamada al backend), siguiendo enlaces simbólicos.
+     *
+     * @return Atributos
+     * @throws IOException Si no existe o no se puede leer
+     */
+    BasicFileAttributes stat() throws IOException;
+
+    boolean exists();
+
+    boolean isDirectory();
+
+    boolean isFile();
+
+    /** true si la entrada es un enlace simbólico (los recorridos recursivos no los siguen). */
+    boolean isSymbolicLink();
+
+    /**
+     * Lista el contenido de un directorio sin materializarlo entero.
+     *
+     * @return Stream de entradas (hay que cerrarlo)
+     * @throws IOException Si no es un directorio o no se puede leer
+     */
+    DirectoryStream<FtpFile> list() throws IOException;
+
+    /**
+     * Abre el fichero para lectura.
+     *
+     * @return Canal de lectura posicionable
+     * @throws IOException Si no existe o no es un fichero
+     */
+    SeekableByteChannel openRead() throws IOException;
+
+    /**
+     * Abre el fichero para escritura, creándolo si no existe.
+     *
+     * @param append true para añadir al final, false para truncar
+     * @return Canal de escritura
+     * @throws IOException Si no se puede crear o escribir
+     */
+    WritableByteChannel openWrite(boolean append) throws IOException;
+
+    /**
+     * Renombra o mueve la entrada dentro del mismo sistema de ficheros. Como rename(2), un fichero
+     * sustituye a otro fichero que ya exista en el destino; cualquier otro destino existente es un error.
+     *
+     * @param target Destino
+     * @throws IOException Si falla
+     */
+    void rename(FtpFile target) throws IOException;
+
+    /**
+     * Copia el contenido de este fichero a {@code target} dentro del mismo sistema de ficheros.
+     * La implementación por defecto copia por canales; los backends pueden usar mecanismos nativos
+     * (copia en el kernel, reflinks, compartir bloques). Si el hilo se interrumpe la copia se aborta
+     * y el destino puede quedar incompleto.
+     *
+     * @param target Destino (no debe existir)
+     * @param progress Recibe los bytes copiados hasta el momento
+     * @throws IOException Si falla o se interrumpe
+     */
+    default void copyTo(FtpFile target, LongConsumer progress) throws IOException {
+        if (target.exists()) throw new FileAlreadyExistsException(target.getVirtualPath());
+        try (SeekableByteChannel in = openRead(); WritableByteChannel out = target.openWrite(false)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+            long copied = 0;
+            while (in.read(buf) != -1) {
+                if (Thread.interrupted()) throw new InterruptedIOException("Copy cancelled");
+                buf.flip();
+                while (buf.hasRemaining()) copied += out.write(buf);
+                buf.clear();
+                progress.accept(copied);
+            }
+        }
+    }
+
+    /**
+     * Borra un fichero o un directorio vacío.
+     *
+     * @throws IOException Si no existe, el directorio no está vacío o falla el borrado
+     */
+    void delete() throws IOException;
+
+    /**
+     * Crea el directorio (y los padres que falten).
+     *
+     * @throws IOException Si ya existe o no se puede crear
+     */
+    void mkdir() throws IOException;
+
+    /**
+     * Cambia la fecha de modificación (MFMT, MFF modify=).
+     *
+     * @param millis Fecha en milisegundos desde la época
+     * @throws IOException Si no existe o no se puede cambiar
+     */
+    void setLastModified(long millis) throws IOException;
+}
@@ -0,0 +1,47 @@
+package FTP.Server;
+
+/**
+ * Backend de almacenamiento del servidor FTP.
+ * <p>
+ * {@link ServerFunctions} no accede nunca a {@code java.io.File}: todas las operaciones pasan por
+ * {@link FtpFile}, de modo que se puede cambiar el backend (disco, memoria...) o intercalar cachés
+ * sin tocar los manejadores de comandos. Una instancia es compartida por todas las sesiones y debe
+ * ser thread-safe; cada sesión trabaja sobre su propia {@link FileSystemView}.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public interface FtpFileSystem {
+
+    /** Directorio raíz ("/"). */
+    FtpFile getRoot();
+
+    /**
+     * Resuelve una ruta de cliente. Las rutas que empiezan por '/' parten de la raíz; el resto, de {@code base}.
+     *
+     * @param base Directorio de partida (normalmente el de trabajo de la sesión)
+     * @param path Ruta del cliente
+     * @return Entrada (puede no existir todavía), o null si la ruta sale de la raíz o no es válida
+     */
+    FtpFile resolve(FtpFile base, String path);
+
+    /**
+     * Notifica al backend que una entrada ha cambiado, para que invalide sus cachés internas.
+     *
+     * @param changed Entrada creada, modificada, borrada o renombrada
+     * @param tree true si el subárbol entero de {@code changed} deja de ser válido
+     */
+    void changed(FtpFile changed, boolean tree);
+
+    /**
+     * Crea la vista de una sesión (directorio de trabajo propio).
+     *
+     * @return Vista que empieza en la raíz
+     */
+    default FileSystemView createView() {
+        return new FileSystemView(this);
+    }
+
+    /** Resumen para SITE STATS. */
+    String describe();
+}
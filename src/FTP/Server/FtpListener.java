@@ -0,0 +1,152 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import javax.net.ssl.SSLServerSocket;
+
+import FTP.Util.Util;
+
+/**
+ * Listener de control FTP con su propio hilo acceptor.
+ * <p>
+ * Cada instancia escucha en un puerto/interfaz con su backlog, modo TLS y límite de conexiones.
+ * Las sesiones aceptadas se ejecutan en el pool compartido del servidor y además consumen un permiso
+ * del límite global (ftp.max.connections).
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class FtpListener implements Runnable {
+    private final ListenerConfig listener;
+    private final ServerConfig config;
+    private final ExecutorService sessions;
+    private final Semaphore globalLimit;
+    private final Semaphore listenerLimit;
+    private final LoginThrottle loginThrottle;
+    private final UserStore userStore;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean closed = false;
+
+    /**
+     * @param listener Definición del listener
+     * @param config Configuración del servidor
+     * @param sessions Pool compartido que ejecuta las sesiones
+     * @param globalLimit Límite global de conexiones (compartido entre listeners)
+     * @param loginThrottle Throttle de login compartido
+     * @param userStore Almacén de usuarios compartido
+     */
+    public FtpListener(ListenerConfig listener, ServerConfig config, ExecutorService sessions, Semaphore globalLimit,
+                       LoginThrottle loginThrottle, UserStore userStore) {
+        this.listener = listener;
+        this.config = config;
+        this.sessions = sessions;
+        this.globalLimit = globalLimit;
+        this.listenerLimit = new Semaphore(Math.max(1, listener.getMaxConnections()));
+        this.loginThrottle = loginThrottle;
+        this.userStore = userStore;
+    }
+
+    /**
+     * Abre el ServerSocket del listener (TLS implícito si procede).
+     *
+     * @throws IOException Si no se puede abrir el puerto
+     */
+    public void bind() throws IOException {
+        InetAddress bindAddr = listener.getBindAddress().isEmpty() ? null : InetAddress.getByName(listener.getBindAddress());
+        if (listener.getTlsMode() == ListenerConfig.TlsMode.IMPLICIT) {
+            SSLServerSocket ssl = (SSLServerSocket) config.getSslContext().getServerSocketFactory()
+                .createServerSocket(listener.getPort(), listener.getBacklog(), bindAddr);
+            ssl.setEnabledProtocols(config.getTlsProtocols().split("\\s*,\\s*"));
+            serverSocket = ssl;
+        } else {
+            serverSocket = new ServerSocket(listener.getPort(), listener.getBacklog(), bindAddr);
+        }
+    }
+
+    public ListenerConfig getListenerConfig() {
+        return listener;
+    }
+
+    /**
+     * Bucle acceptor: acepta conexiones hasta que se llama a {@link #close()}.
+     */
+    @Override
+    public void run() {
+        ServerSocket server = serverSocket;
+        if (server == null) return;
+        Util.printGreenColor("Listener " + listener);
+        FTP.Util.FileLogger.info("Listener escuchando: " + listener);
+
+        while (!closed) {
+            Socket client;
+            try {
+                client = server.accept();
+            } catch (SocketException e) {
+                if (closed) break;
+                Util.printRedColor("Error en listener " + listener.getName() + ": " + e.getMessage());
+                FTP.Util.FileLogger.error("Listener " + listener.getName() + ": " + e.getMessage());
+                break;
+            } catch (IOException e) {
+                FTP.Util.FileLogger.warning("Listener " + listener.getName() + " accept: " + e.getMessage());
+                continue;
+            }
+
+            if (!listenerLimit.tryAcquire()) {
+                reject(client, "límite del listener " + listener.getName());
+                continue;
+            }
+            if (!globalLimit.tryAcquire()) {
+                listenerLimit.release();
+                reject(client, "límite global");
+                continue;
+            }
+            FTP.Util.FileLogger.logConnection(client.getInetAddress().toString() + " [" + listener.getName() + "]");
+            try {
+                sessions.execute(() -> {
+                    try {
+                        FtpClientHandler handler = new FtpClientHandler(client, config, loginThrottle, userStore, listener);
+                        handler.run();
+                    } catch (IOException e) {
+                        Util.printRedColor("Error iniciando handler: " + e.getMessage());
+                    } finally {
+                        globalLimit.release();
+                        listenerLimit.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                globalLimit.release();
+                listenerLimit.release();
+                reject(client, "servidor deteniéndose");
+            }
+        }
+    }
+
+    /**
+     * Cierra el ServerSocket; el hilo acceptor termina en cuanto accept() falla.
+     */
+    public void close() {
+        closed = true;
+        ServerSocket server = serverSocket;
+        if (server != null) {
+            try { server.close(); } catch (IOException ignored) { }
+        }
+    }
+
+    private void reject(Socket client, String reason) {
+        // En TLS implícito no se puede escribir en claro; simplemente se cierra
+        if (listener.getTlsMode() != ListenerConfig.TlsMode.IMPLICIT) {
+            try {
+                client.getOutputStream().write("421 Too many connections. Try again later.\r\n".getBytes());
+            } catch (IOException ignored) { }
+        }
+        try { client.close(); } catch (IOException ignored) { }
+        FTP.Util.FileLogger.warning("Conexión rechazada (" + reason + ") desde " + client.getInetAddress());
+    }
+}
@@ -1,16 +1,20 @@
 package FTP.Server;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import FTP.Util.Util;
 
@@ -23,6 +27,7 @@ import FTP.Util.Util;
  *   <li>Control de acceso basado en roles (RBAC)</li>
  *   <li>Modos de transferencia ACTIVE y PASSIVE</li>
  *   <li>Manejo concurrente de múltiples clientes mediante ExecutorService</li>
+ *   <li>Varios listeners (puertos/interfaces, TLS implícito o explícito) con acceptors independientes</li>
  * </ul>
  *
  * @author Eduardo Díaz Sánchez
@@ -50,11 +55,270 @@ public class JavaFtpServer {
 	/** Puerto de control FTP estándar */
 	protected static final int CONTROL_PORT = 21;
 
+	/** Rueda de timeouts compartida (inactividad, aceptación de datos, transferencias paradas) */
+	private static TimeoutWheel timeoutWheel;
+
+	/** Caché de listados compartida (null si ftp.list.cache.max.bytes=0) */
+	private static volatile ListingCache listingCache;
+
+	/** Caché de atributos para SIZE/MDTM (null si ftp.attr.cache.size=0) */
+	private static volatile AttributeCache attributeCache;
+
+	/** Entradas máximas de STAT &lt;ruta&gt; por el canal de control */
+	private static volatile int statMaxEntries = 100;
+
+	/** Listado recursivo compartido (pool fork-join acotado) */
+	private static RecursiveLister recursiveLister;
+
+	/** Resolución de rutas con raíz precomputada y caché de directorios */
+	private static PathResolver pathResolver;
+
+	/** Backend de almacenamiento compartido por todas las sesiones */
+	private static FtpFileSystem fileSystem;
+
+	/** Cuotas por usuario (null si están desactivadas) */
+	private static volatile QuotaManager quotaManager;
+
+	/** Borrado recursivo compartido (SITE RMTREE) */
+	private static TreeDeleter treeDeleter;
+
+	/** Pool de copias en el servidor (SITE CPFR/CPTO) */
+	private static ExecutorService copyExecutor;
+
+	/** Hilos de accept() pasivo y handshake TLS de datos en segundo plano (acotado por ftp.max.connections) */
+	private static ExecutorService passiveExecutor;
+
+	/** Caché de verificaciones de contraseña correctas (null si ftp.auth.cache.enabled=false) */
+	private static volatile CredentialCache credentialCache;
+
+	/** Pool acotado de verificación bcrypt (PASS) */
+	private static PasswordVerifier passwordVerifier;
+
+	/** Locks de lectura/escritura por ruta (RETR, STOR, APPE, DELE, RNTO) */
+	private static PathLockManager pathLocks;
+
+	/** Índice de nombres para SITE FIND (null si ftp.index.enabled=false) */
+	private static volatile FilenameIndex filenameIndex;
+
+	/** Resultados máximos de SITE FIND */
+	private static volatile int findMaxResults = 1000;
+
 	/** Flag para cierre ordenado (graceful shutdown) */
 	private static volatile boolean shuttingDown = false;
 
-	/** Referencia al ServerSocket para que el shutdown hook pueda cerrarlo */
-	private static volatile ServerSocket serverRef = null;
+	/** Listeners activos para que el shutdown hook pueda cerrarlos */
+	private static volatile List<FtpListener> listenersRef = null;
+
+	/**
+	 * Devuelve la rueda de timeouts compartida, creándola con la resolución por defecto si el
+	 * servidor no la ha inicializado (p. ej. handlers creados fuera de main).
+	 *
+	 * @return Rueda de timeouts
+	 */
+	protected static synchronized TimeoutWheel getTimeoutWheel() {
+		if (timeoutWheel == null) {
+			timeoutWheel = new TimeoutWheel(100, 512);
+		}
+		return timeoutWheel;
+	}
+
+	/**
+	 * Devuelve la caché de listados compartida.
+	 *
+	 * @return Caché, o null si está desactivada
+	 */
+	protected static ListingCache getListingCache() {
+		return listingCache;
+	}
+
+	/**
+	 * Devuelve la caché de atributos compartida.
+	 *
+	 * @return Caché, o null si está desactivada
+	 */
+	protected static AttributeCache getAttributeCache() {
+		return attributeCache;
+	}
+
+	/**
+	 * Devuelve el límite de entradas de un listado por el canal de control (STAT &lt;ruta&gt;).
+	 *
+	 * @return Entradas máximas (0 = nunca por el canal de control)
+	 */
+	protected static int getStatMaxEntries() {
+		return statMaxEntries;
+	}
+
+	/**
+	 * Devuelve el listador recursivo compartido, creándolo con la configuración por defecto si hace falta.
+	 *
+	 * @return Listador recursivo
+	 */
+	protected static synchronized RecursiveLister getRecursiveLister() {
+		if (recursiveLister == null) {
+			ServerConfig defaults = new ServerConfig();
+			recursiveLister = new RecursiveLister(defaults.getListRecursiveParallelism(),
+				defaults.getListRecursiveMaxDepth(), defaults.getListRecursiveMaxEntries());
+		}
+		return recursiveLister;
+	}
+
+	/**
+	 * Devuelve el resolvedor de rutas compartido, creándolo sobre {@link #dirRoot} con la configuración
+	 * por defecto si hace falta.
+	 *
+	 * @return Resolvedor de rutas
+	 * @throws IllegalStateException Si el directorio raíz no existe
+	 */
+	protected static synchronized PathResolver getPathResolver() {
+		if (pathResolver == null) {
+			ServerConfig defaults = new ServerConfig();
+			try {
+				pathResolver = new PathResolver(dirRoot, PathResolver.SymlinkPolicy.parse(defaults.getSymlinkPolicy()),
+					defaults.getPathCacheSize(), defaults.getPathCacheTtlMillis());
+			} catch (IOException e) {
+				throw new IllegalStateException("Directorio raíz no válido: " + dirRoot, e);
+			}
+		}
+		return pathResolver;
+	}
+
+	/**
+	 * Devuelve el backend de almacenamiento compartido; por defecto, disco local sobre {@link #dirRoot}.
+	 *
+	 * @return Sistema de ficheros virtual
+	 */
+	protected static synchronized FtpFileSystem getFileSystem() {
+		if (fileSystem == null) {
+			fileSystem = new LocalFileSystem(getPathResolver());
+		}
+		return fileSystem;
+	}
+
+	/**
+	 * Devuelve el gestor de cuotas, o null si las cuotas están desactivadas.
+	 *
+	 * @return Gestor de cuotas o null
+	 */
+	protected static QuotaManager getQuotaManager() {
+		return quotaManager;
+	}
+
+	/**
+	 * Devuelve el índice de nombres compartido.
+	 *
+	 * @return Índice, o null si está desactivado
+	 */
+	protected static FilenameIndex getFilenameIndex() {
+		return filenameIndex;
+	}
+
+	/**
+	 * Devuelve el número máximo de resultados de SITE FIND.
+	 *
+	 * @return Resultados máximos
+	 */
+	protected static int getFindMaxResults() {
+		return findMaxResults;
+	}
+
+	/**
+	 * Devuelve la caché de verificaciones de contraseña.
+	 *
+	 * @return Caché, o null si está desactivada
+	 */
+	protected static CredentialCache getCredentialCache() {
+		return credentialCache;
+	}
+
+	/**
+	 * Devuelve el pool de verificación de contraseñas, creándolo con la configuración por defecto si hace falta.
+	 *
+	 * @return Verificador de contraseñas
+	 */
+	protected static synchronized PasswordVerifier getPasswordVerifier() {
+		if (passwordVerifier == null) {
+			ServerConfig defaults = new ServerConfig();
+			passwordVerifier = new PasswordVerifier(defaults.getBcryptThreads(), defaults.getBcryptQueueSize(),
+				defaults.getBcryptMaxWaitMillis(), defaults.getBcryptCost());
+		}
+		return passwordVerifier;
+	}
+
+	/**
+	 * Devuelve los locks por ruta compartidos, creándolos con la configuración por defecto si hace falta.
+	 *
+	 * @return Gestor de locks por ruta
+	 */
+	protected static synchronized PathLockManager getPathLocks() {
+		if (pathLocks == null) {
+			ServerConfig defaults = new ServerConfig();
+			pathLocks = new PathLockManager(defaults.getLockStripes(), defaults.getLockTimeoutMillis());
+		}
+		return pathLocks;
+	}
+
+	/**
+	 * Devuelve el borrado recursivo compartido, creándolo con la configuración por defecto si hace falta.
+	 *
+	 * @return Borrado recursivo
+	 */
+	protected static synchronized TreeDeleter getTreeDeleter() {
+		if (treeDeleter == null) {
+			treeDeleter = new TreeDeleter(new ServerConfig().getRmtreeParallelism());
+		}
+		return treeDeleter;
+	}
+
+	/**
+	 * Devuelve el pool de copias en el servidor, creándolo con la configuración por defecto si hace falta.
+	 * Las copias que no caben en los hilos esperan en cola.
+	 *
+	 * @return Pool de copias
+	 */
+	protected static synchronized ExecutorService getCopyExecutor() {
+		if (copyExecutor == null) {
+			copyExecutor = newCopyExecutor(new ServerConfig().getCopyThreads());
+		}
+		return copyExecutor;
+	}
+
+	/**
+	 * Devuelve el pool de conexiones pasivas, creándolo con la configuración por defecto si hace falta.
+	 * La cola es corta (un PASV repetido espera a que el accept() anterior libere su hilo); llena,
+	 * rechaza la tarea y la sesión responde 425 al PASV/EPSV.
+	 *
+	 * @return Pool de accept() pasivos y handshakes de datos
+	 */
+	protected static synchronized ExecutorService getPassiveExecutor() {
+		if (passiveExecutor == null) {
+			passiveExecutor = newPassiveExecutor(new ServerConfig().getMaxConnections());
+		}
+		return passiveExecutor;
+	}
+
+	private static ExecutorService newPassiveExecutor(int maxConnections) {
+		// Como mucho un accept() y un handshake por sesión a la vez
+		int threads = 2 * Math.max(1, maxConnections);
+		AtomicInteger seq = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<>(threads), r -> {
+				Thread t = new Thread(r, "ftp-pasv-" + seq.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static ExecutorService newCopyExecutor(int threads) {
+		AtomicInteger seq = new AtomicInteger();
+		return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread t = new Thread(r, "ftp-copy-" + seq.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
 
 	/**
 	 * Verifica la existencia del directorio base 'files'.
@@ -99,16 +363,15 @@ public class JavaFtpServer {
 	/**
 	 * Punto de entrada principal del servidor FTP.
 	 * Inicializa el servidor, muestra el banner, configura el directorio raíz
-	 * y comienza a escuchar conexiones de clientes en el puerto 21.
+	 * y arranca un hilo acceptor por cada listener configurado (ftp.listeners, o ftp.control.port).
 	 *
 	 * @param args Argumentos de línea de comandos (no utilizados)
 	 * @throws InterruptedException Si el servidor es interrumpido
 	 */
     public static void main(String[] args) throws InterruptedException {
-        ExecutorService execute = null;
+        ExecutorService execute;
         Scanner sc = null;
         ServerConfig config = new ServerConfig();
-        int serverPort;
 
         System.out.println(" _____                 _     _              _____ _____ _____");
         System.out.println("/  ___|               (_)   | |            |  ___|_   _| ___ \\");
@@ -126,12 +389,16 @@ public class JavaFtpServer {
         try {
             config.loadFromFile("server.properties");
             Util.printGreenColor("\n✓ Configuración cargada desde server.properties");
-            serverPort = config.getControlPort();
             FTP.Util.FileLogger.setVerbose(config.isVerboseLogging());
             FTP.Util.FileLogger.setRotation(config.getLogMaxSizeBytes(), config.getLogMaxBackupFiles());
-        } catch (IOException e) {
-            Util.printRedColor("\n⚠ No se pudo cargar server.properties, usando configuración por defecto");
-            serverPort = CONTROL_PORT;
+        } catch (FileNotFoundException e) {
+            Util.printRedColor("\n⚠ No se pudo cargar server.properties (" + e.getMessage() + "), usando configuración por defecto");
+            config = new ServerConfig();
+        } catch (IOException | ConfigException e) {
+            // Un fichero presente pero inválido no cae a los valores por defecto (p. ej. un listener TLS acabaría en claro)
+            Util.printRedColor("\nERROR: Configuración no válida en server.properties: " + e.getMessage());
+            FTP.Util.FileLogger.error("Configuración no válida en server.properties: " + e.getMessage());
+            return;
         }
 
         // 1) Root directory: from config or ask interactively
@@ -150,6 +417,10 @@ public class JavaFtpServer {
             setRoot(sc);
         }
 
+        if (config.isAuthCacheEnabled()) {
+            credentialCache = new CredentialCache(config.getAuthCacheSize(), config.getAuthCacheTtlMillis());
+        }
+
         // 2) User store: SQLite if configured, otherwise TXT file
         String dbPath = config.getUsersDatabase();
         if (dbPath != null && !dbPath.isEmpty()) {
@@ -159,7 +430,7 @@ public class JavaFtpServer {
                     File parent = dbFile.getParentFile();
                     if (parent != null) parent.mkdirs();
                 }
-                SqliteUserStore sqliteStore = new SqliteUserStore(dbPath);
+                SqliteUserStore sqliteStore = new SqliteUserStore(dbPath, config.getUsersDatabasePoolSize());
                 sqliteStore.initSchema();
                 userStore = sqliteStore;
                 Util.printGreenColor("✓ Usuarios: SQLite (" + dbPath + ")");
@@ -176,57 +447,142 @@ public class JavaFtpServer {
                 FTP.Util.FileLogger.error("Archivo de usuarios no existe: " + usersFilePath);
                 return;
             }
-            userStore = new FileUserStore(usersFilePath);
+            FileUserStore fileStore = new FileUserStore(usersFilePath);
+            fileStore.startReloading(config.getUsersReloadMillis());
+            userStore = fileStore;
             Util.printGreenColor("✓ Usuarios: fichero (" + usersFilePath + ")");
         }
 
+        synchronized (JavaFtpServer.class) {
+            timeoutWheel = new TimeoutWheel(config.getTimerTickMillis(), 512);
+        }
+
+        statMaxEntries = Math.max(0, config.getStatMaxEntries());
+        if (config.getListCacheMaxBytes() > 0) {
+            listingCache = new ListingCache(config.getListCacheMaxBytes(), config.getListCacheTtlMillis());
+        }
+        if (config.getAttrCacheSize() > 0 && config.getAttrCacheTtlMillis() > 0) {
+            attributeCache = new AttributeCache(config.getAttrCacheSize(), config.getAttrCacheTtlMillis());
+        }
+
+        try {
+            synchronized (JavaFtpServer.class) {
+                pathResolver = new PathResolver(dirRoot, PathResolver.SymlinkPolicy.parse(config.getSymlinkPolicy()),
+                    config.getPathCacheSize(), config.getPathCacheTtlMillis());
+            }
+        } catch (IOException e) {
+            Util.printRedColor("\nERROR: No se pudo resolver el directorio raíz: " + e.getMessage());
+            FTP.Util.FileLogger.error("Directorio raíz no resoluble: " + dirRoot);
+            return;
+        }
+
+        // 3) Backend de almacenamiento
+        if ("memory".equals(config.getStorage())) {
+            MemoryFileSystem memory = new MemoryFileSystem(config.getMemoryChunkSize(), config.getMemoryMaxBytes());
+            if (config.isMemorySeed()) {
+                try {
+                    memory.seedFrom(pathResolver.getRoot());
+                } catch (IOException e) {
+                    Util.printRedColor("\nERROR: No se pudo copiar la raíz al almacenamiento en memoria: " + e.getMessage());
+                    FTP.Util.FileLogger.error("Semilla de almacenamiento en memoria: " + e.getMessage());
+                    return;
+                }
+            }
+            synchronized (JavaFtpServer.class) {
+                fileSystem = memory;
+            }
+            Util.printGreenColor("✓ Almacenamiento: memoria" + (config.isMemorySeed() ? " (copiado de " + dirRoot + ")" : ""));
+        } else if ("dedup".equals(config.getStorage())) {
+            String chunkDir = config.getDedupDirectory().isEmpty()
+                ? pathResolver.getRoot().toString() + ".chunks" : config.getDedupDirectory();
+            try {
+                ChunkStore chunks = new ChunkStore(Paths.get(chunkDir), config.getDedupGcMillis(), Math.max(2, config.getDedupReadAhead()));
+                DedupFileSystem dedup = new DedupFileSystem(new LocalFileSystem(pathResolver), chunks,
+                    DedupFileSystem.Chunking.parse(config.getDedupChunking()), config.getDedupChunkSize(), config.getDedupReadAhead());
+                synchronized (JavaFtpServer.class) {
+                    fileSystem = dedup;
+                }
+            } catch (IOException e) {
+                Util.printRedColor("\nERROR: No se pudo iniciar el almacenamiento deduplicado: " + e.getMessage());
+                FTP.Util.FileLogger.error("Almacenamiento deduplicado: " + e.getMessage());
+                return;
+            }
+            Util.printGreenColor("✓ Almacenamiento: deduplicado (bloques en " + chunkDir + ")");
+        } else {
+            synchronized (JavaFtpServer.class) {
+                fileSystem = new LocalFileSystem(pathResolver);
+            }
+        }
+
+        // 4) Cuotas: se guardan junto a los usuarios en SQLite
+        if (config.isQuotaEnabled()) {
+            if (userStore instanceof SqliteUserStore) {
+                quotaManager = new QuotaManager((SqliteUserStore) userStore, getFileSystem(), config.getQuotaFlushMillis(),
+                    config.getQuotaReconcileMillis(), config.getQuotaReconcileRate());
+                Util.printGreenColor("✓ Cuotas por usuario activadas");
+            } else {
+                Util.printRedColor("\n⚠ ftp.quota.enabled requiere ftp.users.database (SQLite); cuotas desactivadas");
+                FTP.Util.FileLogger.warning("Cuotas desactivadas: requieren base de usuarios SQLite");
+            }
+        }
+
+        // 5) Índice de nombres (SITE FIND)
+        findMaxResults = Math.max(1, config.getIndexFindMaxResults());
+        if (config.isIndexEnabled()) {
+            FilenameIndex index = new FilenameIndex(getFileSystem(), config.getIndexParallelism());
+            long millis = index.build();
+            filenameIndex = index;
+            Util.printGreenColor("✓ Índice de nombres construido en " + millis + " ms");
+            FTP.Util.FileLogger.info("Índice de nombres: " + index.describe());
+        }
+
+        synchronized (JavaFtpServer.class) {
+            copyExecutor = newCopyExecutor(config.getCopyThreads());
+            passiveExecutor = newPassiveExecutor(config.getMaxConnections());
+            treeDeleter = new TreeDeleter(config.getRmtreeParallelism());
+            pathLocks = new PathLockManager(config.getLockStripes(), config.getLockTimeoutMillis());
+            passwordVerifier = new PasswordVerifier(config.getBcryptThreads(), config.getBcryptQueueSize(),
+                config.getBcryptMaxWaitMillis(), config.getBcryptCost());
+            recursiveLister = new RecursiveLister(config.getListRecursiveParallelism(),
+                config.getListRecursiveMaxDepth(), config.getListRecursiveMaxEntries());
+        }
+
         int maxConn = config.getMaxConnections();
         execute = Executors.newFixedThreadPool(maxConn);
         Semaphore connectionLimit = new Semaphore(maxConn);
-        LoginThrottle loginThrottle = new LoginThrottle(config.getAuthMaxAttempts(), config.getAuthLockoutMinutes());
+        LoginThrottle loginThrottle = new LoginThrottle(config.getAuthMaxAttempts(), config.getAuthLockoutMinutes(),
+            config.getAuthUserMaxAttempts(), config.getAuthThrottleMaxEntries());
+
+        List<FtpListener> listeners = new ArrayList<>();
+        for (ListenerConfig lc : config.getListeners()) {
+            listeners.add(new FtpListener(lc, config, execute, connectionLimit, loginThrottle, userStore));
+        }
+        listenersRef = listeners;
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             shuttingDown = true;
-            try {
-                if (serverRef != null) serverRef.close();
-            } catch (IOException ignored) { }
+            List<FtpListener> current = listenersRef;
+            if (current != null) {
+                for (FtpListener l : current) l.close();
+            }
+            QuotaManager quotas = quotaManager;
+            if (quotas != null) quotas.shutdown();
         }));
 
-        ServerSocket server = null;
+        List<Thread> acceptors = new ArrayList<>();
         try {
-            server = new ServerSocket(serverPort);
-            serverRef = server;
-            Util.printGreenColor("\nServidor FTP iniciado en el puerto de control " + serverPort);
-            FTP.Util.FileLogger.info("Servidor escuchando en puerto " + serverPort + ", max conexiones: " + maxConn);
-
-            while (!shuttingDown) {
-                try {
-                    Socket client = server.accept();
-                    if (!connectionLimit.tryAcquire()) {
-                        try {
-                            client.getOutputStream().write("421 Too many connections. Try again later.\r\n".getBytes());
-                            client.close();
-                        } catch (IOException ignored) { }
-                        FTP.Util.FileLogger.warning("Conexión rechazada: límite alcanzado desde " + client.getInetAddress());
-                        continue;
-                    }
-                    FTP.Util.FileLogger.logConnection(client.getInetAddress().toString());
-                    final Semaphore permit = connectionLimit;
-                    final UserStore store = userStore;
-                    execute.execute(() -> {
-                        try {
-                            FtpClientHandler handler = new FtpClientHandler(client, config, loginThrottle, store);
-                            handler.run();
-                        } catch (IOException e) {
-                            Util.printRedColor("Error iniciando handler: " + e.getMessage());
-                        } finally {
-                            permit.release();
-                        }
-                    });
-                } catch (SocketException e) {
-                    if (shuttingDown) break;
-                    throw e;
-                }
+            for (FtpListener l : listeners) {
+                l.bind();
+            }
+            for (FtpListener l : listeners) {
+                Thread t = new Thread(l, "ftp-acceptor-" + l.getListenerConfig().getName());
+                t.start();
+                acceptors.add(t);
+            }
+            Util.printGreenColor("\nServidor FTP iniciado con " + listeners.size() + " listener(s)");
+            FTP.Util.FileLogger.info("Servidor escuchando en " + listeners.size() + " listener(s), max conexiones: " + maxConn);
+            for (Thread t : acceptors) {
+                t.join();
             }
         } catch (IOException e) {
             if (!shuttingDown) {
@@ -237,18 +593,26 @@ public class JavaFtpServer {
             Util.printRedColor("\nError: " + e.getMessage());
             FTP.Util.FileLogger.error("Error inesperado: " + e.getMessage());
         } finally {
-            serverRef = null;
-            if (server != null) try { server.close(); } catch (IOException ignored) { }
-            if (execute != null) {
-                execute.shutdown();
-                try {
-                    if (!execute.awaitTermination(10, TimeUnit.SECONDS))
-                        execute.shutdownNow();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+            listenersRef = null;
+            for (FtpListener l : listeners) l.close();
+            execute.shutdown();
+            try {
+                if (!execute.awaitTermination(10, TimeUnit.SECONDS))
                     execute.shutdownNow();
-                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                execute.shutdownNow();
             }
+            getTimeoutWheel().stop();
+            getCopyExecutor().shutdownNow();
+            getPassiveExecutor().shutdownNow();
+            getPasswordVerifier().shutdown();
+            loginThrottle.shutdown();
+            if (quotaManager != null) quotaManager.shutdown();
+            if (filenameIndex != null) filenameIndex.shutdown();
+            if (userStore instanceof FileUserStore) ((FileUserStore) userStore).shutdown();
+            if (userStore instanceof SqliteUserStore) ((SqliteUserStore) userStore).close();
+            if (fileSystem instanceof DedupFileSystem) ((DedupFileSystem) fileSystem).shutdown();
             if (sc != null) sc.close();
         }
         FTP.Util.FileLogger.info("========== SERVIDOR FTP DETENIDO ==========");
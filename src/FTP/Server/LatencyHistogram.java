@@ -0,0 +1,66 @@
+package FTP.Server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias sin locks para publicar percentiles en SITE STATS.
+ * <p>
+ * Cubetas en potencias de dos de microsegundos (1 µs .. ~2^30 µs): registrar es un incremento atómico
+ * y un percentil se da como el límite superior de su cubeta, con error relativo menor de 2x, suficiente
+ * para ver si una operación tarda microsegundos, milisegundos o segundos.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 31;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Registra una duración.
+     *
+     * @param nanos Duración en nanosegundos
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        total.incrementAndGet();
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    /** Número de muestras. */
+    public long count() {
+        return total.get();
+    }
+
+    /**
+     * Percentil aproximado.
+     *
+     * @param p Percentil (0-100)
+     * @return Límite superior en microsegundos de la cubeta que lo contiene (0 sin muestras)
+     */
+    public long percentileMicros(double p) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(n * p / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, rank)) return Math.min(1L << i, maxMicros.get());
+        }
+        return maxMicros.get();
+    }
+
+    /** Resumen "n=.. p50=.. p90=.. p99=.. máx=..", en microsegundos. */
+    public String describe() {
+        return String.format("n=%d p50≤%dµs p90≤%dµs p99≤%dµs máx=%dµs", total.get(), percentileMicros(50),
+            percentileMicros(90), percentileMicros(99), maxMicros.get());
+    }
+}
@@ -0,0 +1,159 @@
+package FTP.Server;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Formateo de entradas de listado a partir de una única lectura de atributos por entrada.
+ * <p>
+ * Genera las líneas estilo {@code ls -l} de LIST y las de hechos de MLSD/MLST (RFC 3659).
+ * Los métodos escriben sobre un {@link StringBuilder} reutilizable para no crear objetos
+ * intermedios por entrada.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public final class ListFormatter {
+
+    /** Hechos MLST soportados, en el orden en que se emiten */
+    public static final Set<String> MLST_FACTS = Collections.unmodifiableSet(
+        new LinkedHashSet<>(Arrays.asList("type", "size", "modify", "perm")));
+
+    /** Formato de tiempo de MLSx/MDTM: YYYYMMDDHHMMSS en UTC. Inmutable y thread-safe */
+    public static final DateTimeFormatter MLSX_TIME =
+        DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+
+    /** Fechas recientes de LIST (como ls: mes, día, hora) */
+    private static final DateTimeFormatter LIST_RECENT =
+        DateTimeFormatter.ofPattern("MMM dd HH:mm", Locale.ENGLISH).withZone(ZoneId.systemDefault());
+
+    /** Fechas antiguas o futuras de LIST (mes, día, año) */
+    private static final DateTimeFormatter LIST_OLD =
+        DateTimeFormatter.ofPattern("MMM dd  yyyy", Locale.ENGLISH).withZone(ZoneId.systemDefault());
+
+    private static final long SIX_MONTHS_MILLIS = 6L * 30L * 24L * 60L * 60L * 1000L;
+    private static final long MINUTE_MILLIS = 60L * 1000L;
+    private static final long DAY_MILLIS = 24L * 60L * MINUTE_MILLIS;
+
+    /**
+     * Caché de fechas formateadas para un listado: como mucho una cadena por minuto distinto
+     * (fechas recientes) o por día distinto (fechas antiguas). Tabla de acceso directo de tamaño fijo,
+     * sin boxing. No es thread-safe: una instancia por listado.
+     */
+    public static final class DateCache {
+        private static final int SLOTS = 1024;
+        private final long now;
+        private final TimeZone zone = TimeZone.getDefault();
+        private final long[] keys = new long[SLOTS];
+        private final String[] values = new String[SLOTS];
+
+        public DateCache(long now) {
+            this.now = now;
+        }
+
+        /**
+         * @param millis Fecha de modificación
+         * @return Texto de fecha de LIST
+         */
+        public String format(long millis) {
+            boolean recent = millis <= now && now - millis < SIX_MONTHS_MILLIS;
+            long local = millis + zone.getOffset(millis);
+            // Bit bajo distingue minuto (reciente) de día (antiguo)
+            long key = recent ? (Math.floorDiv(local, MINUTE_MILLIS) << 1) : ((Math.floorDiv(local, DAY_MILLIS) << 1) | 1);
+            int slot = (int) ((key ^ (key >>> 17)) & (SLOTS - 1));
+            String cached = values[slot];
+            if (cached != null && keys[slot] == key) {
+                return cached;
+            }
+            String formatted = (recent ? LIST_RECENT : LIST_OLD).format(Instant.ofEpochMilli(millis));
+            keys[slot] = key;
+            values[slot] = formatted;
+            return formatted;
+        }
+    }
+
+    private ListFormatter() { }
+
+    /**
+     * Añade a {@code sb} una línea de LIST estilo {@code ls -l} (sin terminador).
+     *
+     * @param sb Destino
+     * @param attrs Atributos leídos una sola vez para la entrada
+     * @param name Nombre de la entrada
+     * @param dates Caché de fechas del listado en curso
+     */
+    public static void appendListLine(StringBuilder sb, BasicFileAttributes attrs, String name, DateCache dates) {
+        sb.append(attrs.isDirectory() ? "drwxr-xr-x" : "-rw-r--r--")
+          .append(" 1 ftp ftp ")
+          .append(attrs.size())
+          .append(' ')
+          .append(dates.format(attrs.lastModifiedTime().toMillis()))
+          .append(' ')
+          .append(name);
+    }
+
+    /**
+     * Línea FEAT que anuncia los hechos soportados, marcando con '*' los activos.
+     *
+     * @param enabled Hechos activos en la sesión
+     * @return Texto de la línea (sin espacio inicial)
+     */
+    public static String mlstFeature(Set<String> enabled) {
+        StringBuilder sb = new StringBuilder("MLST ");
+        for (String fact : MLST_FACTS) {
+            sb.append(fact);
+            if (enabled.contains(fact)) sb.append('*');
+            sb.append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Añade a {@code sb} los hechos MLSx de una entrada seguidos de un espacio (sin el nombre).
+     *
+     * @param sb Destino
+     * @param attrs Atributos leídos una sola vez para la entrada
+     * @param profile Perfil del usuario (determina el hecho perm)
+     * @param facts Hechos a emitir
+     */
+    public static void appendMlsxFacts(StringBuilder sb, BasicFileAttributes attrs, UserProfile profile, Set<String> facts) {
+        boolean dir = attrs.isDirectory();
+        if (facts.contains("type")) {
+            sb.append("type=").append(dir ? "dir" : (attrs.isRegularFile() ? "file" : "OS.unix=other")).append(';');
+        }
+        if (facts.contains("size") && !dir) {
+            sb.append("size=").append(attrs.size()).append(';');
+        }
+        if (facts.contains("modify")) {
+            sb.append("modify=");
+            MLSX_TIME.formatTo(Instant.ofEpochMilli(attrs.lastModifiedTime().toMillis()), sb);
+            sb.append(';');
+        }
+        if (facts.contains("perm")) {
+            sb.append("perm=").append(permissions(dir, profile)).append(';');
+        }
+        sb.append(' ');
+    }
+
+    /**
+     * Permisos RFC 3659 según el perfil RBAC: BASICO solo lectura, INTERMEDIO añade
+     * subir/anexar/borrar ficheros, ADMINISTRADOR añade gestión de directorios y renombrado.
+     */
+    private static String permissions(boolean dir, UserProfile profile) {
+        boolean write = profile == UserProfile.INTERMEDIO || profile == UserProfile.ADMINISTRADOR;
+        boolean admin = profile == UserProfile.ADMINISTRADOR;
+        if (dir) {
+            return "el" + (write ? "c" : "") + (admin ? "dfmp" : "");
+        }
+        return "r" + (write ? "adw" : "") + (admin ? "f" : "");
+    }
+}
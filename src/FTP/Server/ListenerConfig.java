@@ -0,0 +1,67 @@
+package FTP.Server;
+
+/**
+ * Definición de un listener (puerto/interfaz) del servidor FTP.
+ * <p>
+ * Cada listener tiene su propio hilo acceptor, backlog, modo TLS y límite de conexiones;
+ * todos comparten el pool de sesiones, el almacén de usuarios y las cachés del servidor.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class ListenerConfig {
+
+    /** Modo TLS del listener */
+    public enum TlsMode {
+        /** Sin TLS: AUTH TLS se rechaza */
+        NONE,
+        /** TLS explícito opcional (AUTH TLS) */
+        EXPLICIT,
+        /** TLS explícito obligatorio antes de cualquier comando salvo AUTH/QUIT */
+        REQUIRED,
+        /** FTPS implícito: el handshake TLS se hace nada más aceptar la conexión */
+        IMPLICIT
+    }
+
+    private final String name;
+    private final String bindAddress;
+    private final int port;
+    private final int backlog;
+    private final TlsMode tlsMode;
+    private final int maxConnections;
+
+    /**
+     * @param name Nombre lógico del listener (para logs)
+     * @param bindAddress IP o host en el que escuchar (vacío = todas las interfaces)
+     * @param port Puerto de control
+     * @param backlog Backlog del ServerSocket
+     * @param tlsMode Modo TLS
+     * @param maxConnections Máximo de conexiones simultáneas en este listener
+     */
+    public ListenerConfig(String name, String bindAddress, int port, int backlog, TlsMode tlsMode, int maxConnections) {
+        this.name = name;
+        this.bindAddress = bindAddress == null ? "" : bindAddress.trim();
+        this.port = port;
+        this.backlog = backlog;
+        this.tlsMode = tlsMode;
+        this.maxConnections = maxConnections;
+    }
+
+    public String getName() { return name; }
+    public String getBindAddress() { return bindAddress; }
+    public int getPort() { return port; }
+    public int getBacklog() { return backlog; }
+    public TlsMode getTlsMode() { return tlsMode; }
+    public int getMaxConnections() { return maxConnections; }
+
+    /** Si el listener exige TLS en el canal de control (explícito obligatorio o implícito) */
+    public boolean isTlsRequired() {
+        return tlsMode == TlsMode.REQUIRED || tlsMode == TlsMode.IMPLICIT;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + (bindAddress.isEmpty() ? "*" : bindAddress) + ":" + port + ", tls=" + tlsMode.name().toLowerCase()
+            + ", max=" + maxConnections + ")";
+    }
+}
@@ -0,0 +1,348 @@
+package FTP.Server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché de listados pre-renderizados (LIST/MLSD) compartida por todo el servidor.
+ * <p>
+ * La clave es la ruta canónica del directorio; cada directorio guarda una variante por formato
+ * (LIST, MLSD según perfil y hechos). El tamaño está acotado en bytes con expulsión LRU por directorio.
+ * Las entradas se invalidan:
+ * <ul>
+ *   <li>explícitamente desde las mutaciones de {@link ServerFunctions} (STOR, DELE, MKD, RMD, RNTO...)</li>
+ *   <li>por un {@link WatchService} registrado sobre cada directorio cacheado (cambios externos)</li>
+ *   <li>por TTL, como red de seguridad para sistemas de ficheros sin notificaciones fiables</li>
+ * </ul>
+ * Un listado que se renderiza mientras llega una invalidación de su directorio no se guarda.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class ListingCache {
+
+    /** Renderizado en curso; se obtiene con {@link #beginRender(String)} y se cierra con {@link #finishRender}. */
+    public static final class Render {
+        private final String dir;
+        private final long startSeq;
+
+        private Render(String dir, long startSeq) {
+            this.dir = dir;
+            this.startSeq = startSeq;
+        }
+    }
+
+    /**
+     * OutputStream que reenvía al socket y, a la vez, captura una copia del listado mientras
+     * no supere el límite; así el primer LIST de un directorio se sigue enviando en streaming.
+     */
+    public static final class Capture extends OutputStream {
+        private final OutputStream out;
+        private final long limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream(8 * 1024);
+
+        public Capture(OutputStream out, long limit) {
+            this.out = out;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                if (copy.size() > limit) copy = null;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                if (copy.size() + (long) len > limit) {
+                    copy = null;
+                } else {
+                    copy.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /** Copia capturada, o null si el listado superó el límite. */
+        public byte[] toByteArray() {
+            return copy != null ? copy.toByteArray() : null;
+        }
+    }
+
+    private static final class DirEntry {
+        final Map<String, byte[]> variants = new HashMap<>(4);
+        long bytes;
+        long createdAt;
+        WatchKey watchKey;
+    }
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, DirEntry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, Integer> inFlight = new HashMap<>();
+    private final Map<String, Long> dirtySeq = new HashMap<>();
+    private long totalBytes = 0;
+    private long seq = 0;
+
+    private WatchService watcher;
+    private final Map<WatchKey, String> watchedDirs = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong explicitInvalidations = new AtomicLong();
+    private final AtomicLong watchInvalidations = new AtomicLong();
+    private final AtomicLong lagSamples = new AtomicLong();
+    private final AtomicLong lagTotalMillis = new AtomicLong();
+    private final AtomicLong lagMaxMillis = new AtomicLong();
+
+    /**
+     * @param maxBytes Memoria máxima para payloads
+     * @param ttlMillis Edad máxima de una entrada (0 = sin TTL)
+     */
+    public ListingCache(long maxBytes, long ttlMillis) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.max(1, maxBytes / 8);
+        this.ttlMillis = ttlMillis;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            Thread t = new Thread(this::watchLoop, "ftp-list-watch");
+            t.setDaemon(true);
+            t.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            watcher = null;
+            FTP.Util.FileLogger.warning("Caché de listados sin WatchService (solo TTL e invalidación explícita): " + e.getMessage());
+        }
+    }
+
+    /** Tamaño máximo que se intentará capturar para una variante. */
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * Devuelve el payload cacheado o null.
+     *
+     * @param dir Clave del directorio ({@link FtpFile#getCacheKey()})
+     * @param variant Formato (p. ej. "LIST" o "MLSD:perfil:hechos")
+     * @return Bytes listos para enviar (no modificar), o null
+     */
+    public synchronized byte[] get(String dir, String variant) {
+        DirEntry e = entries.get(dir);
+        if (e != null && ttlMillis > 0 && System.currentTimeMillis() - e.createdAt > ttlMillis) {
+            removeEntry(dir);
+            e = null;
+        }
+        byte[] payload = e != null ? e.variants.get(variant) : null;
+        if (payload != null) hits.incrementAndGet(); else misses.incrementAndGet();
+        return payload;
+    }
+
+    /**
+     * Marca el comienzo de un renderizado para poder descartar el resultado si se invalida entretanto.
+     *
+     * @param dir Clave del directorio
+     * @return Token del renderizado
+     */
+    public synchronized Render beginRender(String dir) {
+        inFlight.merge(dir, 1, Integer::sum);
+        return new Render(dir, seq);
+    }
+
+    /**
+     * Termina un renderizado y guarda el payload si no hubo invalidaciones durante el mismo.
+     *
+     * @param render Token de {@link #beginRender(String)}
+     * @param variant Formato
+     * @param payload Bytes renderizados, o null si el listado no se capturó completo
+     */
+    public synchronized void finishRender(Render render, String variant, byte[] payload) {
+        Integer n = inFlight.get(render.dir);
+        Long dirty = dirtySeq.get(render.dir);
+        boolean stale = dirty != null && dirty > render.startSeq;
+        if (n == null || n <= 1) {
+            inFlight.remove(render.dir);
+            dirtySeq.remove(render.dir);
+        } else {
+            inFlight.put(render.dir, n - 1);
+        }
+        if (stale || payload == null || payload.length > maxEntryBytes) {
+            return;
+        }
+        DirEntry e = entries.get(render.dir);
+        if (e == null) {
+            e = new DirEntry();
+            e.createdAt = System.currentTimeMillis();
+            e.watchKey = watch(render.dir);
+            entries.put(render.dir, e);
+        }
+        byte[] old = e.variants.put(variant, payload);
+        long delta = payload.length - (old != null ? old.length : 0);
+        e.bytes += delta;
+        totalBytes += delta;
+        evictIfNeeded();
+    }
+
+    /**
+     * Invalida el listado de un directorio (p. ej. tras crear/borrar/renombrar una entrada en él).
+     *
+     * @param dir Clave del directorio
+     */
+    public void invalidate(String dir) {
+        explicitInvalidations.incrementAndGet();
+        invalidateInternal(dir, false);
+    }
+
+    /**
+     * Invalida un directorio y todos sus subdirectorios cacheados (RMD, RNTO de directorios).
+     *
+     * @param dir Clave del directorio raíz del subárbol
+     */
+    public void invalidateTree(String dir) {
+        explicitInvalidations.incrementAndGet();
+        invalidateInternal(dir, true);
+    }
+
+    /** Resumen para SITE STATS. */
+    public synchronized String describe() {
+        long h = hits.get();
+        long m = misses.get();
+        long samples = lagSamples.get();
+        return String.format("listados: %d dirs, %d/%d bytes, aciertos=%d fallos=%d (%.1f%%), invalidaciones explícitas=%d watch=%d, lag medio=%d ms máx=%d ms",
+            entries.size(), totalBytes, maxBytes, h, m, (h + m) == 0 ? 0.0 : 100.0 * h / (h + m),
+            explicitInvalidations.get(), watchInvalidations.get(),
+            samples == 0 ? 0 : lagTotalMillis.get() / samples, lagMaxMillis.get());
+    }
+
+    private synchronized void invalidateInternal(String dir, boolean tree) {
+        seq++;
+        if (tree) {
+            // entrySet y no get(): en un LinkedHashMap por orden de acceso get() es una modificación estructural
+            Iterator<Map.Entry<String, DirEntry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, DirEntry> entry = it.next();
+                if (FtpFile.isUnderKey(entry.getKey(), dir)) {
+                    DirEntry e = entry.getValue();
+                    totalBytes -= e.bytes;
+                    unwatch(e);
+                    it.remove();
+                }
+            }
+            for (String key : inFlight.keySet()) {
+                if (FtpFile.isUnderKey(key, dir)) dirtySeq.put(key, seq);
+            }
+        }
+        removeEntry(dir);
+        if (inFlight.containsKey(dir)) {
+            dirtySeq.put(dir, seq);
+        }
+    }
+
+    private void removeEntry(String dir) {
+        DirEntry e = entries.remove(dir);
+        if (e != null) {
+            totalBytes -= e.bytes;
+            unwatch(e);
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, DirEntry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            DirEntry e = it.next().getValue();
+            totalBytes -= e.bytes;
+            unwatch(e);
+            it.remove();
+        }
+    }
+
+    private WatchKey watch(String dir) {
+        if (watcher == null) return null;
+        try {
+            WatchKey key = Paths.get(dir).register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirs.put(key, dir);
+            return key;
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private void unwatch(DirEntry e) {
+        if (e.watchKey != null) {
+            e.watchKey.cancel();
+            watchedDirs.remove(e.watchKey);
+            e.watchKey = null;
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            String dir;
+            synchronized (this) {
+                dir = watchedDirs.get(key);
+            }
+            if (dir != null) {
+                long now = System.currentTimeMillis();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object ctx = event.context();
+                    if (!(ctx instanceof Path)) continue;
+                    Path child = Paths.get(dir).resolve((Path) ctx);
+                    recordLag(child, now);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        // Podía ser un subdirectorio cacheado
+                        invalidateInternal(child.toString(), true);
+                    }
+                }
+                watchInvalidations.incrementAndGet();
+                invalidateInternal(dir, false);
+            } else {
+                key.pollEvents();
+            }
+            key.reset();
+        }
+    }
+
+    /** Lag de invalidación aproximado: desde la fecha de modificación de la entrada cambiada hasta el evento. */
+    private void recordLag(Path child, long now) {
+        try {
+            long lag = now - Files.getLastModifiedTime(child).toMillis();
+            if (lag < 0 || lag > 60000) return; // cambio de metadatos o reloj: no representativo
+            lagSamples.incrementAndGet();
+            lagTotalMillis.addAndGet(lag);
+            lagMaxMillis.accumulateAndGet(lag, Math::max);
+        } catch (IOException ignored) {
+            // entrada ya borrada
+        }
+    }
+}
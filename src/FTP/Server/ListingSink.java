@@ -0,0 +1,117 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sumidero de líneas de listado hacia un stream de bytes.
+ * <p>
+ * Codifica en UTF-8 directamente desde un {@link CharSequence} a un buffer propio grande,
+ * sin crear Strings ni arrays por línea, y solo vacía al socket cuando el buffer se llena
+ * o al terminar (nada de autoflush por línea).
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class ListingSink {
+    /** Tamaño por defecto del buffer de salida */
+    public static final int DEFAULT_BUFFER = 64 * 1024;
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos = 0;
+    private long bytesWritten = 0;
+
+    public ListingSink(OutputStream out) {
+        this(out, DEFAULT_BUFFER);
+    }
+
+    public ListingSink(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Escribe la línea seguida de CRLF.
+     *
+     * @param line Contenido de la línea (sin terminador)
+     * @throws IOException Si falla la escritura
+     */
+    public void writeLine(CharSequence line) throws IOException {
+        int len = line.length();
+        for (int i = 0; i < len; i++) {
+            char c = line.charAt(i);
+            if (buf.length - pos < 4) flushBuffer();
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(line.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, line.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = (byte) '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        if (buf.length - pos < 2) flushBuffer();
+        buf[pos++] = '\r';
+        buf[pos++] = '\n';
+    }
+
+    /**
+     * Escribe bytes ya codificados (p. ej. un bloque pre-renderizado).
+     *
+     * @param b Datos
+     * @param off Desplazamiento
+     * @param len Longitud
+     * @throws IOException Si falla la escritura
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buf.length - pos) {
+            flushBuffer();
+            if (len >= buf.length) {
+                out.write(b, off, len);
+                bytesWritten += len;
+                return;
+            }
+        }
+        System.arraycopy(b, off, buf, pos, len);
+        pos += len;
+    }
+
+    /** Bytes entregados al stream subyacente hasta ahora (sin contar lo que queda en el buffer). */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Bytes aceptados hasta ahora, incluidos los que siguen en el buffer. */
+    public long position() {
+        return bytesWritten + pos;
+    }
+
+    /**
+     * Vacía el buffer y el stream subyacente.
+     *
+     * @throws IOException Si falla la escritura
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            bytesWritten += pos;
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Backend de disco local basado en NIO ({@link Files}, canales y {@link DirectoryStream}).
+ * <p>
+ * La contención en la raíz y la política de enlaces simbólicos las aplica el {@link PathResolver}
+ * compartido: cada {@link LocalFile} envuelve una ruta real ya validada.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class LocalFileSystem implements FtpFileSystem {
+
+    /** Bytes por llamada a transferTo en las copias (granularidad del progreso y de la cancelación) */
+    private static final long COPY_SLICE = 64L * 1024 * 1024;
+
+    private final PathResolver resolver;
+    private final LocalFile root;
+
+    /**
+     * @param resolver Resolución de rutas con la raíz ya canonicalizada
+     */
+    public LocalFileSystem(PathResolver resolver) {
+        this.resolver = resolver;
+        this.root = new LocalFile(resolver.getRoot());
+    }
+
+    @Override
+    public FtpFile getRoot() {
+        return root;
+    }
+
+    @Override
+    public FtpFile resolve(FtpFile base, String path) {
+        Path dir = base instanceof LocalFile ? ((LocalFile) base).path : resolver.getRoot();
+        Path resolved = resolver.resolve(dir.toString(), path);
+        return resolved != null ? new LocalFile(resolved) : null;
+    }
+
+    @Override
+    public void changed(FtpFile changed, boolean tree) {
+        if (tree && changed instanceof LocalFile) {
+            resolver.invalidate(((LocalFile) changed).path);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "almacenamiento: disco (" + resolver.getRoot() + "); " + resolver.describe();
+    }
+
+    /**
+     * Ruta en disco de una entrada de este backend (p. ej. para registrar un WatchService).
+     *
+     * @param file Entrada
+     * @return Ruta real, o null si la entrada no es de disco local
+     */
+    public static Path toPath(FtpFile file) {
+        return file instanceof LocalFile ? ((LocalFile) file).path : null;
+    }
+
+    /** Entrada del disco local; {@code path} es real y está bajo la raíz. */
+    private final class LocalFile implements FtpFile {
+        private final Path path;
+
+        LocalFile(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public String getName() {
+            Path name = path.equals(resolver.getRoot()) ? null : path.getFileName();
+            return name != null ? name.toString() : "";
+        }
+
+        @Override
+        public String getVirtualPath() {
+            return resolver.toVirtual(path);
+        }
+
+        @Override
+        public FtpFile getParent() {
+            if (path.equals(resolver.getRoot())) return null;
+            Path parent = path.getParent();
+            return resolver.isInside(parent) ? new LocalFile(parent) : null;
+        }
+
+        @Override
+        public FtpFileSystem getFileSystem() {
+            return LocalFileSystem.this;
+        }
+
+        @Override
+        public String getCacheKey() {
+            return path.toString();
+        }
+
+        @Override
+        public BasicFileAttributes stat() throws IOException {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        }
+
+        @Override
+        public boolean exists() {
+            return Files.exists(path);
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return Files.isDirectory(path);
+        }
+
+        @Override
+        public boolean isFile() {
+            return Files.isRegularFile(path);
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return Files.isSymbolicLink(path);
+        }
+
+        @Override
+        public DirectoryStream<FtpFile> list() throws IOException {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(path);
+            return new DirectoryStream<FtpFile>() {
+                @Override
+                public Iterator<FtpFile> iterator() {
+                    Iterator<Path> it = stream.iterator();
+                    return new Iterator<FtpFile>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public FtpFile next() {
+                            return new LocalFile(it.next());
+                        }
+                    };
+                }
+
+                @Override
+                public void close() throws IOException {
+                    stream.close();
+                }
+            };
+        }
+
+        @Override
+        public SeekableByteChannel openRead() throws IOException {
+            if (Files.isDirectory(path)) throw new IOException("Is a directory: " + getVirtualPath());
+            return Files.newByteChannel(path, StandardOpenOption.READ);
+        }
+
+        @Override
+        public WritableByteChannel openWrite(boolean append) throws IOException {
+            return Files.newByteChannel(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        @Override
+        public void rename(FtpFile target) throws IOException {
+            if (!(target instanceof LocalFile)) throw new IOException("Cross-filesystem rename not supported");
+            Path to = ((LocalFile) target).path;
+            if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) && Files.isRegularFile(to, LinkOption.NOFOLLOW_LINKS)) {
+                Files.move(path, to, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.move(path, to);
+            }
+        }
+
+        /**
+         * Copia con {@link FileChannel#transferTo} por tramos: entre ficheros el JDK usa sendfile o mmap, sin
+         * pasar los datos por el heap (no hace reflinks). Por tramos para informar del progreso y atender
+         * la cancelación; el destino se crea con CREATE_NEW.
+         */
+        @Override
+        public void copyTo(FtpFile target, LongConsumer progress) throws IOException {
+            if (!(target instanceof LocalFile)) {
+                FtpFile.super.copyTo(target, progress);
+                return;
+            }
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(((LocalFile) target).path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long pos = 0;
+                while (pos < size) {
+                    if (Thread.interrupted()) throw new InterruptedIOException("Copy cancelled");
+                    long n = in.transferTo(pos, Math.min(COPY_SLICE, size - pos), out);
+                    if (n <= 0) break;
+                    pos += n;
+                    progress.accept(pos);
+                }
+            }
+        }
+
+        @Override
+        public void delete() throws IOException {
+            Files.delete(path);
+        }
+
+        @Override
+        public void mkdir() throws IOException {
+            if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                throw new FileAlreadyExistsException(getVirtualPath());
+            }
+            Files.createDirectories(path);
+        }
+
+        @Override
+        public void setLastModified(long millis) throws IOException {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(millis));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LocalFile && ((LocalFile) o).path.equals(path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return path.toString();
+        }
+    }
+}
@@ -1,25 +1,108 @@
 package FTP.Server;
 
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Limita intentos de login fallidos por IP para mitigar fuerza bruta.
  * Mantiene una ventana temporal de intentos; si se supera el límite, la IP queda bloqueada durante un tiempo.
+ * <p>
+ * Cada IP tiene un contador de tamaño fijo: la ventana se divide en {@value #BUCKETS} cubetas que se
+ * reutilizan en círculo, así registrar un fallo o comprobar un bloqueo cuesta lo mismo con 5 fallos que
+ * con 5000 y no copia ni recorre listas. Los fallos caducan por cubetas, entre 7/8 de la ventana y la
+ * ventana completa. El mapa está acotado ({@code ftp.auth.throttle.max.entries}): lleno, una IP nueva
+ * desaloja la más antigua de una muestra pequeña. Un hilo en segundo plano retira las IPs sin fallos
+ * recientes, para que las que no vuelven no se acumulen.
+ * <p>
+ * Opcionalmente ({@code ftp.auth.user.max.attempts}) se cuentan también los fallos por nombre de
+ * usuario, contra ataques repartidos entre muchas IPs sobre una misma cuenta. Ese bloqueo afecta
+ * también al usuario legítimo mientras dura, por eso va desactivado por defecto.
  *
  * @author Eduardo Díaz Sánchez
  * @version 1.0
  */
 public class LoginThrottle {
+
+    /** Cubetas por ventana */
+    private static final int BUCKETS = 8;
+    /** Entradas que se examinan para elegir a quién desalojar con el mapa lleno */
+    private static final int EVICTION_SAMPLE = 16;
+    /**
+     * Memoria aproximada por entrada en una JVM de 64 bits con oops comprimidos: contador con sus dos
+     * arrays (~130 B), nodo del mapa (32 B) y clave (~70 B para una IPv4).
+     */
+    private static final int ENTRY_BYTES = 232;
+
+    /** Fallos recientes de una IP o usuario, en cubetas circulares. */
+    private static final class Window {
+        /** Fallos de cada cubeta */
+        final int[] counts = new int[BUCKETS];
+        /** Número de cubeta (tiempo / ancho) al que corresponde cada posición */
+        final int[] slots = new int[BUCKETS];
+        volatile long lastFailure;
+
+        synchronized void add(int slot, long now) {
+            int i = slot % BUCKETS;
+            if (slots[i] != slot) {
+                slots[i] = slot;
+                counts[i] = 0;
+            }
+            counts[i]++;
+            lastFailure = now;
+        }
+
+        synchronized int count(int slot) {
+            int n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (slot - slots[i] < BUCKETS) n += counts[i];
+            }
+            return n;
+        }
+    }
+
     private final int maxAttempts;
+    private final int userMaxAttempts;
     private final long lockoutMillis;
-    private final Map<String, List<Long>> failuresByIp = new ConcurrentHashMap<>();
+    private final long bucketMillis;
+    private final int maxEntries;
+    private final Map<String, Window> failuresByIp = new ConcurrentHashMap<>();
+    private final Map<String, Window> failuresByUser = new ConcurrentHashMap<>();
+    private ScheduledExecutorService sweeper;
+
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong swept = new AtomicLong();
 
     public LoginThrottle(int maxAttempts, int lockoutMinutes) {
+        this(maxAttempts, lockoutMinutes, 0, 100_000);
+    }
+
+    /**
+     * @param maxAttempts Fallos por IP dentro de la ventana que provocan el bloqueo
+     * @param lockoutMinutes Ventana y duración del bloqueo en minutos (0 = desactivado)
+     * @param userMaxAttempts Fallos por usuario que bloquean la cuenta (0 = sin límite por usuario)
+     * @param maxEntries IPs (y usuarios) máximos en memoria
+     */
+    public LoginThrottle(int maxAttempts, int lockoutMinutes, int userMaxAttempts, int maxEntries) {
         this.maxAttempts = maxAttempts;
+        this.userMaxAttempts = userMaxAttempts;
         this.lockoutMillis = lockoutMinutes <= 0 ? 0 : lockoutMinutes * 60L * 1000L;
+        this.bucketMillis = Math.max(1, lockoutMillis / BUCKETS);
+        this.maxEntries = Math.max(1, maxEntries);
+        if (isEnabled()) {
+            long period = Math.max(1000, Math.min(60_000, bucketMillis));
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ftp-throttle-sweep");
+                t.setDaemon(true);
+                return t;
+            });
+            sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -29,16 +112,23 @@ public class LoginThrottle {
      * @return true si debe rechazarse el intento de login (bloqueado)
      */
     public boolean isBlocked(String ip) {
-        if (lockoutMillis <= 0 || maxAttempts <= 0) return false;
-        List<Long> times = failuresByIp.get(ip);
-        if (times == null) return false;
-        long now = System.currentTimeMillis();
-        times.removeIf(t -> now - t > lockoutMillis);
-        if (times.isEmpty()) {
-            failuresByIp.remove(ip);
-            return false;
-        }
-        return times.size() >= maxAttempts;
+        return isBlocked(ip, null);
+    }
+
+    /**
+     * Indica si la IP, o el usuario si hay límite por usuario, está bloqueado.
+     *
+     * @param ip Dirección IP del cliente
+     * @param username Usuario del intento (puede ser null)
+     * @return true si debe rechazarse el intento de login (bloqueado)
+     */
+    public boolean isBlocked(String ip, String username) {
+        if (!isEnabled()) return false;
+        int slot = slot(System.currentTimeMillis());
+        boolean result = over(failuresByIp.get(ip), slot, maxAttempts)
+            || (userMaxAttempts > 0 && username != null && over(failuresByUser.get(username), slot, userMaxAttempts));
+        if (result) blocked.incrementAndGet();
+        return result;
     }
 
     /**
@@ -47,8 +137,21 @@ public class LoginThrottle {
      * @param ip Dirección IP del cliente
      */
     public void recordFailure(String ip) {
-        if (lockoutMillis <= 0 || maxAttempts <= 0) return;
-        failuresByIp.computeIfAbsent(ip, k -> new CopyOnWriteArrayList<>()).add(System.currentTimeMillis());
+        recordFailure(ip, null);
+    }
+
+    /**
+     * Registra un intento de login fallido para la IP y, si hay límite por usuario, para el usuario.
+     *
+     * @param ip Dirección IP del cliente
+     * @param username Usuario del intento (puede ser null)
+     */
+    public void recordFailure(String ip, String username) {
+        if (!isEnabled()) return;
+        long now = System.currentTimeMillis();
+        int slot = slot(now);
+        window(failuresByIp, ip).add(slot, now);
+        if (userMaxAttempts > 0 && username != null) window(failuresByUser, username).add(slot, now);
     }
 
     /**
@@ -59,4 +162,83 @@ public class LoginThrottle {
     public void clear(String ip) {
         failuresByIp.remove(ip);
     }
+
+    /**
+     * Limpia el historial de fallos de la IP y del usuario tras un login correcto.
+     *
+     * @param ip Dirección IP del cliente
+     * @param username Usuario autenticado
+     */
+    public void clear(String ip, String username) {
+        failuresByIp.remove(ip);
+        if (username != null) failuresByUser.remove(username);
+    }
+
+    /** Resumen para SITE STATS. */
+    public String describe() {
+        if (!isEnabled()) return "login: sin límite de intentos";
+        int ips = failuresByIp.size();
+        int users = failuresByUser.size();
+        return "login: bloqueo tras " + maxAttempts + " fallos/IP"
+            + (userMaxAttempts > 0 ? " o " + userMaxAttempts + " fallos/usuario" : "") + " en " + lockoutMillis / 60_000
+            + " min; IPs=" + ips + "/" + maxEntries + ", usuarios=" + users + ", rechazos=" + blocked.get()
+            + ", desalojados=" + evicted.get() + ", caducados=" + swept.get() + ", memoria≈"
+            + ((long) (ips + users) * ENTRY_BYTES / 1024) + " KiB";
+    }
+
+    /** Detiene el barrido en segundo plano. */
+    public synchronized void shutdown() {
+        if (sweeper != null) sweeper.shutdownNow();
+        sweeper = null;
+    }
+
+    private boolean isEnabled() {
+        return lockoutMillis > 0 && maxAttempts > 0;
+    }
+
+    private int slot(long now) {
+        return (int) (now / bucketMillis);
+    }
+
+    private static boolean over(Window w, int slot, int limit) {
+        return w != null && w.count(slot) >= limit;
+    }
+
+    private Window window(Map<String, Window> map, String key) {
+        Window w = map.get(key);
+        if (w != null) return w;
+        // El tamaño puede pasarse un poco con inserciones simultáneas; el barrido lo corrige
+        if (map.size() >= maxEntries) evictOldest(map);
+        return map.computeIfAbsent(key, k -> new Window());
+    }
+
+    /** Desaloja la entrada con el fallo más antiguo entre unas pocas, sin recorrer el mapa. */
+    private void evictOldest(Map<String, Window> map) {
+        String oldestKey = null;
+        Window oldest = null;
+        Iterator<Map.Entry<String, Window>> it = map.entrySet().iterator();
+        for (int i = 0; i < EVICTION_SAMPLE && it.hasNext(); i++) {
+            Map.Entry<String, Window> e = it.next();
+            if (oldest == null || e.getValue().lastFailure < oldest.lastFailure) {
+                oldestKey = e.getKey();
+                oldest = e.getValue();
+            }
+        }
+        if (oldest != null && map.remove(oldestKey, oldest)) evicted.incrementAndGet();
+    }
+
+    private void sweep() {
+        long cutoff = System.currentTimeMillis() - lockoutMillis;
+        sweep(failuresByIp, cutoff);
+        sweep(failuresByUser, cutoff);
+    }
+
+    private void sweep(Map<String, Window> map, long cutoff) {
+        for (Iterator<Window> it = map.values().iterator(); it.hasNext(); ) {
+            if (it.next().lastFailure < cutoff) {
+                it.remove();
+                swept.incrementAndGet();
+            }
+        }
+    }
 }
@@ -0,0 +1,637 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Backend en memoria ({@code ftp.storage=memory}) para benchmarks y pruebas de carga: mide el coste
+ * del protocolo y la concurrencia sin pasar por el disco.
+ * <p>
+ * El árbol de nodos está protegido por un lock de lectura/escritura del espacio de nombres
+ * (búsquedas y listados en lectura; crear, renombrar y borrar en escritura, de forma atómica).
+ * El contenido de cada fichero va en bloques fuera del heap ({@link ByteBuffer#allocateDirect(int)})
+ * con su propio lock por nodo, así lecturas y escrituras de ficheros distintos no compiten.
+ * Como en POSIX, un canal abierto sigue leyendo o escribiendo el nodo aunque se borre o renombre.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class MemoryFileSystem implements FtpFileSystem {
+
+    /** Prefijo de las claves de caché, para no chocar con rutas de disco */
+    private static final String KEY_PREFIX = "mem:";
+
+    private abstract static class Node {
+        String name;
+        DirNode parent;
+        volatile long modified = System.currentTimeMillis();
+        final long created = modified;
+        final long id;
+
+        Node(String name, DirNode parent, long id) {
+            this.name = name;
+            this.parent = parent;
+            this.id = id;
+        }
+    }
+
+    private static final class DirNode extends Node {
+        final ConcurrentSkipListMap<String, Node> children = new ConcurrentSkipListMap<>();
+
+        DirNode(String name, DirNode parent, long id) {
+            super(name, parent, id);
+        }
+    }
+
+    private static final class FileNode extends Node {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        long size;
+        /** Borrado del árbol: su memoria ya no cuenta, aunque queden canales abiertos */
+        boolean unlinked;
+
+        FileNode(String name, DirNode parent, long id) {
+            super(name, parent, id);
+        }
+    }
+
+    /** Atributos inmutables tomados de un nodo en un instante. */
+    private static final class Attrs implements BasicFileAttributes {
+        private final boolean dir;
+        private final long size;
+        private final long modified;
+        private final long created;
+        private final long id;
+
+        Attrs(Node node) {
+            this.dir = node instanceof DirNode;
+            this.modified = node.modified;
+            this.created = node.created;
+            this.id = node.id;
+            if (node instanceof FileNode) {
+                FileNode f = (FileNode) node;
+                f.lock.readLock().lock();
+                try {
+                    this.size = f.size;
+                } finally {
+                    f.lock.readLock().unlock();
+                }
+            } else {
+                this.size = 0;
+            }
+        }
+
+        @Override public FileTime lastModifiedTime() { return FileTime.fromMillis(modified); }
+        @Override public FileTime lastAccessTime() { return FileTime.fromMillis(modified); }
+        @Override public FileTime creationTime() { return FileTime.fromMillis(created); }
+        @Override public boolean isRegularFile() { return !dir; }
+        @Override public boolean isDirectory() { return dir; }
+        @Override public boolean isSymbolicLink() { return false; }
+        @Override public boolean isOther() { return false; }
+        @Override public long size() { return size; }
+        @Override public Object fileKey() { return id; }
+    }
+
+    private final ReentrantReadWriteLock treeLock = new ReentrantReadWriteLock();
+    private final DirNode rootNode = new DirNode("", null, 0);
+    private final MemFile root = new MemFile(Collections.<String>emptyList());
+    private final int chunkSize;
+    private final long maxBytes;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong nodes = new AtomicLong(1);
+
+    /**
+     * @param chunkSize Tamaño de cada bloque de contenido fuera del heap
+     * @param maxBytes Memoria máxima para contenido (0 = sin límite)
+     */
+    public MemoryFileSystem(int chunkSize, long maxBytes) {
+        this.chunkSize = Math.max(1024, chunkSize);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Copia un árbol del disco al backend (p. ej. la raíz configurada, para arrancar con datos de prueba).
+     *
+     * @param source Directorio de origen
+     * @throws IOException Si falla la lectura o se supera el límite de memoria
+     */
+    public void seedFrom(Path source) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(source)) resolve(root, toVirtual(source.relativize(dir))).mkdir();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                FtpFile target = resolve(root, toVirtual(source.relativize(file)));
+                try (InputStream in = Files.newInputStream(file); WritableByteChannel out = target.openWrite(false)) {
+                    byte[] buf = new byte[chunkSize];
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                        while (bb.hasRemaining()) out.write(bb);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String toVirtual(Path relative) {
+        return "/" + relative.toString().replace('\\', '/');
+    }
+
+    @Override
+    public FtpFile getRoot() {
+        return root;
+    }
+
+    @Override
+    public FtpFile resolve(FtpFile base, String path) {
+        if (path == null || path.indexOf('\0') >= 0) return null;
+        String p = path.replace('\\', '/');
+        List<String> parts = new ArrayList<>();
+        if (!p.startsWith("/") && base instanceof MemFile) parts.addAll(((MemFile) base).parts);
+        for (String part : p.split("/")) {
+            if (part.isEmpty() || part.equals(".")) continue;
+            if (part.equals("..")) {
+                if (parts.isEmpty()) return null; // sale de la raíz
+                parts.remove(parts.size() - 1);
+            } else {
+                parts.add(part);
+            }
+        }
+        return new MemFile(parts);
+    }
+
+    @Override
+    public void changed(FtpFile changed, boolean tree) {
+        // Sin cachés internas: el árbol es la única fuente de verdad
+    }
+
+    @Override
+    public String describe() {
+        return String.format("almacenamiento: memoria, %d nodos, %d bytes fuera del heap%s, bloques de %d bytes",
+            nodes.get(), allocatedBytes.get(), maxBytes > 0 ? " (máx. " + maxBytes + ")" : "", chunkSize);
+    }
+
+    /** Busca el nodo de una ruta; requiere el lock del árbol. */
+    private Node lookup(List<String> parts) {
+        Node n = rootNode;
+        for (String part : parts) {
+            if (!(n instanceof DirNode)) return null;
+            n = ((DirNode) n).children.get(part);
+            if (n == null) return null;
+        }
+        return n;
+    }
+
+    private Node lookupShared(List<String> parts) {
+        treeLock.readLock().lock();
+        try {
+            return lookup(parts);
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    /** Directorio padre existente de una ruta; requiere el lock del árbol. */
+    private DirNode parentDir(List<String> parts, String virtualPath) throws IOException {
+        Node parent = lookup(parts.subList(0, parts.size() - 1));
+        if (parent == null) throw new NoSuchFileException(virtualPath);
+        if (!(parent instanceof DirNode)) throw new NotDirectoryException(virtualPath);
+        return (DirNode) parent;
+    }
+
+    /** Asegura capacidad para {@code newSize} bytes; requiere el lock de escritura del nodo. */
+    private void ensureCapacity(FileNode f, long newSize) throws IOException {
+        long capacity = (long) f.chunks.size() * chunkSize;
+        while (capacity < newSize) {
+            if (f.unlinked) {
+                // Borrado mientras se escribe: ya no cuenta, pero tampoco crece por encima del límite
+                if (maxBytes > 0 && allocatedBytes.get() + chunkSize > maxBytes) {
+                    throw new IOException("No space left in memory storage");
+                }
+                f.chunks.add(ByteBuffer.allocateDirect(chunkSize));
+            } else {
+                reserve(chunkSize);
+                try {
+                    f.chunks.add(ByteBuffer.allocateDirect(chunkSize));
+                } catch (OutOfMemoryError e) {
+                    allocatedBytes.addAndGet(-chunkSize);
+                    throw e;
+                }
+            }
+            capacity += chunkSize;
+        }
+    }
+
+    /**
+     * Reserva memoria de contenido sin pasar de {@code maxBytes}, también con varias escrituras a la vez
+     * (comprobar y sumar por separado dejaba que dos STOR superasen el límite).
+     */
+    private void reserve(long n) throws IOException {
+        if (maxBytes <= 0) {
+            allocatedBytes.addAndGet(n);
+            return;
+        }
+        long current;
+        do {
+            current = allocatedBytes.get();
+            if (current + n > maxBytes) throw new IOException("No space left in memory storage");
+        } while (!allocatedBytes.compareAndSet(current, current + n));
+    }
+
+    /** Libera el contenido de un fichero; requiere el lock de escritura del nodo. */
+    private void truncate(FileNode f) {
+        if (!f.unlinked) allocatedBytes.addAndGet(-(long) f.chunks.size() * chunkSize);
+        f.chunks.clear();
+        f.size = 0;
+    }
+
+    /**
+     * Descuenta un fichero que ha salido del árbol (DELE o sustituido por RNTO). Los canales abiertos
+     * conservan sus bloques hasta que el GC libere los buffers directos.
+     */
+    private void unlink(FileNode f) {
+        f.lock.writeLock().lock();
+        try {
+            f.unlinked = true;
+            allocatedBytes.addAndGet(-(long) f.chunks.size() * chunkSize);
+        } finally {
+            f.lock.writeLock().unlock();
+        }
+    }
+
+    /** Ruta del backend en memoria: se resuelve en cada operación, como una ruta de disco. */
+    private final class MemFile implements FtpFile {
+        private final List<String> parts;
+
+        MemFile(List<String> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public String getName() {
+            return parts.isEmpty() ? "" : parts.get(parts.size() - 1);
+        }
+
+        @Override
+        public String getVirtualPath() {
+            return parts.isEmpty() ? "/" : "/" + String.join("/", parts);
+        }
+
+        @Override
+        public FtpFile getParent() {
+            return parts.isEmpty() ? null : new MemFile(parts.subList(0, parts.size() - 1));
+        }
+
+        @Override
+        public FtpFileSystem getFileSystem() {
+            return MemoryFileSystem.this;
+        }
+
+        @Override
+        public String getCacheKey() {
+            return KEY_PREFIX + getVirtualPath();
+        }
+
+        @Override
+        public BasicFileAttributes stat() throws IOException {
+            Node n = lookupShared(parts);
+            if (n == null) throw new NoSuchFileException(getVirtualPath());
+            return new Attrs(n);
+        }
+
+        @Override
+        public boolean exists() {
+            return lookupShared(parts) != null;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return lookupShared(parts) instanceof DirNode;
+        }
+
+        @Override
+        public boolean isFile() {
+            return lookupShared(parts) instanceof FileNode;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public DirectoryStream<FtpFile> list() throws IOException {
+            Node n = lookupShared(parts);
+            if (n == null) throw new NoSuchFileException(getVirtualPath());
+            if (!(n instanceof DirNode)) throw new NotDirectoryException(getVirtualPath());
+            // Vista débilmente consistente: no bloquea a los escritores mientras se envía el listado
+            Iterator<String> names = ((DirNode) n).children.keySet().iterator();
+            return new DirectoryStream<FtpFile>() {
+                @Override
+                public Iterator<FtpFile> iterator() {
+                    return new Iterator<FtpFile>() {
+                        @Override
+                        public boolean hasNext() {
+                            return names.hasNext();
+                        }
+
+                        @Override
+                        public FtpFile next() {
+                            List<String> child = new ArrayList<>(parts.size() + 1);
+                            child.addAll(parts);
+                            child.add(names.next());
+                            return new MemFile(child);
+                        }
+                    };
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public SeekableByteChannel openRead() throws IOException {
+            Node n = lookupShared(parts);
+            if (n == null) throw new NoSuchFileException(getVirtualPath());
+            if (!(n instanceof FileNode)) throw new IOException("Is a directory: " + getVirtualPath());
+            return new MemChannel((FileNode) n, false, 0);
+        }
+
+        @Override
+        public WritableByteChannel openWrite(boolean append) throws IOException {
+            if (parts.isEmpty()) throw new IOException("Is a directory: /");
+            FileNode f;
+            treeLock.writeLock().lock();
+            try {
+                DirNode parent = parentDir(parts, getVirtualPath());
+                Node n = parent.children.get(getName());
+                if (n instanceof DirNode) throw new IOException("Is a directory: " + getVirtualPath());
+                if (n == null) {
+                    n = new FileNode(getName(), parent, nextId.getAndIncrement());
+                    parent.children.put(getName(), n);
+                    parent.modified = System.currentTimeMillis();
+                    nodes.incrementAndGet();
+                }
+                f = (FileNode) n;
+            } finally {
+                treeLock.writeLock().unlock();
+            }
+            long position = 0;
+            f.lock.writeLock().lock();
+            try {
+                if (append) {
+                    position = f.size;
+                } else {
+                    truncate(f);
+                    f.modified = System.currentTimeMillis();
+                }
+            } finally {
+                f.lock.writeLock().unlock();
+            }
+            return new MemChannel(f, true, position);
+        }
+
+        @Override
+        public void rename(FtpFile target) throws IOException {
+            if (!(target instanceof MemFile)) throw new IOException("Cross-filesystem rename not supported");
+            List<String> to = ((MemFile) target).parts;
+            if (parts.isEmpty() || to.isEmpty()) throw new IOException("Cannot rename the root directory");
+            FileNode replaced = null;
+            treeLock.writeLock().lock();
+            try {
+                Node n = lookup(parts);
+                if (n == null) throw new NoSuchFileException(getVirtualPath());
+                if (n instanceof DirNode && to.size() > parts.size() && to.subList(0, parts.size()).equals(parts)) {
+                    throw new IOException("Cannot move a directory into itself: " + target.getVirtualPath());
+                }
+                DirNode newParent = parentDir(to, target.getVirtualPath());
+                String newName = to.get(to.size() - 1);
+                Node existing = newParent.children.get(newName);
+                if (existing == n) return;
+                if (existing != null) {
+                    // Un fichero sustituye a otro fichero (rename(2)); el resto de destinos existentes es un error
+                    if (!(n instanceof FileNode && existing instanceof FileNode)) {
+                        throw new FileAlreadyExistsException(target.getVirtualPath());
+                    }
+                    newParent.children.remove(newName);
+                    nodes.decrementAndGet();
+                    replaced = (FileNode) existing;
+                }
+                n.parent.children.remove(n.name);
+                n.parent.modified = System.currentTimeMillis();
+                n.name = newName;
+                n.parent = newParent;
+                newParent.children.put(newName, n);
+                newParent.modified = System.currentTimeMillis();
+            } finally {
+                treeLock.writeLock().unlock();
+            }
+            if (replaced != null) unlink(replaced);
+        }
+
+        @Override
+        public void delete() throws IOException {
+            if (parts.isEmpty()) throw new IOException("Cannot delete the root directory");
+            Node n;
+            treeLock.writeLock().lock();
+            try {
+                n = lookup(parts);
+                if (n == null) throw new NoSuchFileException(getVirtualPath());
+                if (n instanceof DirNode && !((DirNode) n).children.isEmpty()) {
+                    throw new DirectoryNotEmptyException(getVirtualPath());
+                }
+                n.parent.children.remove(n.name);
+                n.parent.modified = System.currentTimeMillis();
+                nodes.decrementAndGet();
+            } finally {
+                treeLock.writeLock().unlock();
+            }
+            if (n instanceof FileNode) unlink((FileNode) n);
+        }
+
+        @Override
+        public void mkdir() throws IOException {
+            if (parts.isEmpty()) throw new FileAlreadyExistsException("/");
+            treeLock.writeLock().lock();
+            try {
+                if (lookup(parts) != null) throw new FileAlreadyExistsException(getVirtualPath());
+                DirNode dir = rootNode;
+                for (String part : parts) {
+                    Node n = dir.children.get(part);
+                    if (n == null) {
+                        n = new DirNode(part, dir, nextId.getAndIncrement());
+                        dir.children.put(part, n);
+                        dir.modified = System.currentTimeMillis();
+                        nodes.incrementAndGet();
+                    } else if (!(n instanceof DirNode)) {
+                        throw new NotDirectoryException(getVirtualPath());
+                    }
+                    dir = (DirNode) n;
+                }
+            } finally {
+                treeLock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public void setLastModified(long millis) throws IOException {
+            Node n = lookupShared(parts);
+            if (n == null) throw new NoSuchFileException(getVirtualPath());
+            n.modified = millis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MemFile && ((MemFile) o).parts.equals(parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return parts.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getCacheKey();
+        }
+    }
+
+    /** Canal sobre el contenido de un nodo; cada operación toma el lock del nodo. */
+    private final class MemChannel implements SeekableByteChannel {
+        private final FileNode file;
+        private final boolean writable;
+        private long position;
+        private boolean open = true;
+
+        MemChannel(FileNode file, boolean writable, long position) {
+            this.file = file;
+            this.writable = writable;
+            this.position = position;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            file.lock.readLock().lock();
+            try {
+                if (position >= file.size) return -1;
+                int total = 0;
+                while (dst.hasRemaining() && position < file.size) {
+                    ByteBuffer chunk = file.chunks.get((int) (position / chunkSize)).duplicate();
+                    int offset = (int) (position % chunkSize);
+                    int n = (int) Math.min(Math.min(chunkSize - offset, file.size - position), dst.remaining());
+                    chunk.limit(offset + n).position(offset);
+                    dst.put(chunk);
+                    position += n;
+                    total += n;
+                }
+                return total;
+            } finally {
+                file.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            if (!writable) throw new NonWritableChannelException();
+            file.lock.writeLock().lock();
+            try {
+                int total = src.remaining();
+                ensureCapacity(file, position + total);
+                while (src.hasRemaining()) {
+                    ByteBuffer chunk = file.chunks.get((int) (position / chunkSize)).duplicate();
+                    int offset = (int) (position % chunkSize);
+                    int n = Math.min(chunkSize - offset, src.remaining());
+                    chunk.position(offset);
+                    ByteBuffer part = src.duplicate();
+                    part.limit(part.position() + n);
+                    chunk.put(part);
+                    src.position(src.position() + n);
+                    position += n;
+                }
+                if (position > file.size) file.size = position;
+                file.modified = System.currentTimeMillis();
+                return total;
+            } finally {
+                file.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            this.position = Math.max(0, newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() {
+            file.lock.readLock().lock();
+            try {
+                return file.size;
+            } finally {
+                file.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            if (!writable) throw new NonWritableChannelException();
+            file.lock.writeLock().lock();
+            try {
+                if (size < file.size) file.size = size;
+                if (position > size) position = size;
+            } finally {
+                file.lock.writeLock().unlock();
+            }
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -22,6 +22,8 @@ import java.util.Properties;
  *   java ... FTP.Server.MigrateUsersToDb [ruta-users.txt] [ruta-salida.db]
  * </pre>
  * Si se omite la ruta de salida, se usa ftp.users.database de server.properties.
+ * Los hashes se copian tal cual (sin la contraseña no se pueden regenerar); los que tienen un coste
+ * distinto de ftp.auth.bcrypt.cost se cuentan y el servidor los regenera en el siguiente login.
  *
  * @author Eduardo Díaz Sánchez
  * @version 1.0
@@ -70,6 +72,8 @@ public class MigrateUsersToDb {
             String sql = "INSERT OR REPLACE INTO " + TABLE + " (username, password_hash, profile, enabled, created_at) VALUES (?, ?, ?, 1, ?)";
             try (PreparedStatement ps = conn.prepareStatement(sql)) {
                 int count = 0;
+                int outdated = 0;
+                int cost = PasswordHashing.configuredCost();
                 try (FileInputStream fis = new FileInputStream(txtFile);
                      InputStreamReader isr = new InputStreamReader(fis, StandardCharsets.UTF_8);
                      BufferedReader br = new BufferedReader(isr)) {
@@ -101,9 +105,14 @@ public class MigrateUsersToDb {
                         ps.setString(4, null);
                         ps.executeUpdate();
                         count++;
+                        if (PasswordHashing.needsRehash(hash, cost)) outdated++;
                     }
                 }
                 System.out.println("Migración completada: " + count + " usuarios en " + dbPath);
+                if (outdated > 0) {
+                    System.out.println(outdated + " hashes con coste distinto de " + cost
+                        + " (ftp.auth.bcrypt.cost): se regenerarán en el próximo login de cada usuario.");
+                }
             }
         } catch (SQLException e) {
             System.err.println("ERROR SQLite: " + e.getMessage());
@@ -0,0 +1,86 @@
+package FTP.Server;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * Generación de hashes bcrypt con el coste configurado ({@code ftp.auth.bcrypt.cost}), compartida por
+ * el servidor (rehash en el login) y las herramientas (AdminGUI, PasswordTool, MigrateUsersToDb).
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public final class PasswordHashing {
+
+    /** Coste por defecto (el de {@link BCrypt#gensalt()}) */
+    public static final int DEFAULT_COST = 10;
+    /** Límites que admite jBCrypt */
+    public static final int MIN_COST = 4;
+    public static final int MAX_COST = 30;
+
+    private PasswordHashing() {
+    }
+
+    /**
+     * Genera el hash bcrypt de una contraseña.
+     *
+     * @param password Contraseña en claro
+     * @param cost Factor de trabajo (log2 de las rondas)
+     * @return Hash bcrypt
+     */
+    public static String hash(String password, int cost) {
+        return BCrypt.hashpw(password, BCrypt.gensalt(clamp(cost)));
+    }
+
+    /**
+     * Coste con el que se generó un hash ("$2a$NN$...").
+     *
+     * @param hash Hash bcrypt
+     * @return Coste, o -1 si el hash no tiene el formato esperado
+     */
+    public static int costOf(String hash) {
+        if (hash == null || hash.length() < 7 || hash.charAt(0) != '$') return -1;
+        int sep = hash.indexOf('$', 1);
+        if (sep < 0 || hash.length() < sep + 4 || hash.charAt(sep + 3) != '$') return -1;
+        try {
+            return Integer.parseInt(hash.substring(sep + 1, sep + 3));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Si un hash válido se generó con un coste distinto del configurado.
+     *
+     * @param hash Hash bcrypt guardado
+     * @param cost Coste configurado
+     * @return true si conviene regenerarlo
+     */
+    public static boolean needsRehash(String hash, int cost) {
+        int current = costOf(hash);
+        return current > 0 && current != clamp(cost);
+    }
+
+    /**
+     * Coste configurado en server.properties (directorio actual), para las herramientas que no
+     * arrancan el servidor.
+     *
+     * @return Coste, o {@link #DEFAULT_COST} si no hay configuración
+     */
+    public static int configuredCost() {
+        Properties p = new Properties();
+        try (FileInputStream fis = new FileInputStream("server.properties")) {
+            p.load(fis);
+            return clamp(Integer.parseInt(p.getProperty("ftp.auth.bcrypt.cost", String.valueOf(DEFAULT_COST)).trim()));
+        } catch (IOException | NumberFormatException e) {
+            return DEFAULT_COST;
+        }
+    }
+
+    static int clamp(int cost) {
+        return Math.max(MIN_COST, Math.min(MAX_COST, cost));
+    }
+}
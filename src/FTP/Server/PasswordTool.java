@@ -8,16 +8,20 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Herramienta de línea de comandos para gestionar usuarios del servidor FTP.
- * Genera contraseñas hasheadas con bcrypt y permite añadir líneas al fichero de usuarios.
+ * Genera contraseñas hasheadas con bcrypt (coste ftp.auth.bcrypt.cost de server.properties) y permite
+ * añadir líneas al fichero de usuarios. {@code calibrate} mide en esta máquina cuánto tarda verificar
+ * con cada coste y recomienda el mayor cuyo p99 cabe en el objetivo de latencia de login.
  * <p>
  * Uso:
  * <pre>
  *   java -cp "bin:lib/commons-net-3.11.1.jar:lib/jbcrypt-0.4.jar" FTP.Server.PasswordTool adduser &lt;username&gt; &lt;password&gt; &lt;BASICO|INTERMEDIO|ADMINISTRADOR&gt; [users.txt]
  *   java ... FTP.Server.PasswordTool hash &lt;password&gt;
+ *   java ... FTP.Server.PasswordTool calibrate [p99-objetivo-ms] [muestras]
  * </pre>
  *
  * @author Eduardo Díaz Sánchez
@@ -46,7 +50,16 @@ public class PasswordTool {
                 System.err.println("Uso: hash <password>");
                 return;
             }
-            System.out.println(BCrypt.hashpw(args[1], BCrypt.gensalt()));
+            System.out.println(PasswordHashing.hash(args[1], PasswordHashing.configuredCost()));
+        } else if ("calibrate".equals(cmd)) {
+            try {
+                long targetMs = args.length > 1 ? Long.parseLong(args[1]) : 250;
+                int samples = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+                if (targetMs <= 0 || samples <= 0) throw new NumberFormatException();
+                calibrate(targetMs, samples);
+            } catch (NumberFormatException e) {
+                System.err.println("Uso: calibrate [p99-objetivo-ms] [muestras]");
+            }
         } else {
             printUsage();
         }
@@ -60,6 +73,42 @@ public class PasswordTool {
         System.out.println();
         System.out.println("  hash <password>");
         System.out.println("    Imprime el hash bcrypt de la contraseña (para uso manual).");
+        System.out.println();
+        System.out.println("  calibrate [p99-objetivo-ms] [muestras]");
+        System.out.println("    Mide la verificación bcrypt por coste y recomienda ftp.auth.bcrypt.cost (por defecto 250 ms, 20 muestras).");
+    }
+
+    /**
+     * Mide el p99 de {@link BCrypt#checkpw} para costes crecientes hasta pasar el objetivo y recomienda
+     * el mayor que lo cumple. Mide un solo hilo sin carga: con logins concurrentes el p99 real será mayor.
+     */
+    private static void calibrate(long targetMs, int samples) {
+        int configured = PasswordHashing.configuredCost();
+        System.out.println("Calibrando bcrypt: objetivo p99 <= " + targetMs + " ms, " + samples + " muestras por coste, "
+            + Runtime.getRuntime().availableProcessors() + " núcleos (coste configurado: " + configured + ")");
+        System.out.println("coste      p50 ms      p99 ms");
+        int recommended = -1;
+        for (int cost = PasswordHashing.MIN_COST; cost <= PasswordHashing.MAX_COST; cost++) {
+            String hash = PasswordHashing.hash("calibrate", cost);
+            BCrypt.checkpw("calibrate", hash); // calentamiento
+            long[] nanos = new long[samples];
+            for (int i = 0; i < samples; i++) {
+                long start = System.nanoTime();
+                BCrypt.checkpw("calibrate", hash);
+                nanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            double p50 = nanos[(samples - 1) / 2] / 1e6;
+            double p99 = nanos[Math.min(samples - 1, (int) Math.ceil(samples * 0.99) - 1)] / 1e6;
+            System.out.println(String.format("%5d  %10.1f  %10.1f%s", cost, p50, p99, cost == configured ? "  (configurado)" : ""));
+            if (p99 > targetMs) break;
+            recommended = cost;
+        }
+        if (recommended < 0) {
+            System.out.println("Ningún coste cumple el objetivo; el mínimo es " + PasswordHashing.MIN_COST + ".");
+        } else {
+            System.out.println("Recomendado: ftp.auth.bcrypt.cost=" + recommended);
+        }
     }
 
     private static void addUser(String username, String password, String profileStr, String usersPath) {
@@ -74,7 +123,7 @@ public class PasswordTool {
             System.err.println("El nombre de usuario no puede estar vacío ni contener ':'.");
             return;
         }
-        String hash = BCrypt.hashpw(password, BCrypt.gensalt());
+        String hash = PasswordHashing.hash(password, PasswordHashing.configuredCost());
         String line = username + ":" + hash + ":" + profile.name();
 
         Path path = Paths.get(usersPath);
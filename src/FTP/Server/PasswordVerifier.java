@@ -0,0 +1,155 @@
+package FTP.Server;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * Pool dedicado y acotado para verificar contraseñas bcrypt fuera de los hilos de sesión.
+ * <p>
+ * bcrypt es caro a propósito: si cientos de clientes se reconectan a la vez, verificarlos en los
+ * hilos de sesión deja sin CPU a las sesiones ya abiertas. Aquí trabajan tantos hilos como núcleos,
+ * con una cola de tamaño fijo. Si la cola está llena, o la verificación no termina en la espera
+ * máxima, el login se rechaza como {@link Result#BUSY} (el servidor responde 421) en lugar de
+ * acumular trabajo sin límite.
+ * <p>
+ * Tras un login correcto, si el hash guardado tiene un coste distinto del configurado, el mismo pool
+ * lo regenera y lo guarda en el {@link UserStore} sin retrasar la respuesta 230. Es trabajo opcional:
+ * si la cola está llena se deja para el siguiente login.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class PasswordVerifier {
+
+    /** Resultado de una verificación */
+    public enum Result { MATCH, MISMATCH, BUSY }
+
+    private final ThreadPoolExecutor pool;
+    private final long maxWaitMillis;
+    private final int cost;
+    /** Usuarios con un rehash en curso, para no encolar dos a la vez */
+    private final Set<String> rehashing = ConcurrentHashMap.newKeySet();
+
+    private final LatencyHistogram verifyLatency = new LatencyHistogram();
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    private final AtomicLong rejectedFull = new AtomicLong();
+    private final AtomicLong rejectedTimeout = new AtomicLong();
+    private final AtomicLong rehashed = new AtomicLong();
+    private final AtomicLong rehashFailed = new AtomicLong();
+
+    /**
+     * @param threads Hilos de verificación (0 = núcleos disponibles)
+     * @param queueSize Verificaciones que pueden esperar en cola
+     * @param maxWaitMillis Espera máxima de un login (cola + verificación)
+     * @param cost Coste bcrypt configurado para los hashes
+     */
+    public PasswordVerifier(int threads, int queueSize, long maxWaitMillis, int cost) {
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)), r -> {
+                Thread t = new Thread(r, "ftp-bcrypt-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        this.maxWaitMillis = Math.max(1, maxWaitMillis);
+        this.cost = PasswordHashing.clamp(cost);
+    }
+
+    /**
+     * Comprueba una contraseña contra su hash bcrypt.
+     *
+     * @param password Contraseña en claro
+     * @param hash Hash bcrypt guardado
+     * @return MATCH, MISMATCH o BUSY si el pool está saturado
+     */
+    public Result verify(String password, String hash) {
+        long submitted = System.nanoTime();
+        Future<Boolean> f;
+        try {
+            f = pool.submit(() -> {
+                long start = System.nanoTime();
+                queueLatency.record(start - submitted);
+                try {
+                    return BCrypt.checkpw(password, hash);
+                } finally {
+                    verifyLatency.record(System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedFull.incrementAndGet();
+            return Result.BUSY;
+        }
+        try {
+            return f.get(maxWaitMillis, TimeUnit.MILLISECONDS) ? Result.MATCH : Result.MISMATCH;
+        } catch (TimeoutException e) {
+            // Si aún está en cola no llega a ejecutarse; si ya corre, termina pero se descarta
+            f.cancel(false);
+            pool.remove((Runnable) f);
+            rejectedTimeout.incrementAndGet();
+            return Result.BUSY;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            f.cancel(false);
+            pool.remove((Runnable) f);
+            return Result.BUSY;
+        } catch (ExecutionException e) {
+            // Hash mal formado (IllegalArgumentException de jBCrypt): no coincide
+            return Result.MISMATCH;
+        }
+    }
+
+    /**
+     * Regenera en segundo plano un hash con coste distinto del configurado, tras verificar la contraseña.
+     *
+     * @param store Almacén donde guardar el hash nuevo
+     * @param username Usuario
+     * @param password Contraseña ya verificada
+     * @param oldHash Hash contra el que se verificó
+     */
+    public void rehashIfOutdated(UserStore store, String username, String password, String oldHash) {
+        if (store == null || !PasswordHashing.needsRehash(oldHash, cost) || !rehashing.add(username)) return;
+        try {
+            pool.execute(() -> {
+                try {
+                    if (store.updatePasswordHash(username, oldHash, PasswordHashing.hash(password, cost))) {
+                        rehashed.incrementAndGet();
+                        FTP.Util.FileLogger.info("Hash de " + username + " regenerado con coste " + cost + " (antes "
+                            + PasswordHashing.costOf(oldHash) + ")");
+                    } else {
+                        rehashFailed.incrementAndGet();
+                    }
+                } finally {
+                    rehashing.remove(username);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rehashing.remove(username);
+        }
+    }
+
+    /** Resumen para SITE STATS. */
+    public String describe() {
+        return "bcrypt: coste " + cost + ", " + pool.getMaximumPoolSize() + " hilos, activos=" + pool.getActiveCount() + ", en cola="
+            + pool.getQueue().size() + "/" + (pool.getQueue().size() + pool.getQueue().remainingCapacity())
+            + ", rechazados=" + rejectedFull.get() + " cola llena/" + rejectedTimeout.get() + " espera > "
+            + maxWaitMillis + " ms, rehash=" + rehashed.get() + " (sin guardar " + rehashFailed.get() + "), verificación "
+            + verifyLatency.describe() + ", cola " + queueLatency.describe();
+    }
+
+    /** Detiene el pool. */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
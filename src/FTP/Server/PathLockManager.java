@@ -0,0 +1,168 @@
+package FTP.Server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks de lectura/escritura por ruta para que dos sesiones no escriban a la vez el mismo fichero ni
+ * una lo lea mientras otra lo trunca.
+ * <p>
+ * Tabla de locks por franjas: la clave de caché de la entrada se reparte por hash entre un número fijo
+ * de {@link ReentrantReadWriteLock}, así la memoria no crece con el número de rutas. Varias RETR
+ * comparten el lock de lectura; STOR, APPE, DELE y cada fichero de SITE RMTREE toman el de escritura;
+ * RNTO toma el de escritura de origen y destino en orden canónico (por índice de franja), con lo que
+ * dos renombrados cruzados no se bloquean mutuamente; una copia (SITE CPTO) toma el de lectura del
+ * origen y el de escritura del destino con el mismo orden. Si el lock no se consigue en el tiempo
+ * configurado el comando responde 450.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class PathLockManager {
+
+    /** Lock conseguido; se libera con {@link #close()} en el mismo hilo. */
+    public static final class Held implements AutoCloseable {
+        private final Lock first;
+        private final Lock second;
+
+        Held(Lock first, Lock second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void close() {
+            if (second != null) second.unlock();
+            first.unlock();
+        }
+    }
+
+    private final ReentrantReadWriteLock[] stripes;
+    private final long timeoutMillis;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong contended = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param stripes Número de franjas (se redondea a potencia de dos)
+     * @param timeoutMillis Espera máxima por un lock
+     */
+    public PathLockManager(int stripes, long timeoutMillis) {
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1) << 1);
+        this.stripes = new ReentrantReadWriteLock[n];
+        for (int i = 0; i < n; i++) this.stripes[i] = new ReentrantReadWriteLock();
+        this.timeoutMillis = Math.max(0, timeoutMillis);
+    }
+
+    /**
+     * Lock compartido para leer un fichero (RETR).
+     *
+     * @param file Fichero
+     * @return Lock conseguido, o null si se agotó la espera
+     */
+    public Held read(FtpFile file) {
+        Lock l = stripes[indexOf(file)].readLock();
+        return tryLock(l) ? new Held(l, null) : null;
+    }
+
+    /**
+     * Lock exclusivo para escribir o borrar un fichero (STOR, APPE, DELE).
+     *
+     * @param file Fichero
+     * @return Lock conseguido, o null si se agotó la espera
+     */
+    public Held write(FtpFile file) {
+        Lock l = stripes[indexOf(file)].writeLock();
+        return tryLock(l) ? new Held(l, null) : null;
+    }
+
+    /**
+     * Locks exclusivos de dos rutas (RNTO), tomados en orden canónico.
+     *
+     * @param a Una ruta
+     * @param b La otra
+     * @return Locks conseguidos, o null si se agotó la espera (sin dejar ninguno tomado)
+     */
+    public Held write(FtpFile a, FtpFile b) {
+        int ia = indexOf(a);
+        int ib = indexOf(b);
+        if (ia == ib) return write(a);
+        Lock first = stripes[Math.min(ia, ib)].writeLock();
+        Lock second = stripes[Math.max(ia, ib)].writeLock();
+        if (!tryLock(first)) return null;
+        if (!tryLock(second)) {
+            first.unlock();
+            return null;
+        }
+        return new Held(first, second);
+    }
+
+    /**
+     * Lock de lectura de un fichero y de escritura de otro (copia), tomados en orden canónico.
+     *
+     * @param source Fichero que se lee
+     * @param target Fichero que se escribe
+     * @return Locks conseguidos, o null si se agotó la espera (sin dejar ninguno tomado)
+     */
+    public Held readWrite(FtpFile source, FtpFile target) {
+        int is = indexOf(source);
+        int it = indexOf(target);
+        // Misma franja: el de escritura ya permite leer (y pedir los dos bloquearía al propio hilo)
+        if (is == it) return write(target);
+        Lock read = stripes[is].readLock();
+        Lock write = stripes[it].writeLock();
+        Lock first = is < it ? read : write;
+        Lock second = is < it ? write : read;
+        if (!tryLock(first)) return null;
+        if (!tryLock(second)) {
+            first.unlock();
+            return null;
+        }
+        return new Held(first, second);
+    }
+
+    /** Resumen para SITE STATS. */
+    public String describe() {
+        long n = acquired.get();
+        long c = contended.get();
+        return String.format("locks de ruta: %d franjas, adquiridos=%d, con espera=%d, espera media=%.2f ms máx=%.1f ms, timeouts=%d (%d ms)",
+            stripes.length, n, c, c == 0 ? 0.0 : waitNanos.get() / 1e6 / c, maxWaitNanos.get() / 1e6,
+            timeouts.get(), timeoutMillis);
+    }
+
+    private boolean tryLock(Lock l) {
+        if (l.tryLock()) {
+            acquired.incrementAndGet();
+            return true;
+        }
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            ok = l.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        }
+        long waited = System.nanoTime() - start;
+        contended.incrementAndGet();
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (ok) {
+            acquired.incrementAndGet();
+        } else {
+            timeouts.incrementAndGet();
+        }
+        return ok;
+    }
+
+    private int indexOf(FtpFile file) {
+        int h = file.getCacheKey().hashCode();
+        h ^= (h >>> 16);
+        return h & (stripes.length - 1);
+    }
+}
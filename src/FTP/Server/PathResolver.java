@@ -0,0 +1,244 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolución de rutas de cliente a rutas reales bajo la raíz del servidor, compartida por todas las sesiones.
+ * <p>
+ * La raíz se canonicaliza una sola vez. Cada ruta se normaliza léxicamente con {@link Path} y se
+ * comprueba por componentes ({@link Path#startsWith(Path)}), de modo que {@code /srv/ftp2} no pasa por
+ * estar dentro de {@code /srv/ftp}. La ruta real de los directorios se guarda en una caché LRU acotada
+ * con TTL, así un comando solo cuesta un {@code lstat} de la última componente en lugar de un
+ * {@code realpath} completo de la raíz y del destino.
+ * <p>
+ * Política de enlaces simbólicos:
+ * <ul>
+ *   <li>{@link SymlinkPolicy#INSIDE}: se siguen si su destino real queda dentro de la raíz (comportamiento previo);
+ *       un enlace roto se rechaza, porque STOR lo seguiría y crearía su destino, que puede estar fuera</li>
+ *   <li>{@link SymlinkPolicy#DENY}: cualquier enlace simbólico en la ruta se rechaza</li>
+ * </ul>
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class PathResolver {
+
+    /** Tratamiento de enlaces simbólicos dentro del árbol servido. */
+    public enum SymlinkPolicy {
+        INSIDE, DENY;
+
+        /**
+         * @param value Valor de configuración ("inside" o "deny")
+         * @return Política; INSIDE si el valor no se reconoce
+         */
+        public static SymlinkPolicy parse(String value) {
+            return "deny".equalsIgnoreCase(value == null ? "" : value.trim()) ? DENY : INSIDE;
+        }
+    }
+
+    private static final class Resolved {
+        final Path real;
+        final long createdAt;
+
+        Resolved(Path real, long createdAt) {
+            this.real = real;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final Path root;
+    private final SymlinkPolicy policy;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<Path, Resolved> dirs;
+    /** Se incrementa en cada invalidación; un resultado calculado antes de una invalidación no se guarda */
+    private long generation = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong denied = new AtomicLong();
+
+    /**
+     * @param rootDir Directorio raíz del servidor (se canonicaliza aquí, una vez)
+     * @param policy Política de enlaces simbólicos
+     * @param maxEntries Directorios cacheados como máximo (0 = sin caché)
+     * @param ttlMillis Edad máxima de una entrada de caché (red de seguridad frente a cambios externos)
+     * @throws IOException Si la raíz no existe
+     */
+    public PathResolver(String rootDir, SymlinkPolicy policy, int maxEntries, long ttlMillis) throws IOException {
+        this.root = Paths.get(rootDir).toRealPath();
+        this.policy = policy;
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.dirs = new LinkedHashMap<Path, Resolved>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Resolved> eldest) {
+                return size() > PathResolver.this.maxEntries;
+            }
+        };
+    }
+
+    /** Raíz canónica del servidor. */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Resuelve el argumento de un comando respecto al directorio actual. Una ruta que empieza por '/'
+     * es relativa a la raíz virtual del servidor.
+     *
+     * @param currentDir Directorio de trabajo (real, bajo la raíz)
+     * @param arg Ruta del cliente
+     * @return Ruta real bajo la raíz (puede no existir aún), o null si sale de la raíz o viola la política
+     */
+    public Path resolve(String currentDir, String arg) {
+        if (arg == null || arg.isEmpty() || arg.indexOf('\0') >= 0) return null;
+        try {
+            String rel = arg.replace('\\', '/');
+            Path base = rel.startsWith("/") ? root : Paths.get(currentDir);
+            while (rel.startsWith("/")) rel = rel.substring(1);
+            return canonicalize(rel.isEmpty() ? base : base.resolve(rel));
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Canonicaliza una ruta absoluta y comprueba que queda bajo la raíz.
+     *
+     * @param path Ruta (absoluta, o relativa al directorio del proceso)
+     * @return Ruta real bajo la raíz (puede no existir aún), o null
+     */
+    public Path canonicalize(Path path) {
+        Path lexical = path.toAbsolutePath().normalize();
+        if (!lexical.startsWith(root)) {
+            denied.incrementAndGet();
+            return null;
+        }
+        if (lexical.equals(root)) return root;
+        try {
+            Path parent = realDirectory(lexical.getParent());
+            if (parent == null) {
+                denied.incrementAndGet();
+                return null;
+            }
+            Path target = parent.resolve(lexical.getFileName());
+            if (Files.isSymbolicLink(target)) {
+                if (policy == SymlinkPolicy.DENY) {
+                    denied.incrementAndGet();
+                    return null;
+                }
+                try {
+                    target = target.toRealPath();
+                } catch (NoSuchFileException e) {
+                    // Enlace roto: su destino puede estar fuera y STOR/APPE lo crearían al seguirlo (como en realDirectory)
+                    denied.incrementAndGet();
+                    return null;
+                }
+            }
+            if (!target.startsWith(root)) {
+                denied.incrementAndGet();
+                return null;
+            }
+            return target;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Indica si una ruta ya canónica está dentro de la raíz (comparación por componentes).
+     *
+     * @param realPath Ruta real
+     * @return true si es la raíz o está por debajo
+     */
+    public boolean isInside(Path realPath) {
+        return realPath != null && realPath.startsWith(root);
+    }
+
+    /**
+     * Convierte una ruta real bajo la raíz en la ruta virtual que ve el cliente ("/" = raíz).
+     *
+     * @param realPath Ruta real bajo la raíz
+     * @return Ruta virtual con separadores '/'
+     */
+    public String toVirtual(Path realPath) {
+        Path rel = root.relativize(realPath.toAbsolutePath().normalize());
+        String s = rel.toString().replace('\\', '/');
+        return s.isEmpty() ? "/" : "/" + s;
+    }
+
+    /**
+     * Olvida las rutas cacheadas de un directorio y todo su subárbol (RMD, RNTO, borrados).
+     *
+     * @param changed Ruta (real) que ha cambiado
+     */
+    public synchronized void invalidate(Path changed) {
+        generation++;
+        Path p = changed.toAbsolutePath().normalize();
+        Iterator<Map.Entry<Path, Resolved>> it = dirs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Resolved> e = it.next();
+            if (e.getKey().startsWith(p) || e.getValue().real.startsWith(p)) it.remove();
+        }
+    }
+
+    /** Resumen para SITE STATS. */
+    public synchronized String describe() {
+        long h = hits.get();
+        long m = misses.get();
+        return String.format("rutas: %d/%d dirs, aciertos=%d fallos=%d (%.1f%%), denegadas=%d, enlaces=%s",
+            dirs.size(), maxEntries, h, m, (h + m) == 0 ? 0.0 : 100.0 * h / (h + m), denied.get(),
+            policy.name().toLowerCase());
+    }
+
+    /**
+     * Ruta real de un directorio léxico bajo la raíz, usando la caché. Si no existe, se resuelve su
+     * ancestro existente y se añaden las componentes restantes (p. ej. STOR en un directorio inexistente).
+     *
+     * @return Ruta real bajo la raíz, o null si un enlace la saca de la raíz o la política lo prohíbe
+     */
+    private Path realDirectory(Path lexical) throws IOException {
+        if (lexical.equals(root)) return root;
+        long now = System.currentTimeMillis();
+        long startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+            Resolved e = dirs.get(lexical);
+            if (e != null && (ttlMillis <= 0 || now - e.createdAt <= ttlMillis)) {
+                hits.incrementAndGet();
+                return e.real;
+            }
+        }
+        misses.incrementAndGet();
+
+        Path real;
+        try {
+            real = lexical.toRealPath();
+        } catch (NoSuchFileException e) {
+            Path parent = realDirectory(lexical.getParent());
+            if (parent == null) return null;
+            Path candidate = parent.resolve(lexical.getFileName());
+            // Puede ser un enlace roto que apunta fuera: no se acepta
+            return Files.exists(candidate, LinkOption.NOFOLLOW_LINKS) ? null : candidate;
+        }
+        if (!real.startsWith(root)) return null;
+        if (policy == SymlinkPolicy.DENY && !real.equals(lexical)) return null;
+        if (maxEntries > 0) {
+            synchronized (this) {
+                if (generation == startGeneration) dirs.put(lexical, new Resolved(real, now));
+            }
+        }
+        return real;
+    }
+}
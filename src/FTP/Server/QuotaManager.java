@@ -0,0 +1,642 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import FTP.Util.FileLogger;
+
+/**
+ * Cuotas de disco por usuario con contabilidad incremental.
+ * <p>
+ * La cuota ({@code quota_bytes}, 0 = ilimitada) y el uso ({@code used_bytes}) viven en {@code ftp_users};
+ * el propietario y tamaño de cada fichero subido, en {@code ftp_file_owners}. El uso de cada usuario es la
+ * suma de los tamaños de sus ficheros: STOR/APPE, DELE, RNTO y RMD lo ajustan en memoria al momento y
+ * los cambios se persisten por lotes en una única transacción cada {@code ftp.quota.flush.interval.ms}.
+ * Nunca se recorre el árbol en la ruta de un comando: una reconciliación en segundo plano (hilo de
+ * prioridad mínima y ritmo limitado) corrige la deriva comparando la tabla con el almacenamiento.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class QuotaManager {
+
+    public static final String OWNERS_TABLE = "ftp_file_owners";
+
+    /** Rutas por consulta IN (SQLite admite 999 parámetros) */
+    private static final int LOOKUP_BATCH = 500;
+
+    /** Tiempo tras el que se relee la cuota configurada de una cuenta cargada */
+    private static final long QUOTA_REFRESH_MILLIS = 60000;
+
+    /** Uso y cuota de un usuario en memoria. */
+    private static final class Account {
+        final AtomicLong used;
+        volatile long quota;
+        volatile long quotaLoadedAt;
+        /** Se incrementa con cada cambio; la reconciliación no toca cuentas que cambian durante el recorrido */
+        final AtomicLong version = new AtomicLong();
+
+        Account(long quota, long used) {
+            this.quota = quota;
+            this.used = new AtomicLong(used);
+            this.quotaLoadedAt = System.currentTimeMillis();
+        }
+
+        boolean tryConsume(long n, long allowance) {
+            while (true) {
+                long u = used.get();
+                if (quota > 0 && u + n > quota + allowance) return false;
+                if (used.compareAndSet(u, u + n)) {
+                    version.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+
+        void add(long delta) {
+            used.addAndGet(delta);
+            version.incrementAndGet();
+        }
+    }
+
+    /** Propietario registrado de un fichero. */
+    private static final class Owner {
+        final String username;
+        final long size;
+
+        Owner(String username, long size) {
+            this.username = username;
+            this.size = size;
+        }
+    }
+
+    /** Marca de "sin propietario" en el overlay de cambios pendientes */
+    private static final Owner NONE = new Owner(null, 0);
+
+    /** Operación pendiente de persistir, en orden. */
+    private static final class Op {
+        final String path;
+        final Owner owner; // NONE = borrar fila
+
+        Op(String path, Owner owner) {
+            this.path = path;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Subida en curso (STOR/APPE): carga los bytes a medida que llegan y ajusta la propiedad al terminar.
+     */
+    public final class Upload {
+        private final String username;
+        private final String path;
+        private final Account account;
+        private final Owner previous;
+        private final long allowance;
+        private long consumed;
+        private boolean done;
+
+        private Upload(String username, String path, Account account, Owner previous, long allowance) {
+            this.username = username;
+            this.path = path;
+            this.account = account;
+            this.previous = previous;
+            this.allowance = allowance;
+        }
+
+        /**
+         * Carga {@code n} bytes recibidos al usuario.
+         *
+         * @return false si superan la cuota (la subida debe abortarse con 552)
+         */
+        public boolean consume(long n) {
+            if (!account.tryConsume(n, allowance)) return false;
+            addPending(username, n);
+            consumed += n;
+            return true;
+        }
+
+        /**
+         * Termina la subida con el tamaño final del fichero, que pasa a ser propiedad del usuario.
+         *
+         * @param finalSize Tamaño del fichero tras la subida
+         */
+        public void finish(long finalSize) {
+            if (done) return;
+            done = true;
+            if (previous != NONE) charge(previous.username, -previous.size);
+            charge(username, finalSize - consumed);
+            setOwner(path, new Owner(username, finalSize));
+        }
+
+        /**
+         * Termina una subida cuyo fichero se ha eliminado (p. ej. STOR abortado por cuota).
+         */
+        public void abortRemoved() {
+            if (done) return;
+            done = true;
+            if (previous != NONE) charge(previous.username, -previous.size);
+            charge(username, -consumed);
+            setOwner(path, NONE);
+        }
+
+        /**
+         * Termina una subida que no ha llegado a escribir el fichero (p. ej. falla la conexión de datos):
+         * devuelve lo consumido y deja la propiedad como estaba.
+         */
+        public void cancel() {
+            if (done) return;
+            done = true;
+            charge(username, -consumed);
+        }
+    }
+
+    private final SqliteUserStore store;
+    private final FtpFileSystem fileSystem;
+    private final long reconcileRate;
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<String, Owner> overlay = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Op> pendingOps = new ConcurrentLinkedQueue<>();
+    private final Map<String, AtomicLong> pendingUsage = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Object flushLock = new Object();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong reconciliations = new AtomicLong();
+    private final AtomicLong driftCorrected = new AtomicLong();
+    private volatile long lastReconcileMillis = 0;
+
+    /**
+     * @param store Almacén SQLite de usuarios (comparte base de datos)
+     * @param fileSystem Backend a reconciliar
+     * @param flushMillis Intervalo de persistencia por lotes
+     * @param reconcileMillis Intervalo de reconciliación (0 = desactivada)
+     * @param reconcileRate Ficheros comprobados por segundo durante la reconciliación
+     */
+    public QuotaManager(SqliteUserStore store, FtpFileSystem fileSystem, long flushMillis, long reconcileMillis, long reconcileRate) {
+        this.store = store;
+        this.fileSystem = fileSystem;
+        this.reconcileRate = Math.max(1, reconcileRate);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ftp-quota");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        long flush = Math.max(100, flushMillis);
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flush, flush, TimeUnit.MILLISECONDS);
+        if (reconcileMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::reconcileQuietly, reconcileMillis, reconcileMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Comprueba si cabe una subida y la registra.
+     *
+     * @param username Usuario que sube
+     * @param file Destino
+     * @param append true para APPE
+     * @param sizeHint Tamaño anunciado con ALLO (-1 si no se conoce)
+     * @return Subida en curso, o null si no cabe (responder 552 antes de abrir la conexión de datos)
+     */
+    public Upload beginUpload(String username, FtpFile file, boolean append, long sizeHint) {
+        Account account = account(username);
+        String path = file.getVirtualPath();
+        Owner previous = file.isFile() ? ownerOf(path) : NONE;
+        boolean own = previous != NONE && username.equals(previous.username);
+        // Al sobrescribir un fichero propio su tamaño se libera; al añadir a uno ajeno se hereda entero
+        long allowance = (!append && own) ? previous.size : 0;
+        long inherited = (append && previous != NONE && !own) ? previous.size : 0;
+        long needed = Math.max(0, sizeHint) + inherited;
+        long quota = account.quota;
+        if (quota > 0) {
+            long used = account.used.get();
+            boolean full = sizeHint >= 0 ? used + needed > quota + allowance : used + inherited >= quota + allowance;
+            if (full) {
+                rejected.incrementAndGet();
+                return null;
+            }
+        }
+        return new Upload(username, path, account, previous, allowance);
+    }
+
+    /**
+     * Comprueba si caben {@code bytes} más en la cuota de un usuario (ALLO), sin reservar nada.
+     *
+     * @param username Usuario
+     * @param bytes Tamaño anunciado
+     * @return true si cabe o el usuario no tiene cuota
+     */
+    public boolean fits(String username, long bytes) {
+        Account account = account(username);
+        long quota = account.quota;
+        return quota <= 0 || account.used.get() + Math.max(0, bytes) <= quota;
+    }
+
+    /**
+     * Cuenta un fallo de cuota a mitad de transferencia (para estadísticas).
+     */
+    public void recordRejected() {
+        rejected.incrementAndGet();
+    }
+
+    /**
+     * Libera el espacio de un fichero borrado.
+     *
+     * @param file Fichero borrado
+     */
+    public void recordDelete(FtpFile file) {
+        String path = file.getVirtualPath();
+        Owner owner = ownerOf(path);
+        if (owner == NONE) return;
+        charge(owner.username, -owner.size);
+        setOwner(path, NONE);
+    }
+
+    /**
+     * Traslada la propiedad tras RNTO; si el renombrado sustituye a un fichero, libera su espacio.
+     *
+     * @param from Origen
+     * @param to Destino
+     * @param directory true si se ha movido un directorio (se trasladan todas las filas bajo él)
+     */
+    public void recordRename(FtpFile from, FtpFile to, boolean directory) {
+        String src = from.getVirtualPath();
+        String dst = to.getVirtualPath();
+        if (src.equals(dst)) return;
+        if (directory) {
+            moveTree(src, dst);
+            return;
+        }
+        // Un fichero sustituido por el renombrado deja de ocupar cuota
+        Owner replaced = ownerOf(dst);
+        if (replaced != NONE) {
+            charge(replaced.username, -replaced.size);
+            setOwner(dst, NONE);
+        }
+        Owner owner = ownerOf(src);
+        if (owner == NONE) return;
+        setOwner(src, NONE);
+        setOwner(dst, owner);
+    }
+
+    /**
+     * Libera el espacio de un lote de ficheros borrados (SITE RMTREE): una consulta por cada bloque de
+     * rutas en lugar de una por fichero; los cambios se persisten con el siguiente lote.
+     *
+     * @param files Ficheros borrados
+     */
+    public void recordDeleteAll(List<FtpFile> files) {
+        List<String> lookup = new ArrayList<>();
+        for (FtpFile f : files) {
+            String path = f.getVirtualPath();
+            Owner o = overlay.get(path);
+            if (o == null) {
+                lookup.add(path);
+            } else if (o != NONE) {
+                charge(o.username, -o.size);
+                setOwner(path, NONE);
+            }
+        }
+        for (int from = 0; from < lookup.size(); from += LOOKUP_BATCH) {
+            List<String> part = lookup.subList(from, Math.min(lookup.size(), from + LOOKUP_BATCH));
+            StringBuilder sql = new StringBuilder("SELECT path, username, size FROM ").append(OWNERS_TABLE).append(" WHERE path IN (");
+            for (int i = 0; i < part.size(); i++) sql.append(i == 0 ? "?" : ",?");
+            sql.append(')');
+            try (Connection conn = store.getConnection(); PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                for (int i = 0; i < part.size(); i++) ps.setString(i + 1, part.get(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String path = rs.getString(1);
+                        if (overlay.containsKey(path)) continue;
+                        charge(rs.getString(2), -rs.getLong(3));
+                        setOwner(path, NONE);
+                    }
+                }
+            } catch (SQLException e) {
+                FileLogger.error("Cuotas: borrado por lotes (" + part.size() + " ficheros): " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Libera el espacio de un subárbol borrado (RMD).
+     *
+     * @param dir Directorio borrado
+     */
+    public void recordDeleteTree(FtpFile dir) {
+        String prefix = dir.getVirtualPath();
+        synchronized (flushLock) {
+            flush();
+            String sql = "SELECT username, SUM(size) FROM " + OWNERS_TABLE + " WHERE path LIKE ? ESCAPE '\\' GROUP BY username";
+            try (Connection conn = store.getConnection()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setString(1, likePrefix(prefix));
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) charge(rs.getString(1), -rs.getLong(2));
+                    }
+                }
+                try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + OWNERS_TABLE + " WHERE path LIKE ? ESCAPE '\\'")) {
+                    ps.setString(1, likePrefix(prefix));
+                    ps.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                FileLogger.error("Cuotas: borrado de subárbol " + prefix + ": " + e.getMessage());
+            }
+            overlay.keySet().removeIf(p -> p.startsWith(prefix + "/"));
+        }
+    }
+
+    /**
+     * Describe la cuota de un usuario (SITE QUOTA).
+     *
+     * @param username Usuario
+     * @return Texto con uso y cuota
+     */
+    public String describeUser(String username) {
+        Account a = account(username);
+        long quota = a.quota;
+        return "used=" + a.used.get() + " bytes, quota=" + (quota > 0 ? quota + " bytes" : "unlimited");
+    }
+
+    /** Resumen para SITE STATS. */
+    public String describe() {
+        return "cuotas: " + accounts.size() + " cuentas cargadas, pendientes=" + pendingOps.size()
+            + ", lotes=" + flushes.get() + ", rechazos 552=" + rejected.get()
+            + ", reconciliaciones=" + reconciliations.get() + " (deriva corregida=" + driftCorrected.get() + " bytes"
+            + (lastReconcileMillis > 0 ? ", última " + lastReconcileMillis + " ms" : "") + ")";
+    }
+
+    /** Persiste lo pendiente y detiene los hilos de fondo. */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushQuietly();
+    }
+
+    private Account account(String username) {
+        Account a = accounts.computeIfAbsent(username, this::loadAccount);
+        if (System.currentTimeMillis() - a.quotaLoadedAt > QUOTA_REFRESH_MILLIS) {
+            a.quotaLoadedAt = System.currentTimeMillis();
+            long[] row = loadQuotaRow(username);
+            if (row != null) a.quota = row[0];
+        }
+        return a;
+    }
+
+    private Account loadAccount(String username) {
+        long[] row = loadQuotaRow(username);
+        return row != null ? new Account(row[0], row[1]) : new Account(0, 0);
+    }
+
+    /** @return {quota_bytes, used_bytes} o null si el usuario no está en la base */
+    private long[] loadQuotaRow(String username) {
+        String sql = "SELECT quota_bytes, used_bytes FROM " + SqliteUserStore.TABLE + " WHERE username = ?";
+        try (Connection conn = store.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new long[] { rs.getLong(1), rs.getLong(2) } : null;
+            }
+        } catch (SQLException e) {
+            FileLogger.error("Cuotas: lectura de " + username + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void charge(String username, long delta) {
+        if (username == null || delta == 0) return;
+        Account a = accounts.get(username);
+        if (a != null) a.add(delta);
+        addPending(username, delta);
+    }
+
+    /** Acumula un delta de uso para el siguiente lote. */
+    private void addPending(String username, long delta) {
+        pendingUsage.computeIfAbsent(username, u -> new AtomicLong()).addAndGet(delta);
+    }
+
+    private void setOwner(String path, Owner owner) {
+        overlay.put(path, owner);
+        pendingOps.add(new Op(path, owner));
+    }
+
+    private Owner ownerOf(String path) {
+        Owner o = overlay.get(path);
+        if (o != null) return o;
+        String sql = "SELECT username, size FROM " + OWNERS_TABLE + " WHERE path = ?";
+        try (Connection conn = store.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, path);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new Owner(rs.getString(1), rs.getLong(2)) : NONE;
+            }
+        } catch (SQLException e) {
+            FileLogger.error("Cuotas: propietario de " + path + ": " + e.getMessage());
+            return NONE;
+        }
+    }
+
+    private void moveTree(String src, String dst) {
+        synchronized (flushLock) {
+            flush();
+            String sql = "UPDATE " + OWNERS_TABLE + " SET path = ? || substr(path, ?) WHERE path = ? OR path LIKE ? ESCAPE '\\'";
+            try (Connection conn = store.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, dst);
+                ps.setInt(2, src.length() + 1);
+                ps.setString(3, src);
+                ps.setString(4, likePrefix(src));
+                ps.executeUpdate();
+            } catch (SQLException e) {
+                FileLogger.error("Cuotas: renombrado de " + src + ": " + e.getMessage());
+            }
+            overlay.keySet().removeIf(p -> p.equals(src) || p.startsWith(src + "/"));
+        }
+    }
+
+    private static String likePrefix(String dir) {
+        String base = dir.endsWith("/") ? dir : dir + "/";
+        return base.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    private void flushQuietly() {
+        try {
+            synchronized (flushLock) {
+                flush();
+            }
+        } catch (RuntimeException e) {
+            FileLogger.error("Cuotas: persistencia por lotes: " + e.getMessage());
+        }
+    }
+
+    /** Persiste en una transacción los deltas de uso y los cambios de propiedad; requiere {@code flushLock}. */
+    private void flush() {
+        List<Op> ops = new ArrayList<>();
+        Op op;
+        while ((op = pendingOps.poll()) != null) ops.add(op);
+        Map<String, Long> usage = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> e : pendingUsage.entrySet()) {
+            long delta = e.getValue().getAndSet(0);
+            if (delta != 0) usage.put(e.getKey(), delta);
+        }
+        if (ops.isEmpty() && usage.isEmpty()) return;
+
+        try (Connection conn = store.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement upsert = conn.prepareStatement(
+                     "INSERT OR REPLACE INTO " + OWNERS_TABLE + " (path, username, size) VALUES (?, ?, ?)");
+                 PreparedStatement delete = conn.prepareStatement("DELETE FROM " + OWNERS_TABLE + " WHERE path = ?");
+                 PreparedStatement used = conn.prepareStatement(
+                     "UPDATE " + SqliteUserStore.TABLE + " SET used_bytes = MAX(0, used_bytes + ?) WHERE username = ?")) {
+                for (Op o : ops) {
+                    if (o.owner == NONE) {
+                        delete.setString(1, o.path);
+                        delete.addBatch();
+                    } else {
+                        // Los borrados anteriores de la misma ruta deben aplicarse antes
+                        delete.executeBatch();
+                        upsert.setString(1, o.path);
+                        upsert.setString(2, o.owner.username);
+                        upsert.setLong(3, o.owner.size);
+                        upsert.executeUpdate();
+                    }
+                }
+                delete.executeBatch();
+                for (Map.Entry<String, Long> e : usage.entrySet()) {
+                    used.setLong(1, e.getValue());
+                    used.setString(2, e.getKey());
+                    used.addBatch();
+                }
+                used.executeBatch();
+            }
+            conn.commit();
+            flushes.incrementAndGet();
+            for (Op o : ops) overlay.remove(o.path, o.owner);
+        } catch (SQLException e) {
+            FileLogger.error("Cuotas: no se pudo persistir el lote (" + ops.size() + " cambios), se reintentará: " + e.getMessage());
+            // Reencolar para el siguiente intento, manteniendo el orden delante de lo nuevo
+            List<Op> retry = new ArrayList<>(ops);
+            while ((op = pendingOps.poll()) != null) retry.add(op);
+            pendingOps.addAll(retry);
+            for (Map.Entry<String, Long> d : usage.entrySet()) {
+                pendingUsage.computeIfAbsent(d.getKey(), u -> new AtomicLong()).addAndGet(d.getValue());
+            }
+        }
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (RuntimeException | InterruptedException e) {
+            FileLogger.error("Cuotas: reconciliación interrumpida: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Recorre la tabla de propietarios por páginas, comprueba cada fichero contra el almacenamiento a
+     * ritmo limitado y corrige filas y uso de los usuarios que no han cambiado durante el recorrido.
+     */
+    private void reconcile() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        flushQuietly();
+        Map<String, Long> versions = new HashMap<>();
+        for (Map.Entry<String, Account> e : accounts.entrySet()) versions.put(e.getKey(), e.getValue().version.get());
+
+        Map<String, Long> actual = new HashMap<>();
+        String last = "";
+        long checked = 0;
+        long sleepEvery = Math.max(1, reconcileRate / 10);
+        while (true) {
+            List<String[]> page = new ArrayList<>();
+            String sql = "SELECT path, username, size FROM " + OWNERS_TABLE + " WHERE path > ? ORDER BY path LIMIT 500";
+            try (Connection conn = store.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, last);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) page.add(new String[] { rs.getString(1), rs.getString(2), String.valueOf(rs.getLong(3)) });
+                }
+            } catch (SQLException e) {
+                FileLogger.error("Cuotas: reconciliación: " + e.getMessage());
+                return;
+            }
+            if (page.isEmpty()) break;
+            for (String[] row : page) {
+                last = row[0];
+                if (overlay.containsKey(row[0])) continue; // cambiado durante el recorrido
+                FtpFile f = fileSystem.resolve(fileSystem.getRoot(), row[0]);
+                long size = -1;
+                if (f != null) {
+                    try {
+                        BasicFileAttributes attrs = f.stat();
+                        if (attrs.isRegularFile()) size = attrs.size();
+                    } catch (IOException e) {
+                        size = -1;
+                    }
+                }
+                long recorded = Long.parseLong(row[2]);
+                if (size < 0) {
+                    overlay.putIfAbsent(row[0], NONE);
+                    pendingOps.add(new Op(row[0], NONE));
+                } else {
+                    actual.merge(row[1], size, Long::sum);
+                    if (size != recorded) {
+                        Owner o = new Owner(row[1], size);
+                        overlay.putIfAbsent(row[0], o);
+                        pendingOps.add(new Op(row[0], o));
+                    }
+                }
+                if (++checked % sleepEvery == 0) Thread.sleep(100);
+            }
+        }
+        flushQuietly();
+
+        // Ajustar used_bytes de usuarios sin actividad durante el recorrido
+        String sql = "SELECT username, used_bytes FROM " + SqliteUserStore.TABLE;
+        Map<String, Long> stored = new HashMap<>();
+        try (Connection conn = store.getConnection(); PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) stored.put(rs.getString(1), rs.getLong(2));
+        } catch (SQLException e) {
+            FileLogger.error("Cuotas: reconciliación: " + e.getMessage());
+            return;
+        }
+        synchronized (flushLock) {
+            try (Connection conn = store.getConnection();
+                 PreparedStatement ps = conn.prepareStatement("UPDATE " + SqliteUserStore.TABLE + " SET used_bytes = ? WHERE username = ?")) {
+                for (Map.Entry<String, Long> e : stored.entrySet()) {
+                    String user = e.getKey();
+                    long expected = actual.getOrDefault(user, 0L);
+                    Account a = accounts.get(user);
+                    if (a != null && a.version.get() != versions.getOrDefault(user, -1L)) continue;
+                    AtomicLong pending = pendingUsage.get(user);
+                    if (pending != null && pending.get() != 0) continue;
+                    long drift = expected - e.getValue();
+                    if (drift == 0) continue;
+                    ps.setLong(1, expected);
+                    ps.setString(2, user);
+                    ps.executeUpdate();
+                    if (a != null) a.used.set(expected);
+                    driftCorrected.addAndGet(Math.abs(drift));
+                    FileLogger.info("Cuotas: uso de " + user + " corregido en " + drift + " bytes");
+                }
+            } catch (SQLException e) {
+                FileLogger.error("Cuotas: reconciliación: " + e.getMessage());
+            }
+        }
+        reconciliations.incrementAndGet();
+        lastReconcileMillis = System.currentTimeMillis() - start;
+    }
+}
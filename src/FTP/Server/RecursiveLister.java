@@ -0,0 +1,213 @@
+package FTP.Server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Listado recursivo (LIST -R / NLST -R) en una sola conexión de datos.
+ * <p>
+ * Los directorios se leen en paralelo en un {@link ForkJoinPool} de paralelismo acotado, pero la salida
+ * se escribe en orden (recorrido en profundidad, entradas ordenadas por nombre). El hilo de sesión solo
+ * adelanta una ventana de directorios por nivel y escribe cada bloque al socket antes de pedir más,
+ * así la escritura bloqueante al cliente hace de contrapresión y la memoria queda acotada. El límite de
+ * entradas lo aplica el hilo de sesión al escribir, en el mismo orden que la salida, así un listado
+ * truncado contiene exactamente las primeras entradas del recorrido.
+ * Los enlaces simbólicos se listan pero nunca se recorren, de modo que el recorrido no sale del
+ * directorio inicial (ya validado con las reglas de {@code isPathSafe}) ni entra en ciclos.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class RecursiveLister {
+
+    /** Da formato a una entrada; {@code relativeName} es relativo al directorio inicial. */
+    public interface LineFormatter {
+        void format(StringBuilder line, String name, String relativeName, BasicFileAttributes attrs);
+    }
+
+    /** Resultado de un recorrido. */
+    public static final class Result {
+        public final long entries;
+        public final boolean truncated;
+
+        Result(long entries, boolean truncated) {
+            this.entries = entries;
+            this.truncated = truncated;
+        }
+    }
+
+    /** Bloque renderizado de un directorio y sus subdirectorios a recorrer. */
+    private static final class Chunk {
+        final byte[] bytes;
+        /** Fin (exclusivo) en {@code bytes} de la línea de cada entrada, en orden */
+        final int[] entryEnds;
+        final List<FtpFile> childDirs;
+        final List<String> childRelatives;
+
+        Chunk(byte[] bytes, int[] entryEnds, List<FtpFile> childDirs, List<String> childRelatives) {
+            this.bytes = bytes;
+            this.entryEnds = entryEnds;
+            this.childDirs = childDirs;
+            this.childRelatives = childRelatives;
+        }
+    }
+
+    /** Estado del recorrido; solo lo usa el hilo de sesión. */
+    private static final class Progress {
+        long entries;
+        boolean truncated;
+    }
+
+    private static final Comparator<FtpFile> BY_NAME = Comparator.comparing(FtpFile::getName);
+
+    private final ForkJoinPool pool;
+    private final int maxDepth;
+    private final long maxEntries;
+    private final int window;
+
+    /**
+     * @param parallelism Hilos de lectura de directorios
+     * @param maxDepth Profundidad máxima (0 = solo el directorio inicial)
+     * @param maxEntries Máximo de entradas por listado
+     */
+    public RecursiveLister(int parallelism, int maxDepth, long maxEntries) {
+        int p = Math.max(1, parallelism);
+        this.pool = new ForkJoinPool(p);
+        this.maxDepth = Math.max(0, maxDepth);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.window = p * 2;
+    }
+
+    /**
+     * Recorre {@code start} y escribe el listado en {@code sink}.
+     *
+     * @param start Directorio inicial (ya validado bajo la raíz)
+     * @param sectionHeaders true para cabeceras estilo {@code ls -lR} ("./sub:"), false para rutas relativas (NLST)
+     * @param formatter Formato de cada entrada
+     * @param sink Destino
+     * @param progress Llamado tras cada bloque escrito (timeouts de transferencia)
+     * @return Número de entradas y si se truncó por límite
+     * @throws IOException Si falla la escritura al cliente
+     */
+    public Result walk(FtpFile start, boolean sectionHeaders, LineFormatter formatter, ListingSink sink, Runnable progress) throws IOException {
+        Progress state = new Progress();
+        ForkJoinTask<Chunk> root = pool.submit(new DirTask(start, "", sectionHeaders, formatter));
+        emit(root, 0, sectionHeaders, formatter, sink, progress, state);
+        sink.flush();
+        return new Result(state.entries, state.truncated);
+    }
+
+    private void emit(ForkJoinTask<Chunk> task, int depth, boolean sectionHeaders, LineFormatter formatter, ListingSink sink,
+                      Runnable progress, Progress state) throws IOException {
+        Chunk chunk = task.join();
+        long remaining = maxEntries - state.entries;
+        int length = chunk.bytes.length;
+        if (chunk.entryEnds.length > remaining) {
+            // Se corta tras la última entrada que cabe; sin hueco no se escribe ni la cabecera de sección
+            length = remaining == 0 ? 0 : chunk.entryEnds[(int) remaining - 1];
+            state.entries = maxEntries;
+            state.truncated = true;
+        } else {
+            state.entries += chunk.entryEnds.length;
+        }
+        sink.write(chunk.bytes, 0, length);
+        progress.run();
+        if (depth >= maxDepth || state.truncated) return;
+
+        Iterator<FtpFile> dirs = chunk.childDirs.iterator();
+        Iterator<String> rels = chunk.childRelatives.iterator();
+        Deque<ForkJoinTask<Chunk>> ahead = new ArrayDeque<>();
+        try {
+            while (ahead.size() < window && dirs.hasNext()) {
+                ahead.add(pool.submit(new DirTask(dirs.next(), rels.next(), sectionHeaders, formatter)));
+            }
+            while (!ahead.isEmpty() && !state.truncated) {
+                ForkJoinTask<Chunk> next = ahead.poll();
+                if (dirs.hasNext()) {
+                    ahead.add(pool.submit(new DirTask(dirs.next(), rels.next(), sectionHeaders, formatter)));
+                }
+                emit(next, depth + 1, sectionHeaders, formatter, sink, progress, state);
+            }
+        } finally {
+            for (ForkJoinTask<Chunk> pending : ahead) pending.cancel(false);
+        }
+    }
+
+    /** Lee y renderiza un directorio; no recurre: los hijos los adelanta el hilo de sesión. */
+    private final class DirTask extends RecursiveTask<Chunk> {
+        private static final long serialVersionUID = 1L;
+
+        private final FtpFile dir;
+        private final String relative;
+        private final boolean sectionHeaders;
+        private final LineFormatter formatter;
+
+        DirTask(FtpFile dir, String relative, boolean sectionHeaders, LineFormatter formatter) {
+            this.dir = dir;
+            this.relative = relative;
+            this.sectionHeaders = sectionHeaders;
+            this.formatter = formatter;
+        }
+
+        @Override
+        protected Chunk compute() {
+            List<FtpFile> children = new ArrayList<>();
+            try (DirectoryStream<FtpFile> stream = dir.list()) {
+                for (FtpFile f : stream) children.add(f);
+            } catch (IOException e) {
+                // directorio borrado o sin permisos durante el recorrido: se omite
+            }
+            children.sort(BY_NAME);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(256, children.size() * 64));
+            ListingSink out = new ListingSink(bytes, 8 * 1024);
+            List<FtpFile> childDirs = new ArrayList<>();
+            List<String> childRelatives = new ArrayList<>();
+            int[] entryEnds = new int[children.size()];
+            int entries = 0;
+            StringBuilder line = new StringBuilder(128);
+            try {
+                if (sectionHeaders) {
+                    if (!relative.isEmpty()) out.writeLine("");
+                    line.append(relative.isEmpty() ? "." : "./" + relative).append(':');
+                    out.writeLine(line);
+                }
+                for (FtpFile child : children) {
+                    if (entries >= maxEntries) break; // el resto no cabría en ningún caso
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = child.stat();
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    String name = child.getName();
+                    String rel = relative.isEmpty() ? name : relative + "/" + name;
+                    line.setLength(0);
+                    formatter.format(line, name, rel, attrs);
+                    out.writeLine(line);
+                    entryEnds[entries++] = (int) out.position();
+                    if (attrs.isDirectory() && !child.isSymbolicLink()) {
+                        childDirs.add(child);
+                        childRelatives.add(rel);
+                    }
+                }
+                out.flush();
+            } catch (IOException e) {
+                // ByteArrayOutputStream no lanza IOException
+            }
+            return new Chunk(bytes.toByteArray(), Arrays.copyOf(entryEnds, entries), childDirs, childRelatives);
+        }
+    }
+}
@@ -4,6 +4,9 @@ import javax.net.ssl.SSLContext;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -50,6 +53,12 @@ public class ServerConfig {
     /** Minutos de bloqueo tras superar authMaxAttempts (0 = desactivado) */
     private int authLockoutMinutes;
 
+    /** Máximo de intentos fallidos por usuario, sumando todas las IPs (0 = sin límite por usuario) */
+    private int authUserMaxAttempts;
+
+    /** IPs (y usuarios) máximos que sigue el control de intentos de login */
+    private int authThrottleMaxEntries;
+
     /** TLS habilitado */
     private boolean tlsEnabled;
 
@@ -74,6 +83,141 @@ public class ServerConfig {
     /** Número de archivos de respaldo de log */
     private int logMaxBackupFiles;
 
+    /** Plazo en ms para que el cliente abra la conexión de datos tras PASV/PORT */
+    private long dataAcceptTimeout;
+
+    /** Ms sin progreso en una transferencia antes de abortarla (0 = desactivado) */
+    private long transferStallTimeout;
+
+    /** Plazo en ms para completar el handshake TLS del canal de control (FTPS implícito y AUTH TLS) */
+    private long tlsHandshakeTimeout;
+
+    /** Resolución (ms) de la rueda de timeouts compartida */
+    private long timerTickMillis;
+
+    /** Memoria máxima de la caché de listados en bytes (0 = desactivada) */
+    private long listCacheMaxBytes;
+
+    /** Edad máxima de un listado cacheado en ms (0 = sin TTL) */
+    private long listCacheTtlMillis;
+
+    /** Hilos para leer directorios en LIST -R / NLST -R */
+    private int listRecursiveParallelism;
+
+    /** Profundidad máxima de LIST -R / NLST -R */
+    private int listRecursiveMaxDepth;
+
+    /** Máximo de entradas por listado recursivo */
+    private long listRecursiveMaxEntries;
+
+    /** Directorios con ruta real cacheada para la resolución de rutas (0 = sin caché) */
+    private int pathCacheSize;
+
+    /** Edad máxima de una ruta cacheada en ms */
+    private long pathCacheTtlMillis;
+
+    /** Política de enlaces simbólicos: "inside" (seguir si quedan bajo la raíz) o "deny" */
+    private String symlinkPolicy;
+
+    /** Backend de almacenamiento: "local" (disco), "memory" o "dedup" (deduplicado) */
+    private String storage;
+
+    /** Tamaño de bloque del backend en memoria */
+    private int memoryChunkSize;
+
+    /** Memoria máxima del backend en memoria (0 = sin límite) */
+    private long memoryMaxBytes;
+
+    /** Copiar la raíz de disco al backend en memoria al arrancar */
+    private boolean memorySeed;
+
+    /** Directorio de bloques del backend deduplicado (vacío = "&lt;raíz&gt;.chunks" junto a la raíz) */
+    private String dedupDirectory;
+
+    /** Troceado del backend deduplicado: "cdc" (por contenido) o "fixed" */
+    private String dedupChunking;
+
+    /** Tamaño de bloque (fijo) o medio (cdc) del backend deduplicado */
+    private int dedupChunkSize;
+
+    /** Bloques leídos por adelantado en RETR con el backend deduplicado */
+    private int dedupReadAhead;
+
+    /** Periodo del recolector de bloques huérfanos en ms */
+    private long dedupGcMillis;
+
+    /** Hilos para copias en el servidor (SITE CPFR/CPTO) */
+    private int copyThreads;
+
+    /** Entradas máximas de un listado por el canal de control (STAT &lt;ruta&gt;) */
+    private int statMaxEntries;
+
+    /** Trabajadores del borrado recursivo (SITE RMTREE) */
+    private int rmtreeParallelism;
+
+    /** Caché de verificaciones de contraseña correctas (HMAC, opcional) */
+    private boolean authCacheEnabled;
+
+    /** Usuarios máximos en la caché de verificaciones */
+    private int authCacheSize;
+
+    /** Vida de una verificación en caché */
+    private long authCacheTtlMillis;
+
+    /** Hilos de verificación bcrypt (0 = núcleos disponibles) */
+    private int bcryptThreads;
+
+    /** Verificaciones bcrypt que pueden esperar en cola antes de rechazar logins con 421 */
+    private int bcryptQueueSize;
+
+    /** Espera máxima de un login por su verificación bcrypt (cola + cálculo) */
+    private long bcryptMaxWaitMillis;
+
+    /** Coste bcrypt de los hashes nuevos; los guardados con otro coste se regeneran en el login */
+    private int bcryptCost;
+
+    /** Conexiones de lectura del pool de la base SQLite de usuarios (búsquedas de login) */
+    private int usersDatabasePoolSize;
+
+    /** Periodo de comprobación de cambios del fichero de usuarios (0 = no recargar) */
+    private long usersReloadMillis;
+
+    /** Entradas máximas de la caché de atributos de SIZE/MDTM (0 = desactivada) */
+    private int attrCacheSize;
+
+    /** Vida de una entrada de la caché de atributos */
+    private long attrCacheTtlMillis;
+
+    /** Franjas de la tabla de locks por ruta */
+    private int lockStripes;
+
+    /** Espera máxima por el lock de una ruta antes de responder 450 */
+    private long lockTimeoutMillis;
+
+    /** Índice de nombres en memoria para SITE FIND */
+    private boolean indexEnabled;
+
+    /** Hilos del recorrido que construye el índice de nombres */
+    private int indexParallelism;
+
+    /** Resultados máximos de SITE FIND */
+    private int indexFindMaxResults;
+
+    /** Cuotas por usuario (requiere base SQLite) */
+    private boolean quotaEnabled;
+
+    /** Intervalo de persistencia por lotes de las cuotas en ms */
+    private long quotaFlushMillis;
+
+    /** Intervalo de reconciliación de cuotas en ms (0 = desactivada) */
+    private long quotaReconcileMillis;
+
+    /** Ficheros comprobados por segundo durante la reconciliación */
+    private long quotaReconcileRate;
+
+    /** Listeners definidos en ftp.listeners (vacío = un único listener en controlPort) */
+    private List<ListenerConfig> listeners;
+
     /**
      * Constructor por defecto con valores predeterminados.
      */
@@ -90,6 +234,8 @@ public class ServerConfig {
         this.passivePortMax = 0;
         this.authMaxAttempts = 5;
         this.authLockoutMinutes = 5;
+        this.authUserMaxAttempts = 0;
+        this.authThrottleMaxEntries = 100000;
         this.tlsEnabled = false;
         this.tlsKeystorePath = "";
         this.tlsKeystorePassword = "";
@@ -97,6 +243,51 @@ public class ServerConfig {
         this.tlsRequired = false;
         this.logMaxSizeBytes = 5 * 1024 * 1024; // 5 MB
         this.logMaxBackupFiles = 3;
+        this.listeners = new ArrayList<>();
+        this.dataAcceptTimeout = 10000;
+        this.transferStallTimeout = 120000;
+        this.tlsHandshakeTimeout = 10000;
+        this.timerTickMillis = 100;
+        this.listCacheMaxBytes = 16L * 1024 * 1024;
+        this.listCacheTtlMillis = 60000;
+        this.listRecursiveParallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+        this.listRecursiveMaxDepth = 32;
+        this.listRecursiveMaxEntries = 1000000;
+        this.pathCacheSize = 4096;
+        this.pathCacheTtlMillis = 5000;
+        this.symlinkPolicy = "inside";
+        this.storage = "local";
+        this.memoryChunkSize = 64 * 1024;
+        this.memoryMaxBytes = 0;
+        this.memorySeed = false;
+        this.dedupDirectory = "";
+        this.dedupChunking = "cdc";
+        this.dedupChunkSize = 1024 * 1024;
+        this.dedupReadAhead = 2;
+        this.dedupGcMillis = 60000;
+        this.copyThreads = 2;
+        this.rmtreeParallelism = 4;
+        this.usersReloadMillis = 2000;
+        this.usersDatabasePoolSize = 4;
+        this.bcryptThreads = 0;
+        this.authCacheEnabled = false;
+        this.authCacheSize = 1000;
+        this.authCacheTtlMillis = 60000;
+        this.bcryptQueueSize = 64;
+        this.bcryptMaxWaitMillis = 5000;
+        this.bcryptCost = PasswordHashing.DEFAULT_COST;
+        this.attrCacheSize = 10000;
+        this.attrCacheTtlMillis = 2000;
+        this.lockStripes = 1024;
+        this.lockTimeoutMillis = 10000;
+        this.indexEnabled = false;
+        this.indexParallelism = 4;
+        this.indexFindMaxResults = 1000;
+        this.statMaxEntries = 100;
+        this.quotaEnabled = false;
+        this.quotaFlushMillis = 5000;
+        this.quotaReconcileMillis = 3600000;
+        this.quotaReconcileRate = 500;
     }
 
     /**
@@ -104,8 +295,9 @@ public class ServerConfig {
      *
      * @param configFile Ruta al archivo de configuración
      * @throws IOException Si hay error al leer el archivo
+     * @throws ConfigException Si la configuración es inválida (p. ej. un listener mal definido)
      */
-    public void loadFromFile(String configFile) throws IOException {
+    public void loadFromFile(String configFile) throws IOException, ConfigException {
         properties = new Properties();
         try (FileInputStream fis = new FileInputStream(configFile)) {
             properties.load(fis);
@@ -138,6 +330,8 @@ public class ServerConfig {
         }
         authMaxAttempts = Integer.parseInt(properties.getProperty("ftp.auth.max.attempts", "5"));
         authLockoutMinutes = Integer.parseInt(properties.getProperty("ftp.auth.lockout.minutes", "5"));
+        authUserMaxAttempts = Integer.parseInt(properties.getProperty("ftp.auth.user.max.attempts", "0").trim());
+        authThrottleMaxEntries = Integer.parseInt(properties.getProperty("ftp.auth.throttle.max.entries", "100000").trim());
         tlsEnabled = Boolean.parseBoolean(properties.getProperty("ftp.tls.enabled", "false"));
         tlsKeystorePath = properties.getProperty("ftp.tls.keystore.path", "").trim();
         tlsKeystorePassword = properties.getProperty("ftp.tls.keystore.password", "");
@@ -152,6 +346,99 @@ public class ServerConfig {
         }
         logMaxSizeBytes = Long.parseLong(properties.getProperty("ftp.log.max.size.bytes", "5242880"));
         logMaxBackupFiles = Integer.parseInt(properties.getProperty("ftp.log.max.backups", "3"));
+        dataAcceptTimeout = Long.parseLong(properties.getProperty("ftp.data.accept.timeout", "10000").trim());
+        transferStallTimeout = Long.parseLong(properties.getProperty("ftp.transfer.stall.timeout", "120000").trim());
+        tlsHandshakeTimeout = Long.parseLong(properties.getProperty("ftp.tls.handshake.timeout", "10000").trim());
+        timerTickMillis = Long.parseLong(properties.getProperty("ftp.timer.tick.millis", "100").trim());
+        listCacheMaxBytes = Long.parseLong(properties.getProperty("ftp.list.cache.max.bytes", "16777216").trim());
+        listCacheTtlMillis = Long.parseLong(properties.getProperty("ftp.list.cache.ttl.ms", "60000").trim());
+        listRecursiveParallelism = Integer.parseInt(properties.getProperty("ftp.list.recursive.parallelism",
+            String.valueOf(Math.min(4, Runtime.getRuntime().availableProcessors()))).trim());
+        listRecursiveMaxDepth = Integer.parseInt(properties.getProperty("ftp.list.recursive.max.depth", "32").trim());
+        listRecursiveMaxEntries = Long.parseLong(properties.getProperty("ftp.list.recursive.max.entries", "1000000").trim());
+        pathCacheSize = Integer.parseInt(properties.getProperty("ftp.path.cache.size", "4096").trim());
+        pathCacheTtlMillis = Long.parseLong(properties.getProperty("ftp.path.cache.ttl.ms", "5000").trim());
+        symlinkPolicy = properties.getProperty("ftp.symlinks", "inside").trim();
+        storage = properties.getProperty("ftp.storage", "local").trim().toLowerCase();
+        memoryChunkSize = Integer.parseInt(properties.getProperty("ftp.storage.memory.chunk.size", "65536").trim());
+        memoryMaxBytes = Long.parseLong(properties.getProperty("ftp.storage.memory.max.bytes", "0").trim());
+        memorySeed = Boolean.parseBoolean(properties.getProperty("ftp.storage.memory.seed", "false").trim());
+        dedupDirectory = properties.getProperty("ftp.storage.dedup.dir", "").trim();
+        dedupChunking = properties.getProperty("ftp.storage.dedup.chunking", "cdc").trim();
+        dedupChunkSize = Integer.parseInt(properties.getProperty("ftp.storage.dedup.chunk.size", "1048576").trim());
+        dedupReadAhead = Integer.parseInt(properties.getProperty("ftp.storage.dedup.readahead", "2").trim());
+        dedupGcMillis = Long.parseLong(properties.getProperty("ftp.storage.dedup.gc.interval.ms", "60000").trim());
+        copyThreads = Integer.parseInt(properties.getProperty("ftp.copy.threads", "2").trim());
+        statMaxEntries = Integer.parseInt(properties.getProperty("ftp.stat.max.entries", "100").trim());
+        rmtreeParallelism = Integer.parseInt(properties.getProperty("ftp.rmtree.parallelism", "4").trim());
+        authCacheEnabled = Boolean.parseBoolean(properties.getProperty("ftp.auth.cache.enabled", "false").trim());
+        authCacheSize = Integer.parseInt(properties.getProperty("ftp.auth.cache.size", "1000").trim());
+        authCacheTtlMillis = Long.parseLong(properties.getProperty("ftp.auth.cache.ttl.ms", "60000").trim());
+        bcryptThreads = Integer.parseInt(properties.getProperty("ftp.auth.bcrypt.threads", "0").trim());
+        bcryptQueueSize = Integer.parseInt(properties.getProperty("ftp.auth.bcrypt.queue", "64").trim());
+        bcryptMaxWaitMillis = Long.parseLong(properties.getProperty("ftp.auth.bcrypt.max.wait.ms", "5000").trim());
+        bcryptCost = PasswordHashing.clamp(Integer.parseInt(properties.getProperty("ftp.auth.bcrypt.cost",
+            String.valueOf(PasswordHashing.DEFAULT_COST)).trim()));
+        usersDatabasePoolSize = Integer.parseInt(properties.getProperty("ftp.users.database.pool.size", "4").trim());
+        usersReloadMillis = Long.parseLong(properties.getProperty("ftp.users.reload.ms", "2000").trim());
+        attrCacheSize = Integer.parseInt(properties.getProperty("ftp.attr.cache.size", "10000").trim());
+        attrCacheTtlMillis = Long.parseLong(properties.getProperty("ftp.attr.cache.ttl.ms", "2000").trim());
+        lockStripes = Integer.parseInt(properties.getProperty("ftp.lock.stripes", "1024").trim());
+        lockTimeoutMillis = Long.parseLong(properties.getProperty("ftp.lock.timeout.ms", "10000").trim());
+        indexEnabled = Boolean.parseBoolean(properties.getProperty("ftp.index.enabled", "false").trim());
+        indexParallelism = Integer.parseInt(properties.getProperty("ftp.index.parallelism", "4").trim());
+        indexFindMaxResults = Integer.parseInt(properties.getProperty("ftp.index.find.max.results", "1000").trim());
+        quotaEnabled = Boolean.parseBoolean(properties.getProperty("ftp.quota.enabled", "false").trim());
+        quotaFlushMillis = Long.parseLong(properties.getProperty("ftp.quota.flush.interval.ms", "5000").trim());
+        quotaReconcileMillis = Long.parseLong(properties.getProperty("ftp.quota.reconcile.interval.ms", "3600000").trim());
+        quotaReconcileRate = Long.parseLong(properties.getProperty("ftp.quota.reconcile.rate", "500").trim());
+        listeners = loadListeners();
+    }
+
+    /**
+     * Lee la lista ftp.listeners=a,b,... y las propiedades ftp.listener.&lt;nombre&gt;.*
+     * (bind, port, backlog, tls, max.connections).
+     *
+     * @return Listeners definidos (vacío si no hay ftp.listeners)
+     * @throws ConfigException Si algún listener está mal definido
+     */
+    private List<ListenerConfig> loadListeners() throws ConfigException {
+        List<ListenerConfig> result = new ArrayList<>();
+        String names = properties.getProperty("ftp.listeners", "").trim();
+        if (names.isEmpty()) {
+            return result;
+        }
+        for (String raw : names.split(",")) {
+            String name = raw.trim();
+            if (name.isEmpty()) continue;
+            String prefix = "ftp.listener." + name + ".";
+            String portStr = properties.getProperty(prefix + "port", "").trim();
+            if (portStr.isEmpty()) {
+                throw new ConfigException("Listener '" + name + "': falta " + prefix + "port");
+            }
+            ListenerConfig.TlsMode mode;
+            String tls = properties.getProperty(prefix + "tls", tlsRequired ? "required" : "explicit").trim();
+            try {
+                mode = ListenerConfig.TlsMode.valueOf(tls.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new ConfigException("Listener '" + name + "': modo TLS no válido '" + tls + "' (none|explicit|required|implicit)");
+            }
+            if (mode != ListenerConfig.TlsMode.NONE && mode != ListenerConfig.TlsMode.EXPLICIT && sslContext == null) {
+                throw new ConfigException("Listener '" + name + "': tls=" + tls + " requiere ftp.tls.enabled y un keystore válido");
+            }
+            try {
+                result.add(new ListenerConfig(
+                    name,
+                    properties.getProperty(prefix + "bind", ""),
+                    Integer.parseInt(portStr),
+                    Integer.parseInt(properties.getProperty(prefix + "backlog", "50").trim()),
+                    mode,
+                    Integer.parseInt(properties.getProperty(prefix + "max.connections", String.valueOf(maxConnections)).trim())));
+            } catch (NumberFormatException e) {
+                throw new ConfigException("Listener '" + name + "': valor numérico no válido (" + e.getMessage() + ")");
+            }
+        }
+        return result;
     }
 
     private SSLContext loadSSLContext() throws Exception {
@@ -246,6 +533,14 @@ public class ServerConfig {
         return authLockoutMinutes;
     }
 
+    public int getAuthUserMaxAttempts() {
+        return authUserMaxAttempts;
+    }
+
+    public int getAuthThrottleMaxEntries() {
+        return authThrottleMaxEntries;
+    }
+
     public boolean isTlsEnabled() { return tlsEnabled; }
     public String getTlsKeystorePath() { return tlsKeystorePath; }
     public String getTlsProtocols() { return tlsProtocols; }
@@ -254,4 +549,63 @@ public class ServerConfig {
 
     public long getLogMaxSizeBytes() { return logMaxSizeBytes; }
     public int getLogMaxBackupFiles() { return logMaxBackupFiles; }
+
+    public long getDataAcceptTimeout() { return dataAcceptTimeout; }
+    public long getTransferStallTimeout() { return transferStallTimeout; }
+    public long getTlsHandshakeTimeout() { return tlsHandshakeTimeout; }
+    public long getTimerTickMillis() { return timerTickMillis; }
+    public long getListCacheMaxBytes() { return listCacheMaxBytes; }
+    public long getListCacheTtlMillis() { return listCacheTtlMillis; }
+    public int getListRecursiveParallelism() { return listRecursiveParallelism; }
+    public int getListRecursiveMaxDepth() { return listRecursiveMaxDepth; }
+    public long getListRecursiveMaxEntries() { return listRecursiveMaxEntries; }
+    public int getPathCacheSize() { return pathCacheSize; }
+    public long getPathCacheTtlMillis() { return pathCacheTtlMillis; }
+    public String getSymlinkPolicy() { return symlinkPolicy; }
+    public String getStorage() { return storage; }
+    public int getMemoryChunkSize() { return memoryChunkSize; }
+    public long getMemoryMaxBytes() { return memoryMaxBytes; }
+    public boolean isMemorySeed() { return memorySeed; }
+    public String getDedupDirectory() { return dedupDirectory; }
+    public String getDedupChunking() { return dedupChunking; }
+    public int getDedupChunkSize() { return dedupChunkSize; }
+    public int getDedupReadAhead() { return dedupReadAhead; }
+    public long getDedupGcMillis() { return dedupGcMillis; }
+    public int getCopyThreads() { return copyThreads; }
+    public int getRmtreeParallelism() { return rmtreeParallelism; }
+    public boolean isAuthCacheEnabled() { return authCacheEnabled; }
+    public int getAuthCacheSize() { return authCacheSize; }
+    public long getAuthCacheTtlMillis() { return authCacheTtlMillis; }
+    public int getBcryptThreads() { return bcryptThreads; }
+    public int getBcryptQueueSize() { return bcryptQueueSize; }
+    public long getBcryptMaxWaitMillis() { return bcryptMaxWaitMillis; }
+    public int getBcryptCost() { return bcryptCost; }
+    public int getUsersDatabasePoolSize() { return usersDatabasePoolSize; }
+    public long getUsersReloadMillis() { return usersReloadMillis; }
+    public int getAttrCacheSize() { return attrCacheSize; }
+    public long getAttrCacheTtlMillis() { return attrCacheTtlMillis; }
+    public int getLockStripes() { return lockStripes; }
+    public long getLockTimeoutMillis() { return lockTimeoutMillis; }
+    public boolean isIndexEnabled() { return indexEnabled; }
+    public int getIndexParallelism() { return indexParallelism; }
+    public int getIndexFindMaxResults() { return indexFindMaxResults; }
+    public int getStatMaxEntries() { return statMaxEntries; }
+    public boolean isQuotaEnabled() { return quotaEnabled; }
+    public long getQuotaFlushMillis() { return quotaFlushMillis; }
+    public long getQuotaReconcileMillis() { return quotaReconcileMillis; }
+    public long getQuotaReconcileRate() { return quotaReconcileRate; }
+
+    /**
+     * Devuelve los listeners a arrancar. Si no se definió ftp.listeners, devuelve un único
+     * listener "default" en ftp.control.port con el comportamiento TLS clásico.
+     *
+     * @return Lista inmutable de listeners
+     */
+    public List<ListenerConfig> getListeners() {
+        if (!listeners.isEmpty()) {
+            return Collections.unmodifiableList(listeners);
+        }
+        ListenerConfig.TlsMode mode = tlsRequired ? ListenerConfig.TlsMode.REQUIRED : ListenerConfig.TlsMode.EXPLICIT;
+        return Collections.singletonList(new ListenerConfig("default", "", controlPort, 50, mode, maxConnections));
+    }
 }
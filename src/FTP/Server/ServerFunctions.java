@@ -1,15 +1,27 @@
 package FTP.Server;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 import FTP.Util.FileLogger;
 import FTP.Util.Util;
@@ -19,6 +31,8 @@ import FTP.Util.Util;
  * <p>
  * Esta clase encapsula la lógica de todos los comandos FTP del servidor,
  * incluyendo operaciones de archivos, directorios y transferencias de datos.
+ * Todo el acceso al almacenamiento pasa por la {@link FileSystemView} de la sesión
+ * (ver {@link FtpFileSystem}); aquí no se usa {@code java.io.File}.
  *
  * @author Eduardo Díaz Sánchez
  * @version 1.0
@@ -28,7 +42,22 @@ public class ServerFunctions {
 	private FtpClientHandler handler;
 
 	/** Archivo/directorio pendiente para operación de renombrado (comando RNFR) */
-    private File pendingRenameFile;
+    private FtpFile pendingRenameFile;
+
+	/** Espera entre comprobaciones de ABOR durante SITE RMTREE (ms) */
+	private static final long RMTREE_POLL_MILLIS = 200;
+
+	/** Intervalo entre líneas de progreso de SITE RMTREE (ms) */
+	private static final long RMTREE_REPORT_MILLIS = 1000;
+
+	/** Ficheros por lote de cuotas y auditoría en SITE RMTREE */
+	private static final int RMTREE_BATCH = 1000;
+
+	/** Fichero origen pendiente de copia (SITE CPFR) */
+    private FtpFile pendingCopyFile;
+
+	/** Última copia en el servidor lanzada por la sesión (SITE CPTO) */
+    private volatile CopyTask copyTask;
 
 	/**
 	 * Constructor que inicializa las funciones del servidor.
@@ -40,147 +69,515 @@ public class ServerFunctions {
     }
 
 	/**
-	 * Valida que una ruta de archivo esté dentro del directorio raíz del servidor.
-	 * Previene ataques de path traversal (../).
+	 * Resuelve el path relativo al CWD del cliente (o a la raíz si empieza por '/') y valida que
+	 * quede bajo la raíz. Previene path traversal (../) y enlaces simbólicos que salen de la raíz.
 	 *
-	 * @param file Archivo a validar
-	 * @return true si el archivo está dentro del directorio raíz, false en caso contrario
+	 * @param path Argumento del comando (ruta de archivo o directorio); vacío = directorio actual
+	 * @return Entrada validada (puede no existir aún), o null si la ruta es inválida o sale de la raíz
 	 */
-	private boolean isPathSafe(File file) {
-		try {
-			File rootDir = new File(JavaFtpServer.dirRoot).getCanonicalFile();
-			File targetFile = file.getCanonicalFile();
-			return targetFile.getAbsolutePath().startsWith(rootDir.getAbsolutePath());
-		} catch (IOException e) {
-			Util.printRedColor("Error al validar path: " + e.getMessage());
+	public FtpFile resolvePath(String path) {
+		return handler.getFileSystemView().resolve(path);
+	}
+
+	/**
+	 * Valida que un nombre de archivo no contenga caracteres peligrosos.
+	 * Previene inyección de comandos y path traversal.
+	 *
+	 * @param filename Nombre de archivo a validar
+	 * @return true si el nombre es seguro, false en caso contrario
+	 */
+	private boolean isFilenameSafe(String filename) {
+		if (filename == null || filename.isEmpty()) {
 			return false;
 		}
+
+		// Rechazar nombres que contengan path separators o caracteres peligrosos
+		// Nota: & se permite ya que solo es peligroso en shells, no en filesystems
+		if (filename.contains("..") || filename.contains("/") || filename.contains("\\") ||
+			filename.contains("\0") || filename.contains("|") || filename.contains(">") ||
+			filename.contains("<")) {
+			return false;
+		}
+
+		return true;
 	}
 
 	/**
-	 * Resuelve una ruta relativa desde el directorio actual y valida que quede bajo la raíz.
+	 * Establece la conexión de datos y, solo cuando existe, envía la respuesta 150.
+	 * Si falla responde 425 y devuelve null.
 	 *
-	 * @param currentDir Directorio de trabajo actual
-	 * @param relativePath Argumento del comando (nombre de archivo o directorio)
-	 * @return File canónico validado, o null si la ruta es inválida o sale de la raíz
+	 * @param message Texto de la respuesta 150
+	 * @return Socket de datos, o null si no se pudo abrir
 	 */
-	private File resolveAndValidatePath(String currentDir, String relativePath) {
-		if (relativePath == null || relativePath.trim().isEmpty()) return null;
+	private Socket openDataConnection(String message) {
 		try {
-			File base = new File(currentDir);
-			File resolved = new File(base, relativePath).getCanonicalFile();
-			return isPathSafe(resolved) ? resolved : null;
+			Socket dataSocket = handler.getDataSocket();
+			handler.sendReply(150, message);
+			return dataSocket;
 		} catch (IOException e) {
+			handler.transferFinished();
+			handler.sendReply(425, "Can't open data connection.");
+			Util.printRedColor("No se pudo abrir la conexión de datos: " + e.getMessage());
 			return null;
 		}
 	}
 
 	/**
-	 * Resuelve el path relativo al CWD del cliente y valida que quede bajo la raíz.
-	 * Usado por SIZE y MDTM.
+	 * Da formato a una entrada de listado a partir de sus atributos (una sola lectura por entrada).
+	 */
+	private interface EntryFormatter {
+		void format(StringBuilder line, FtpFile entry, BasicFileAttributes attrs);
+	}
+
+	/**
+	 * Maneja el comando LIST para listar archivos y directorios.
+	 * Envía la lista del directorio (actual o indicado) por la conexión de datos en streaming: DirectoryStream,
+	 * una lectura de atributos por entrada, línea reutilizable, fechas cacheadas y buffer de bytes grande.
+	 * Con la opción -R el listado es recursivo (estilo {@code ls -lR}) en la misma conexión.
 	 *
-	 * @param relativePath Argumento del comando (ruta de archivo)
-	 * @return File canónico validado, o null si la ruta es inválida
+	 * @param arg Opciones estilo ls (-a, -l, -R...) y/o ruta, opcionales
 	 */
-	public File resolvePathToFile(String relativePath) {
-		return resolveAndValidatePath(handler.getCurrentDirectory(), relativePath);
+    protected void handleListCommand(String arg) {
+		ListArgs args = parseListArgs(arg);
+		FtpFile dir = resolveListTarget(args);
+		if (dir == null) return;
+		ListFormatter.DateCache dates = new ListFormatter.DateCache(System.currentTimeMillis());
+		if (args.recursive) {
+			sendRecursiveListing(dir, true,
+				(line, name, rel, attrs) -> ListFormatter.appendListLine(line, attrs, name, dates));
+			return;
+		}
+		sendDirectoryListing(dir, "LIST", "Here comes the directory listing.", "Directory send OK.",
+			(line, entry, attrs) -> ListFormatter.appendListLine(line, attrs, entry.getName(), dates));
 	}
 
 	/**
-	 * Valida que un nombre de archivo no contenga caracteres peligrosos.
-	 * Previene inyección de comandos y path traversal.
+	 * Maneja el comando NLST: solo nombres, uno por línea. Con -R devuelve las rutas
+	 * relativas de todo el subárbol en una única conexión de datos.
 	 *
-	 * @param filename Nombre de archivo a validar
-	 * @return true si el nombre es seguro, false en caso contrario
+	 * @param arg Opciones (-R) y/o ruta, opcionales
 	 */
-	private boolean isFilenameSafe(String filename) {
-		if (filename == null || filename.isEmpty()) {
-			return false;
+	protected void handleNlstCommand(String arg) {
+		ListArgs args = parseListArgs(arg);
+		FtpFile dir = resolveListTarget(args);
+		if (dir == null) return;
+		if (args.recursive) {
+			sendRecursiveListing(dir, false, (line, name, rel, attrs) -> line.append(rel));
+			return;
 		}
+		sendDirectoryListing(dir, "NLST", "Here comes the name list.", "Directory send OK.",
+			(line, entry, attrs) -> line.append(entry.getName()));
+	}
 
-		// Rechazar nombres que contengan path separators o caracteres peligrosos
-		// Nota: & se permite ya que solo es peligroso en shells, no en filesystems
-		if (filename.contains("..") || filename.contains("/") || filename.contains("\\") ||
-			filename.contains("\0") || filename.contains("|") || filename.contains(">") ||
-			filename.contains("<")) {
-			return false;
+	/**
+	 * Maneja STAT &lt;ruta&gt;: el mismo listado que LIST, pero como respuesta 213 multilínea por el canal de
+	 * control, sin conexión de datos. Solo para directorios pequeños: por encima de
+	 * {@code ftp.stat.max.entries} entradas se responde 450 para que el cliente use LIST (con 0, siempre).
+	 * Si la caché de listados tiene el directorio, se reutiliza su payload de LIST.
+	 *
+	 * @param arg Opciones estilo ls (se ignoran, incluida -R) y ruta
+	 */
+	protected void handleStatListCommand(String arg) {
+		int max = JavaFtpServer.getStatMaxEntries();
+		if (max == 0) {
+			handler.sendReply(450, "STAT listings are disabled; use LIST over a data connection.");
+			return;
+		}
+		ListArgs args = parseListArgs(arg);
+		FtpFile target = resolvePath(args.path);
+		BasicFileAttributes attrs;
+		try {
+			if (target == null) throw new IOException();
+			attrs = target.stat();
+		} catch (IOException e) {
+			handler.sendReply(450, "File or directory not found.");
+			return;
 		}
+		ListFormatter.DateCache dates = new ListFormatter.DateCache(System.currentTimeMillis());
+		List<String> lines = new ArrayList<>();
+		StringBuilder line = new StringBuilder(128);
+		if (!attrs.isDirectory()) {
+			ListFormatter.appendListLine(line, attrs, target.getName(), dates);
+			lines.add(line.toString());
+		} else {
+			ListingCache cache = JavaFtpServer.getListingCache();
+			byte[] cached = cache != null ? cache.get(target.getCacheKey(), "LIST") : null;
+			if (cached != null) {
+				String payload = new String(cached, StandardCharsets.UTF_8);
+				for (String l : payload.split("\r\n")) {
+					if (l.isEmpty()) continue;
+					if (lines.size() >= max) {
+						replyStatTooLarge(max);
+						return;
+					}
+					lines.add(l);
+				}
+			} else {
+				try (DirectoryStream<FtpFile> entries = target.list()) {
+					for (FtpFile entry : entries) {
+						BasicFileAttributes entryAttrs;
+						try {
+							entryAttrs = entry.stat();
+						} catch (IOException e) {
+							continue;
+						}
+						if (lines.size() >= max) {
+							replyStatTooLarge(max);
+							return;
+						}
+						line.setLength(0);
+						ListFormatter.appendListLine(line, entryAttrs, entry.getName(), dates);
+						lines.add(line.toString());
+					}
+				} catch (IOException e) {
+					handler.sendReply(450, "Directory cannot be read.");
+					return;
+				}
+			}
+		}
+		handler.sendReplyMultilineStart(213, "Status of " + target.getVirtualPath() + ":");
+		for (String l : lines) handler.sendReplyMultilineBody(l);
+		handler.sendReply(213, "End of status (" + lines.size() + " entries).");
+	}
 
-		return true;
+	private void replyStatTooLarge(int max) {
+		handler.sendReply(450, "Directory has more than " + max + " entries; use LIST over a data connection.");
 	}
 
 	/**
-	 * Maneja el comando LIST para listar archivos y directorios.
-	 * Envía la lista de archivos del directorio actual al cliente a través de la conexión de datos.
+	 * Fija la fecha de modificación de un fichero o directorio (MFMT, MFF modify=).
+	 * Responde 213 con la fecha aplicada, en el formato del comando.
+	 *
+	 * @param command Comando (auditoría)
+	 * @param time Fecha YYYYMMDDHHMMSS[.sss] en UTC
+	 * @param name Ruta
+	 * @param factPrefix Prefijo de la respuesta ("Modify=" en MFMT, "modify=" en MFF)
+	 */
+	protected void handleSetModifiedCommand(String command, String time, String name, String factPrefix) {
+		long millis = parseMlsxTime(time);
+		if (millis == Long.MIN_VALUE) {
+			handler.sendReply(501, "Invalid time value: " + time);
+			return;
+		}
+
+		if (!isFilenameSafe(name)) {
+			handler.sendReply(553, "File name not allowed.");
+			Util.printRedColor("Nombre de archivo peligroso rechazado: " + name);
+			return;
+		}
+
+		FtpFile file = resolvePath(name);
+		if (file == null) {
+			FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", command + " " + name);
+			handler.sendReply(550, "Access denied. Path outside root directory.");
+			Util.printRedColor("Intento de path traversal en " + command + ": " + name);
+			return;
+		}
+
+		PathLockManager.Held lock = JavaFtpServer.getPathLocks().write(file);
+		if (lock == null) {
+			replyLockTimeout(command, name);
+			return;
+		}
+		try {
+			if (!file.exists()) {
+				handler.sendReply(550, "File not found.");
+				return;
+			}
+			file.setLastModified(millis);
+			notifyChanged(file, false);
+			FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), command, time + " " + name);
+			handler.sendReply(213, factPrefix + ListFormatter.MLSX_TIME.format(Instant.ofEpochMilli(millis)) + "; " + name);
+		} catch (IOException e) {
+			handler.sendReply(550, "Could not change modification time.");
+		} finally {
+			lock.close();
+		}
+	}
+
+	/** YYYYMMDDHHMMSS estricto: una fecha inexistente (31 de febrero) es un error, no se ajusta */
+	private static final DateTimeFormatter MLSX_TIME_STRICT =
+		DateTimeFormatter.ofPattern("uuuuMMddHHmmss").withResolverStyle(ResolverStyle.STRICT);
+
+	/**
+	 * Interpreta una fecha YYYYMMDDHHMMSS[.sss] en UTC.
+	 *
+	 * @return Milisegundos, o Long.MIN_VALUE si no es válida
+	 */
+	private static long parseMlsxTime(String time) {
+		String t = time.trim();
+		int millis = 0;
+		int dot = t.indexOf('.');
+		try {
+			if (dot >= 0) {
+				String frac = t.substring(dot + 1);
+				if (frac.isEmpty() || !frac.chars().allMatch(Character::isDigit)) return Long.MIN_VALUE;
+				millis = Integer.parseInt((frac + "00").substring(0, 3));
+				t = t.substring(0, dot);
+			}
+			if (t.length() != 14 || !t.chars().allMatch(Character::isDigit)) return Long.MIN_VALUE;
+			return LocalDateTime.parse(t, MLSX_TIME_STRICT).toInstant(ZoneOffset.UTC).toEpochMilli() + millis;
+		} catch (DateTimeParseException | NumberFormatException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Maneja SITE FIND &lt;glob&gt;: busca en el índice de nombres bajo el directorio de trabajo, sin tocar
+	 * el disco. Si el patrón contiene '/' se compara con la ruta relativa al directorio de trabajo; si no,
+	 * con el nombre de cada entrada. Responde 200 multilínea con las rutas virtuales.
+	 *
+	 * @param glob Patrón con *, ? y [...]
+	 */
+	protected void handleFindCommand(String glob) {
+		FilenameIndex index = JavaFtpServer.getFilenameIndex();
+		if (index == null) {
+			handler.sendReply(502, "SITE FIND not available (filename index disabled).");
+			return;
+		}
+		if (glob == null || glob.trim().isEmpty()) {
+			handler.sendReply(501, "Syntax error in parameters or arguments.");
+			return;
+		}
+		FtpFile cwd = handler.getFileSystemView().getWorkingDirectory();
+		long start = System.nanoTime();
+		FilenameIndex.Result result = index.find(cwd, glob.trim(), JavaFtpServer.getFindMaxResults());
+		long micros = (System.nanoTime() - start) / 1000;
+		handler.sendReplyMultilineStart(200, "Matches for " + glob.trim() + " under " + cwd.getVirtualPath() + ":");
+		for (String path : result.paths) handler.sendReplyMultilineBody(" " + path);
+		handler.sendReply(200, result.paths.size() + " matches" + (result.truncated ? " (truncated)" : "")
+			+ ", " + result.visited + " entries scanned in " + micros + " us.");
+	}
+
+	/** Argumentos de LIST/NLST: opciones estilo ls y ruta opcional. */
+	private static final class ListArgs {
+		boolean recursive;
+		String path;
+	}
+
+	private static ListArgs parseListArgs(String arg) {
+		ListArgs args = new ListArgs();
+		if (arg == null) return args;
+		String rest = arg.trim();
+		// Opciones al principio ("-la", "-R"); el resto es la ruta (puede contener espacios)
+		while (rest.startsWith("-")) {
+			int sp = rest.indexOf(' ');
+			String opt = sp < 0 ? rest : rest.substring(0, sp);
+			if (opt.indexOf('R') >= 0) args.recursive = true;
+			rest = sp < 0 ? "" : rest.substring(sp + 1).trim();
+		}
+		args.path = rest.isEmpty() ? null : rest;
+		return args;
+	}
+
+	/**
+	 * Resuelve el directorio a listar y responde 550 si no es válido.
+	 *
+	 * @return Directorio validado bajo la raíz, o null si ya se respondió con error
 	 */
-    protected void handleListCommand() {
-    	Socket dataSocket = null;
-    	PrintWriter dataOut = null;
-    	boolean transferOk = false;
-    	
-    	handler.sendReply(150, "Here comes the directory listing.");
-    	
+	private FtpFile resolveListTarget(ListArgs args) {
+		FtpFile dir = resolvePath(args.path);
+		if (dir == null || !dir.isDirectory()) {
+			handler.sendReply(550, "Directory not found.");
+			return null;
+		}
+		return dir;
+	}
+
+	/**
+	 * Envía un listado recursivo por una única conexión de datos usando el {@link RecursiveLister}
+	 * compartido (profundidad y número de entradas limitados por ServerConfig).
+	 */
+	private void sendRecursiveListing(FtpFile dir, boolean sectionHeaders, RecursiveLister.LineFormatter formatter) {
+		Socket dataSocket = openDataConnection("Here comes the recursive listing.");
+		if (dataSocket == null) return;
+
+		RecursiveLister.Result result = null;
 		try {
-			dataSocket = handler.getDataSocket();
-			dataOut = new PrintWriter(dataSocket.getOutputStream(), true);
-			
-			File dir = new File(handler.getCurrentDirectory());
-			File[] files = dir.listFiles();
-			
-	        if (files == null) {
-	        	handler.sendReply(550, "Directory not found.");
-	            return;
-	        }
-
-	        SimpleDateFormat recentFormat = new SimpleDateFormat("MMM dd HH:mm");
-	        SimpleDateFormat oldFormat = new SimpleDateFormat("MMM dd  yyyy");
-	        long currentTime = System.currentTimeMillis();
-	        long sixMonthsInMillis = 6L * 30L * 24L * 60L * 60L * 1000L;
-
-	        for (File file : files) {
-	            String permissions = file.isDirectory() ? "drwxr-xr-x" : "-rw-r--r--";
-	            long size = file.length();
-	            long lastModified = file.lastModified();
-
-	            String date;
-	            if (currentTime - lastModified < sixMonthsInMillis && lastModified <= currentTime) {
-	                date = recentFormat.format(new Date(lastModified));
-	            } else {
-	                date = oldFormat.format(new Date(lastModified));
-	            }
-
-	            String line = String.format("%s 1 ftp ftp %d %s %s",
-	                    permissions, size, date, file.getName());
-	            dataOut.println(line);
-	        }
-	        transferOk = true;
+			ListingSink sink = new ListingSink(dataSocket.getOutputStream());
+			result = JavaFtpServer.getRecursiveLister().walk(dir, sectionHeaders, formatter, sink, handler::transferProgress);
+		} catch (IOException e) {
+			handler.sendReply(426, "Connection closed; transfer aborted.");
+		} finally {
+			handler.transferFinished();
+			try {
+				dataSocket.close();
+			} catch (IOException e) {
+				Util.printRedColor("Error al cerrar socket de datos: " + e.getMessage());
+			}
+		}
+		if (result != null) {
+			handler.sendReply(226, result.truncated
+				? "Listing truncated after " + result.entries + " entries (server limit)."
+				: "Directory send OK (" + result.entries + " entries).");
+		}
+	}
 
+	/**
+	 * Maneja el comando MLSD (RFC 3659): listado legible por máquina del directorio indicado
+	 * (o del actual) por la conexión de datos. Cada entrada sale de una única lectura de atributos
+	 * y se recorre con un DirectoryStream sin materializar el directorio completo.
+	 *
+	 * @param pathArg Directorio a listar (opcional)
+	 */
+	protected void handleMlsdCommand(String pathArg) {
+		FtpFile dir = resolvePath(pathArg);
+		if (dir == null || !dir.exists()) {
+			handler.sendReply(550, "Directory not found or access denied.");
+			return;
+		}
+		if (!dir.isDirectory()) {
+			handler.sendReply(501, "Not a directory.");
+			return;
+		}
+		Set<String> facts = handler.getMlstFacts();
+		UserProfile profile = handler.getCurrentProfile();
+		// "perm" depende del perfil: cada combinación perfil/hechos es una variante distinta en caché
+		String variant = "MLSD:" + profile + ":" + String.join(";", facts);
+		sendDirectoryListing(dir, variant, "Here comes the machine-readable listing.", "MLSD complete.",
+			(line, entry, attrs) -> {
+				ListFormatter.appendMlsxFacts(line, attrs, profile, facts);
+				line.append(entry.getName());
+			});
+	}
+
+	/**
+	 * Envía el listado de un directorio por la conexión de datos. Si hay caché de listados
+	 * y contiene la variante pedida, se envía el payload pre-renderizado; si no, se genera en
+	 * streaming y se captura una copia para la caché.
+	 *
+	 * @param dir Directorio (ya validado)
+	 * @param variant Formato del listado para la clave de caché
+	 * @param openMessage Texto de la respuesta 150
+	 * @param doneMessage Texto de la respuesta 226
+	 * @param formatter Formato de cada entrada
+	 */
+	private void sendDirectoryListing(FtpFile dir, String variant, String openMessage, String doneMessage, EntryFormatter formatter) {
+		ListingCache cache = JavaFtpServer.getListingCache();
+		String key = cache != null ? dir.getCacheKey() : null;
+		byte[] cached = cache != null ? cache.get(key, variant) : null;
+
+		Socket dataSocket = openDataConnection(openMessage);
+		if (dataSocket == null) return;
+
+		boolean transferOk = false;
+		try {
+			OutputStream raw = dataSocket.getOutputStream();
+			if (cached != null) {
+				raw.write(cached);
+				raw.flush();
+				handler.transferProgress();
+			} else if (cache == null) {
+				writeDirectoryEntries(dir, new ListingSink(raw), formatter);
+			} else {
+				ListingCache.Render render = cache.beginRender(key);
+				ListingCache.Capture capture = new ListingCache.Capture(raw, cache.getMaxEntryBytes());
+				byte[] payload = null;
+				try {
+					writeDirectoryEntries(dir, new ListingSink(capture), formatter);
+					payload = capture.toByteArray();
+				} finally {
+					cache.finishRender(render, variant, payload);
+				}
+			}
+			transferOk = true;
 		} catch (IOException e) {
 			handler.sendReply(426, "Connection closed; transfer aborted.");
-			
 		} finally {
-			if (dataOut != null) {
-				dataOut.flush();
-				dataOut.close();
+			handler.transferFinished();
+			try {
+				dataSocket.close();
+			} catch (IOException e) {
+				Util.printRedColor("Error al cerrar socket de datos: " + e.getMessage());
 			}
-	        if (dataSocket != null) {
-	            try {
-	                dataSocket.close();
-	            } catch (IOException e) {
-	            	Util.printRedColor("Error al cerrar socket de datos: " + e.getMessage());
-	            }
-	        }
-	        if (transferOk) {
-	        	handler.sendReply(226, "Directory send OK.");
-	        }
+		}
+		if (transferOk) {
+			handler.sendReply(226, doneMessage);
 		}
 	}
-    
-    protected void handleUploadFileCommand(String filename) {
+
+	/**
+	 * Recorre el directorio con un DirectoryStream y escribe una línea por entrada.
+	 */
+	private void writeDirectoryEntries(FtpFile dir, ListingSink sink, EntryFormatter formatter) throws IOException {
+		try (DirectoryStream<FtpFile> entries = dir.list()) {
+			StringBuilder line = new StringBuilder(128);
+			for (FtpFile entry : entries) {
+				BasicFileAttributes attrs;
+				try {
+					attrs = entry.stat();
+				} catch (IOException e) {
+					continue; // entrada borrada durante el listado o enlace roto
+				}
+				line.setLength(0);
+				formatter.format(line, entry, attrs);
+				sink.writeLine(line);
+				handler.transferProgress();
+			}
+		}
+		sink.flush();
+	}
+
+	/**
+	 * Punto único de notificación de cambios en el árbol servido: invalida las cachés afectadas.
+	 *
+	 * @param changed Fichero o directorio creado, modificado, borrado o renombrado
+	 * @param tree true si {@code changed} es un directorio cuyo subárbol entero deja de ser válido
+	 */
+	private void notifyChanged(FtpFile changed, boolean tree) {
+		changed.getFileSystem().changed(changed, tree);
+		FilenameIndex index = JavaFtpServer.getFilenameIndex();
+		if (index != null) index.changed(changed, tree);
+		AttributeCache attrs = JavaFtpServer.getAttributeCache();
+		if (attrs != null) attrs.invalidate(changed.getCacheKey(), tree);
+		ListingCache cache = JavaFtpServer.getListingCache();
+		if (cache == null) return;
+		FtpFile parent = changed.getParent();
+		if (parent != null) cache.invalidate(parent.getCacheKey());
+		if (tree) cache.invalidateTree(changed.getCacheKey());
+	}
+
+	/**
+	 * Maneja el comando MLST (RFC 3659): hechos de un único fichero o directorio por el canal de control.
+	 *
+	 * @param pathArg Ruta (opcional; por defecto el directorio actual)
+	 */
+	protected void handleMlstCommand(String pathArg) {
+		FtpFile target = resolvePath(pathArg);
+		if (target == null) {
+			handler.sendReply(550, "File not found or access denied.");
+			return;
+		}
+		BasicFileAttributes attrs;
+		try {
+			attrs = target.stat();
+		} catch (IOException e) {
+			handler.sendReply(550, "File not found or access denied.");
+			return;
+		}
+		StringBuilder line = new StringBuilder(128).append(' ');
+		ListFormatter.appendMlsxFacts(line, attrs, handler.getCurrentProfile(), handler.getMlstFacts());
+		line.append(target.getVirtualPath());
+		handler.sendReplyMultilineStart(250, "Listing " + (pathArg == null ? target.getVirtualPath() : pathArg.trim()));
+		handler.sendReplyMultilineBody(line.toString());
+		handler.sendReply(250, "End");
+	}
+
+	/**
+	 * Maneja STOR y APPE: recibe un fichero por la conexión de datos.
+	 * Con cuotas activas, la subida se rechaza con 552 antes de abrir la conexión si no cabe
+	 * (usando el tamaño anunciado con ALLO si lo hay) y se aborta con 552 si la supera a mitad.
+	 *
+	 * @param filename Nombre del fichero destino
+	 * @param append true para APPE (añadir al final), false para STOR (sobrescribir)
+	 */
+    protected void handleUploadFileCommand(String filename, boolean append) {
         Socket dataSocket = null;
-        FileOutputStream fos = null;
+        WritableByteChannel out = null;
         InputStream dataIn;
-        File file;
+        FtpFile file;
+        String command = append ? "APPE" : "STOR";
+        long sizeHint = handler.takeAllocationHint();
 
         if (filename == null || filename.trim().isEmpty()) {
         	handler.sendReply(501, "Syntax error in parameters or arguments.");
@@ -194,55 +591,128 @@ public class ServerFunctions {
             return;
         }
 
-        FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "STOR", filename);
-
-        handler.sendReply(150, "Opening data connection.");
-
-        try {
-            dataSocket = handler.getDataSocket(); // Establece la conexión de datos (activo o pasivo)
-            dataIn = dataSocket.getInputStream();
+        // Construye la ruta de destino y valida que esté dentro del directorio raíz
+        file = resolvePath(filename);
+        if (file == null) {
+            FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", command + " " + filename);
+            handler.sendReply(550, "Access denied. Path outside root directory.");
+            Util.printRedColor("Intento de path traversal en upload: " + filename);
+            return;
+        }
 
-            // Construye la ruta de destino
-            file = new File(handler.getCurrentDirectory(), filename);
+        // Escritor exclusivo: ni otra subida ni lecturas del mismo fichero mientras tanto
+        PathLockManager.Held lock = JavaFtpServer.getPathLocks().write(file);
+        if (lock == null) {
+            replyLockTimeout(command, filename);
+            return;
+        }
 
-            // Validar que el archivo esté dentro del directorio raíz
-            if (!isPathSafe(file)) {
-                FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "STOR " + filename);
-                handler.sendReply(550, "Access denied. Path outside root directory.");
-                Util.printRedColor("Intento de path traversal en upload: " + file.getAbsolutePath());
+        // Cuota: decidir antes de recibir nada
+        QuotaManager quotas = JavaFtpServer.getQuotaManager();
+        QuotaManager.Upload upload = null;
+        if (quotas != null) {
+            upload = quotas.beginUpload(handler.getCurrentUsername(), file, append, sizeHint);
+            if (upload == null) {
+                lock.close();
+                FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "QUOTA_EXCEEDED", command + " " + filename);
+                handler.sendReply(552, "Requested file action aborted. Exceeded storage allocation.");
                 return;
             }
+        }
+
+        FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), command, filename);
+
+        dataSocket = openDataConnection("Opening data connection.");
+        if (dataSocket == null) {
+            if (upload != null) upload.cancel();
+            lock.close();
+            return;
+        }
 
-            fos = new FileOutputStream(file);
+        boolean opened = false;
+        boolean overQuota = false;
+        try {
+            dataIn = dataSocket.getInputStream();
+
+            out = file.openWrite(append);
+            opened = true;
             
             byte[] buffer = new byte[4096];
+            ByteBuffer chunk = ByteBuffer.wrap(buffer);
             int bytesRead;
             while ((bytesRead = dataIn.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
+                if (upload != null && !upload.consume(bytesRead)) {
+                    overQuota = true;
+                    break;
+                }
+                chunk.clear().limit(bytesRead);
+                while (chunk.hasRemaining()) out.write(chunk);
+                handler.transferProgress();
             }
             
-            fos.flush();
-            handler.sendReply(226, "Transfer complete.");
+            out.close();
+            out = null;
+            if (overQuota) {
+                quotas.recordRejected();
+                FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "QUOTA_EXCEEDED", command + " " + filename);
+                handler.sendReply(552, "Requested file action aborted. Exceeded storage allocation.");
+            } else {
+                handler.sendReply(226, "Transfer complete.");
+            }
             
         } catch (IOException e) {
         	handler.sendReply(426, "Connection closed; transfer aborted.");
         	Util.printRedColor("\nError en upload: " + e.getMessage());
             
         } finally {
+            handler.transferFinished();
             try {
-                if (fos != null) fos.close();
+                if (out != null) out.close();
                 if (dataSocket != null) dataSocket.close();
             } catch (IOException e) {
             	Util.printRedColor("\nError al cerrar stream/socket: " + e.getMessage());
             }
+            if (upload != null) {
+                if (!opened) {
+                    // No se llegó a abrir el fichero: ni bytes ni cambio de propietario
+                    upload.cancel();
+                } else if (overQuota && !append) {
+                    // STOR incompleto por cuota: no se deja un fichero truncado
+                    try {
+                        file.delete();
+                        upload.abortRemoved();
+                    } catch (IOException e) {
+                        upload.finish(currentSize(file));
+                    }
+                } else {
+                    upload.finish(currentSize(file));
+                }
+            }
+            if (opened) notifyChanged(file, false);
+            lock.close();
+        }
+    }
+
+    /** Responde 450 cuando otra sesión retiene la ruta más allá de {@code ftp.lock.timeout.ms}. */
+    private void replyLockTimeout(String command, String name) {
+        FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "LOCK_TIMEOUT", command + " " + name);
+        handler.sendReply(450, "Requested file action not taken. File busy.");
+    }
+
+    /** Tamaño actual de un fichero, 0 si no existe. */
+    private static long currentSize(FtpFile file) {
+        try {
+            return file.stat().size();
+        } catch (IOException e) {
+            return 0;
         }
     }
     
     protected void handleDownloadFileCommand(String filename) {
         Socket dataSocket = null;
-        FileInputStream fis = null;
+        SeekableByteChannel in = null;
         OutputStream dataOut;
-        File file;
+        FtpFile file;
 
         if (filename == null || filename.trim().isEmpty()) {
             handler.sendReply(501, "Syntax error in parameters or arguments.");
@@ -256,35 +726,56 @@ public class ServerFunctions {
             return;
         }
 
-        // Construir la ruta del archivo a descargar
-        file = new File(handler.getCurrentDirectory(), filename);
-
-        // Validar que el archivo esté dentro del directorio raíz
-        if (!isPathSafe(file)) {
+        // Construir la ruta del archivo a descargar y validar que esté dentro del directorio raíz
+        file = resolvePath(filename);
+        if (file == null) {
             FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "RETR " + filename);
             handler.sendReply(550, "Access denied. Path outside root directory.");
-            Util.printRedColor("Intento de path traversal en download: " + file.getAbsolutePath());
+            Util.printRedColor("Intento de path traversal en download: " + filename);
             return;
         }
 
-        if (!file.exists() || !file.isFile()) {
+        // Lectura compartida con otras RETR; espera a que termine una escritura en curso
+        PathLockManager.Held lock = JavaFtpServer.getPathLocks().read(file);
+        if (lock == null) {
+            replyLockTimeout("RETR", filename);
+            return;
+        }
+
+        try {
+            in = file.isFile() ? file.openRead() : null;
+        } catch (IOException e) {
+            in = null;
+        }
+        if (in == null) {
+            lock.close();
             handler.sendReply(550, "File not found.");
             return;
         }
         
-        // Indicar que se va a abrir la conexión de datos para descargar el archivo
-        handler.sendReply(150, "Opening data connection.");
-        
+        // Abrir la conexión de datos; 150 solo se envía cuando ya está establecida
+        dataSocket = openDataConnection("Opening data connection.");
+        if (dataSocket == null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Util.printRedColor("Error al cerrar fichero: " + e.getMessage());
+            }
+            lock.close();
+            return;
+        }
+
         try {
-            dataSocket = handler.getDataSocket();
-            fis = new FileInputStream(file);
             // Obtener el stream de salida del socket de datos
             dataOut = dataSocket.getOutputStream();
             
             byte[] buffer = new byte[4096];
+            ByteBuffer chunk = ByteBuffer.wrap(buffer);
             int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
+            while ((bytesRead = in.read(chunk)) != -1) {
                 dataOut.write(buffer, 0, bytesRead);
+                chunk.clear();
+                handler.transferProgress();
             }
             
             dataOut.flush();
@@ -296,17 +787,19 @@ public class ServerFunctions {
             Util.printRedColor("Error en download: " + e.getMessage());
             
         } finally {
+            handler.transferFinished();
             try {
-                if (fis != null) fis.close();
+                in.close();
                 if (dataSocket != null) dataSocket.close();
             } catch (IOException e) {
             	Util.printRedColor("Error al cerrar stream/socket: " + e.getMessage());
             }
+            lock.close();
         }
     }
     
     protected void handleDeleteFileCommand(String filename) {
-    	File file;
+    	FtpFile file;
 
         if (filename == null || filename.trim().isEmpty()) {
             handler.sendReply(501, "Syntax error in parameters or arguments.");
@@ -320,16 +813,30 @@ public class ServerFunctions {
             return;
         }
 
-        file = new File(handler.getCurrentDirectory(), filename);
-
         // Validar que el archivo esté dentro del directorio raíz
-        if (!isPathSafe(file)) {
+        file = resolvePath(filename);
+        if (file == null) {
             FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "DELE " + filename);
             handler.sendReply(550, "Access denied. Path outside root directory.");
-            Util.printRedColor("Intento de path traversal en delete: " + file.getAbsolutePath());
+            Util.printRedColor("Intento de path traversal en delete: " + filename);
             return;
         }
 
+        PathLockManager.Held lock = JavaFtpServer.getPathLocks().write(file);
+        if (lock == null) {
+            replyLockTimeout("DELE", filename);
+            return;
+        }
+
+        try {
+            deleteLocked(file, filename);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** DELE con el lock de escritura de la ruta ya tomado. */
+    private void deleteLocked(FtpFile file, String filename) {
         // Verificar si el archivo existe y no es un directorio
         if (!file.exists() || !file.isFile()) {
             handler.sendReply(550, "File not found.");
@@ -338,15 +845,19 @@ public class ServerFunctions {
 
         FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "DELE", filename);
 
-        if (file.delete()) {
+        try {
+            file.delete();
+            QuotaManager quotas = JavaFtpServer.getQuotaManager();
+            if (quotas != null) quotas.recordDelete(file);
+            notifyChanged(file, false);
             handler.sendReply(250, "File deleted successfully.");
-        } else {
+        } catch (IOException e) {
             handler.sendReply(450, "File deletion failed.");
         }
     }
     
     protected void handleCreateDirectory(String dirName) {
-    	File newDir;
+    	FtpFile newDir;
 
         if (dirName == null || dirName.trim().isEmpty()) {
             handler.sendReply(501, "Syntax error in parameters or arguments.");
@@ -360,13 +871,12 @@ public class ServerFunctions {
             return;
         }
 
-        newDir = new File(handler.getCurrentDirectory(), dirName);
-
         // Validar que el directorio esté dentro del directorio raíz
-        if (!isPathSafe(newDir)) {
+        newDir = resolvePath(dirName);
+        if (newDir == null) {
             FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "MKD " + dirName);
             handler.sendReply(550, "Access denied. Path outside root directory.");
-            Util.printRedColor("Intento de path traversal en MKD: " + newDir.getAbsolutePath());
+            Util.printRedColor("Intento de path traversal en MKD: " + dirName);
             return;
         }
 
@@ -377,15 +887,19 @@ public class ServerFunctions {
 
         FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "MKD", dirName);
 
-        if (newDir.mkdirs()) {
+        try {
+            newDir.mkdir();
+            notifyChanged(newDir, false);
             handler.sendReply(257, "\"" + dirName + "\" directory created successfully.");
-        } else {
+        } catch (FileAlreadyExistsException e) {
+            handler.sendReply(550, "Directory already exists.");
+        } catch (IOException e) {
             handler.sendReply(550, "Failed to create directory.");
         }
     }
     
     protected void handleDeleteDirectoryCommand(String dirName) {
-    	File dir;
+    	FtpFile dir;
 
         if (dirName == null || dirName.trim().isEmpty()) {
             handler.sendReply(501, "Syntax error in parameters or arguments.");
@@ -399,13 +913,12 @@ public class ServerFunctions {
             return;
         }
 
-        dir = new File(handler.getCurrentDirectory(), dirName);
-
         // Validar que el directorio esté dentro del directorio raíz
-        if (!isPathSafe(dir)) {
+        dir = resolvePath(dirName);
+        if (dir == null) {
             FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "RMD " + dirName);
             handler.sendReply(550, "Access denied. Path outside root directory.");
-            Util.printRedColor("Intento de path traversal en RMD: " + dir.getAbsolutePath());
+            Util.printRedColor("Intento de path traversal en RMD: " + dirName);
             return;
         }
 
@@ -417,17 +930,114 @@ public class ServerFunctions {
 
         FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "RMD", dirName);
 
-        // Intentar eliminar el directorio
-        // File.delete() sólo elimina directorios vacíos
-        if (dir.delete()) {
+        // Intentar eliminar el directorio (sólo se eliminan directorios vacíos)
+        try {
+            dir.delete();
+            QuotaManager quotas = JavaFtpServer.getQuotaManager();
+            if (quotas != null) quotas.recordDeleteTree(dir);
+            notifyChanged(dir, true);
             handler.sendReply(250, "Directory deleted successfully.");
-        } else {
+        } catch (DirectoryNotEmptyException e) {
+            handler.sendReply(450, "Directory deletion failed: directory not empty.");
+        } catch (IOException e) {
             handler.sendReply(450, "Directory deletion failed.");
         }
     }
     
+	/**
+	 * Maneja SITE RMTREE: borra un directorio con todo su contenido.
+	 * <p>
+	 * El {@link TreeDeleter} borra en paralelo y de abajo arriba; mientras, la sesión envía el progreso como
+	 * respuesta preliminar 150 multilínea, libera cuotas y audita por lotes y atiende ABOR (426 para RMTREE
+	 * y 226 para ABOR, como en una transferencia abortada). Lo ya borrado antes de ABOR no se recupera.
+	 *
+	 * @param dirName Directorio a borrar (no puede ser la raíz)
+	 */
+    protected void handleRemoveTreeCommand(String dirName) {
+    	FtpFile dir;
+
+        if (dirName == null || dirName.trim().isEmpty()) {
+            handler.sendReply(501, "Syntax error in parameters or arguments.");
+            return;
+        }
+
+        if (!isFilenameSafe(dirName)) {
+            handler.sendReply(553, "Directory name not allowed.");
+            Util.printRedColor("Nombre de directorio peligroso rechazado: " + dirName);
+            return;
+        }
+
+        dir = resolvePath(dirName);
+        if (dir == null) {
+            FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "RMTREE " + dirName);
+            handler.sendReply(550, "Access denied. Path outside root directory.");
+            Util.printRedColor("Intento de path traversal en RMTREE: " + dirName);
+            return;
+        }
+
+        if (dir.getParent() == null) {
+            handler.sendReply(550, "Refusing to delete the root directory.");
+            return;
+        }
+        if (!dir.isDirectory() || dir.isSymbolicLink()) {
+            handler.sendReply(550, "Directory not found.");
+            return;
+        }
+
+        FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "RMTREE", dir.getVirtualPath());
+
+        TreeDeleter.Job job = JavaFtpServer.getTreeDeleter().start(dir);
+        QuotaManager quotas = JavaFtpServer.getQuotaManager();
+        handler.sendReplyMultilineStart(150, "Deleting directory tree " + dir.getVirtualPath());
+        boolean aborted = false;
+        long lastReport = System.currentTimeMillis();
+        while (true) {
+            boolean done = job.await(RMTREE_POLL_MILLIS);
+            recordDeletedBatches(job, dir, quotas, done);
+            if (done) break;
+            if (!aborted && handler.pollAbort()) {
+                aborted = true;
+                job.cancel();
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastReport >= RMTREE_REPORT_MILLIS) {
+                handler.sendReplyMultilineBody(" " + job.describe());
+                handler.markActivity();
+                lastReport = now;
+            }
+        }
+        handler.sendReply(150, job.describe());
+        notifyChanged(dir, true);
+
+        String summary = job.getFiles() + " files, " + job.getDirectories() + " directories deleted";
+        FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(),
+            aborted ? "RMTREE_ABORTED" : job.getFailed() > 0 ? "RMTREE_PARTIAL" : "RMTREE_DONE",
+            dir.getVirtualPath() + ": " + summary + (job.getFailed() > 0 ? ", " + job.getFailed() + " failed (" + job.getFirstError() + ")" : ""));
+        if (aborted) {
+            handler.sendReply(426, "RMTREE aborted; " + summary + ".");
+            handler.sendReply(226, "ABOR command successful.");
+        } else if (job.getFailed() > 0) {
+            handler.sendReply(450, "Directory tree partially deleted; " + summary + ", " + job.getFailed() + " failed.");
+        } else {
+            handler.sendReply(250, "Directory tree deleted; " + summary + ".");
+        }
+    }
+
+    /** Libera cuota y audita los ficheros borrados por RMTREE en lotes; {@code all} vacía también el último lote parcial. */
+    private void recordDeletedBatches(TreeDeleter.Job job, FtpFile dir, QuotaManager quotas, boolean all) {
+        while (true) {
+            List<FtpFile> batch = job.drainDeleted(RMTREE_BATCH);
+            if (batch.isEmpty()) return;
+            if (quotas != null) quotas.recordDeleteAll(batch);
+            FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "RMTREE_BATCH",
+                dir.getVirtualPath() + ": " + batch.size() + " files (" + batch.get(0).getVirtualPath()
+                + (batch.size() > 1 ? " .. " + batch.get(batch.size() - 1).getVirtualPath() : "") + ")");
+            if (batch.size() < RMTREE_BATCH && !all) return;
+        }
+    }
+
     protected void handleRenameFromCommand(String oldName) {
-    	File file;
+    	FtpFile file;
 
         if (oldName == null || oldName.trim().isEmpty()) {
             handler.sendReply(501, "Syntax error in parameters or arguments.");
@@ -441,13 +1051,12 @@ public class ServerFunctions {
             return;
         }
 
-        file = new File(handler.getCurrentDirectory(), oldName);
-
         // Validar que el archivo esté dentro del directorio raíz
-        if (!isPathSafe(file)) {
+        file = resolvePath(oldName);
+        if (file == null) {
             FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "RNFR " + oldName);
             handler.sendReply(550, "Access denied. Path outside root directory.");
-            Util.printRedColor("Intento de path traversal en RNFR: " + file.getAbsolutePath());
+            Util.printRedColor("Intento de path traversal en RNFR: " + oldName);
             return;
         }
 
@@ -464,7 +1073,7 @@ public class ServerFunctions {
     }
     
     protected void handleRenameToCommand(String newName) {
-    	File destFile;
+    	FtpFile destFile;
 
         if (newName == null || newName.trim().isEmpty()) {
             handler.sendReply(501, "Syntax error in parameters or arguments.");
@@ -485,30 +1094,188 @@ public class ServerFunctions {
             return;
         }
 
-        destFile = new File(handler.getCurrentDirectory(), newName);
-
         // Validar que el archivo esté dentro del directorio raíz
-        if (!isPathSafe(destFile)) {
+        destFile = resolvePath(newName);
+        if (destFile == null) {
             FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "RNTO " + newName);
             handler.sendReply(550, "Access denied. Path outside root directory.");
-            Util.printRedColor("Intento de path traversal en RNTO: " + destFile.getAbsolutePath());
+            Util.printRedColor("Intento de path traversal en RNTO: " + newName);
             pendingRenameFile = null; // Limpiar estado
             return;
         }
 
         FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "RNTO", newName);
 
+        // Origen y destino en exclusiva (orden canónico dentro del gestor de locks)
+        PathLockManager.Held lock = JavaFtpServer.getPathLocks().write(pendingRenameFile, destFile);
+        if (lock == null) {
+            replyLockTimeout("RNTO", newName);
+            pendingRenameFile = null;
+            return;
+        }
+
         // Intentar renombrar
-        if (pendingRenameFile.renameTo(destFile)) {
+        try {
+            boolean directory = pendingRenameFile.isDirectory();
+            pendingRenameFile.rename(destFile);
+            QuotaManager quotas = JavaFtpServer.getQuotaManager();
+            if (quotas != null) quotas.recordRename(pendingRenameFile, destFile, directory);
+            notifyChanged(pendingRenameFile, true);
+            notifyChanged(destFile, true);
             handler.sendReply(250, "File or directory renamed successfully.");
-        } else {
+        } catch (IOException e) {
             handler.sendReply(550, "File or directory rename failed.");
+        } finally {
+            lock.close();
         }
 
         // Limpiar el nombre del fichero pendiente
         pendingRenameFile = null;
     }
     
+	/**
+	 * Maneja SITE CPFR: guarda el fichero origen de una copia en el servidor (análogo a RNFR).
+	 *
+	 * @param name Fichero origen
+	 */
+    protected void handleCopyFromCommand(String name) {
+    	FtpFile file;
+
+        if (name == null || name.trim().isEmpty()) {
+            handler.sendReply(501, "Syntax error in parameters or arguments.");
+            return;
+        }
+
+        if (!isFilenameSafe(name)) {
+            handler.sendReply(553, "File name not allowed.");
+            Util.printRedColor("Nombre de archivo peligroso rechazado: " + name);
+            return;
+        }
+
+        file = resolvePath(name);
+        if (file == null) {
+            FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "CPFR " + name);
+            handler.sendReply(550, "Access denied. Path outside root directory.");
+            Util.printRedColor("Intento de path traversal en CPFR: " + name);
+            return;
+        }
+
+        if (!file.isFile()) {
+            handler.sendReply(550, "File not found or not a plain file.");
+            return;
+        }
+
+        FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "CPFR", name);
+        pendingCopyFile = file;
+        handler.sendReply(350, "File exists, ready for destination name.");
+    }
+
+	/**
+	 * Maneja SITE CPTO: lanza en segundo plano la copia del fichero indicado con CPFR. El progreso
+	 * se consulta con STAT y la copia se cancela con ABOR; una sesión solo tiene una copia en curso.
+	 *
+	 * @param newName Fichero destino (no debe existir)
+	 */
+    protected void handleCopyToCommand(String newName) {
+    	FtpFile source = pendingCopyFile;
+    	FtpFile destFile;
+    	pendingCopyFile = null;
+
+        if (newName == null || newName.trim().isEmpty()) {
+            handler.sendReply(501, "Syntax error in parameters or arguments.");
+            return;
+        }
+
+        if (!isFilenameSafe(newName)) {
+            handler.sendReply(553, "File name not allowed.");
+            Util.printRedColor("Nombre de archivo peligroso rechazado: " + newName);
+            return;
+        }
+
+        if (source == null) {
+            handler.sendReply(503, "Bad sequence of commands.");
+            return;
+        }
+
+        destFile = resolvePath(newName);
+        if (destFile == null) {
+            FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "PATH_DENIED", "CPTO " + newName);
+            handler.sendReply(550, "Access denied. Path outside root directory.");
+            Util.printRedColor("Intento de path traversal en CPTO: " + newName);
+            return;
+        }
+
+        CopyTask running = copyTask;
+        if (running != null && !running.isFinished()) {
+            handler.sendReply(450, "Copy already in progress. Use STAT or ABOR.");
+            return;
+        }
+        if (destFile.exists()) {
+            handler.sendReply(550, "Destination already exists.");
+            return;
+        }
+        FtpFile parent = destFile.getParent();
+        if (parent == null || !parent.isDirectory()) {
+            handler.sendReply(550, "Destination directory not found.");
+            return;
+        }
+
+        long size;
+        try {
+            size = source.stat().size();
+        } catch (IOException e) {
+            handler.sendReply(550, "File not found.");
+            return;
+        }
+
+        QuotaManager quotas = JavaFtpServer.getQuotaManager();
+        QuotaManager.Upload upload = null;
+        if (quotas != null) {
+            upload = quotas.beginUpload(handler.getCurrentUsername(), destFile, false, size);
+            if (upload == null) {
+                FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "QUOTA_EXCEEDED", "CPTO " + newName);
+                handler.sendReply(552, "Requested file action aborted. Exceeded storage allocation.");
+                return;
+            }
+        }
+
+        FileLogger.logAudit(handler.getCurrentUsername(), handler.getClientAddress(), "CPTO",
+            source.getVirtualPath() + " -> " + destFile.getVirtualPath());
+
+        final FtpFile target = destFile;
+        CopyTask task = new CopyTask(source, target, size, handler.getCurrentUsername(), handler.getClientAddress(),
+            upload, () -> notifyChanged(target, false));
+        try {
+            task.setFuture(JavaFtpServer.getCopyExecutor().submit(task));
+        } catch (RejectedExecutionException e) {
+            if (upload != null) upload.cancel();
+            handler.sendReply(450, "Copy service unavailable.");
+            return;
+        }
+        copyTask = task;
+        handler.sendReply(200, "Copy started (" + size + " bytes). Use STAT for progress.");
+    }
+
+	/**
+	 * Estado de la última copia de la sesión, para STAT.
+	 *
+	 * @return Línea de estado, o null si no se ha lanzado ninguna
+	 */
+    protected String describeCopy() {
+        CopyTask task = copyTask;
+        return task != null ? task.describe() : null;
+    }
+
+	/**
+	 * Cancela la copia en curso de la sesión (ABOR).
+	 *
+	 * @return true si había una copia pendiente o en curso
+	 */
+    protected boolean abortCopy() {
+        CopyTask task = copyTask;
+        return task != null && task.cancel();
+    }
+
     protected void handleChangeWorkingDirectory(String dir) {
         if (dir == null || dir.trim().isEmpty()) {
             handler.sendReply(501, "Syntax error in parameters or arguments.");
@@ -520,7 +1287,7 @@ public class ServerFunctions {
             return;
         }
 
-        File newDir = resolveAndValidatePath(handler.getCurrentDirectory(), dir);
+        FtpFile newDir = resolvePath(dir);
         if (newDir == null) {
             handler.sendReply(550, "Access denied. Path outside root directory.");
             return;
@@ -531,25 +1298,23 @@ public class ServerFunctions {
             return;
         }
 
-        handler.setCurrentDirectory(newDir.getAbsolutePath());
+        handler.getFileSystemView().setWorkingDirectory(newDir);
         handler.sendReply(250, "Directory successfully changed to " + newDir.getName());
     }
     
     protected void handleChangeToParentDirectory() {
     	// Directorio actual del cliente
-        String currentDir = handler.getCurrentDirectory();
-        File current = new File(currentDir);
-        File parent = current.getParentFile();
-        File root = new File(JavaFtpServer.dirRoot); // Definimos el directorio raíz del servidor
+        FileSystemView view = handler.getFileSystemView();
+        FtpFile parent = view.getWorkingDirectory().getParent();
 
-        // Si no hay directorio padre o el padre está fuera del directorio raíz, no se permite el cambio
-        if (parent == null || !parent.getAbsolutePath().startsWith(root.getAbsolutePath())) {
+        // En la raíz no hay padre (el backend nunca devuelve un padre fuera de la raíz)
+        if (parent == null) {
             handler.sendReply(550, "Failed to change to parent directory.");
             return;
         }
 
         // Actualizamos el directorio de trabajo
-        handler.setCurrentDirectory(parent.getAbsolutePath());
+        view.setWorkingDirectory(parent);
         handler.sendReply(200, "Directory successfully changed to parent directory.");
     }
 
@@ -559,19 +1324,8 @@ public class ServerFunctions {
 	 */
     protected void handlePrintWorkingDirectory() {
         try {
-            String currentDir = handler.getCurrentDirectory();
-            File current = new File(currentDir);
-            File root = new File(JavaFtpServer.dirRoot);
-
-            // Calcular la ruta relativa desde el directorio raíz
-            String relativePath = current.getAbsolutePath()
-                .substring(root.getAbsolutePath().length())
-                .replace("\\", "/");
-
-            // Si está en el directorio raíz, mostrar "/"
-            if (relativePath.isEmpty()) {
-                relativePath = "/";
-            }
+            // Ruta relativa desde el directorio raíz ("/" en la raíz)
+            String relativePath = handler.getFileSystemView().getWorkingDirectory().getVirtualPath();
 
             handler.sendReply(257, "\"" + relativePath + "\" is the current directory.");
         } catch (Exception e) {
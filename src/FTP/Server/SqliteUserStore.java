@@ -7,9 +7,19 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Almacén de usuarios en SQLite. Crea el esquema si la tabla no existe.
+ * <p>
+ * Las búsquedas de login usan un pool pequeño de conexiones de solo lectura, cada una con su SELECT
+ * ya preparado, en vez de abrir una conexión y preparar la consulta en cada PASS. La base va en modo
+ * WAL, así los logins leen en paralelo mientras las cuotas escriben.
  *
  * @author Eduardo Díaz Sánchez
  * @version 1.0
@@ -24,23 +34,87 @@ public class SqliteUserStore implements UserStore {
             + "password_hash TEXT NOT NULL, "
             + "profile TEXT NOT NULL CHECK(profile IN ('BASICO','INTERMEDIO','ADMINISTRADOR')), "
             + "enabled INTEGER NOT NULL DEFAULT 1, "
-            + "created_at TEXT)";
+            + "created_at TEXT, "
+            + "quota_bytes INTEGER NOT NULL DEFAULT 0, "
+            + "used_bytes INTEGER NOT NULL DEFAULT 0)";
+
+    /** Propietario y tamaño de cada fichero subido (contabilidad de cuotas, ver {@link QuotaManager}) */
+    public static final String CREATE_OWNERS_TABLE =
+        "CREATE TABLE IF NOT EXISTS " + QuotaManager.OWNERS_TABLE + " ("
+            + "path TEXT PRIMARY KEY, "
+            + "username TEXT NOT NULL, "
+            + "size INTEGER NOT NULL)";
+
+    /** Tamaño del mapeo en memoria de la base por conexión (PRAGMA mmap_size) */
+    private static final long MMAP_BYTES = 64L * 1024 * 1024;
+    /** Espera de SQLite a que se libere un lock de escritura antes de fallar */
+    private static final int BUSY_TIMEOUT_MS = 5000;
+    /** Espera máxima por una conexión libre del pool */
+    private static final long BORROW_TIMEOUT_MS = 5000;
+
+    private static final String FIND_SQL = "SELECT password_hash, profile, enabled FROM " + TABLE + " WHERE username = ?";
+    private static final String UPDATE_HASH_SQL = "UPDATE " + TABLE + " SET password_hash = ? WHERE username = ? AND password_hash = ?";
+
+    /** Conexión de solo lectura del pool con su consulta preparada. */
+    private static final class Lookup {
+        final Connection conn;
+        final PreparedStatement find;
+
+        Lookup(Connection conn, PreparedStatement find) {
+            this.conn = conn;
+            this.find = find;
+        }
+    }
 
     private final String dbPath;
+    private final int poolSize;
+    private final ArrayBlockingQueue<Lookup> idle;
+    private final AtomicInteger open = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final LatencyHistogram lookupLatency = new LatencyHistogram();
+    private final AtomicLong poolWaits = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
 
     public SqliteUserStore(String dbPath) {
+        this(dbPath, 4);
+    }
+
+    /**
+     * @param dbPath Ruta de la base SQLite
+     * @param poolSize Conexiones de lectura para las búsquedas de login
+     */
+    public SqliteUserStore(String dbPath, int poolSize) {
         this.dbPath = dbPath;
+        this.poolSize = Math.max(1, poolSize);
+        this.idle = new ArrayBlockingQueue<>(this.poolSize);
     }
 
     /**
-     * Asegura que la base existe y la tabla está creada. Llamar al arrancar el servidor.
+     * Asegura que la base existe y las tablas están creadas. Llamar al arrancar el servidor.
+     * Las bases anteriores a las cuotas reciben las columnas quota_bytes/used_bytes.
+     * Activa el modo WAL (queda guardado en la base).
      *
      * @throws SQLException Si no se puede crear/abrir la base o la tabla
      */
     public void initSchema() throws SQLException {
         try (Connection conn = getConnection()) {
             try (Statement st = conn.createStatement()) {
+                st.execute("PRAGMA journal_mode=WAL");
                 st.execute(CREATE_TABLE);
+                Set<String> columns = new HashSet<>();
+                try (ResultSet rs = st.executeQuery("PRAGMA table_info(" + TABLE + ")")) {
+                    while (rs.next()) columns.add(rs.getString("name"));
+                }
+                if (!columns.contains("quota_bytes")) {
+                    st.execute("ALTER TABLE " + TABLE + " ADD COLUMN quota_bytes INTEGER NOT NULL DEFAULT 0");
+                }
+                if (!columns.contains("used_bytes")) {
+                    st.execute("ALTER TABLE " + TABLE + " ADD COLUMN used_bytes INTEGER NOT NULL DEFAULT 0");
+                }
+                st.execute(CREATE_OWNERS_TABLE);
+                st.execute("CREATE INDEX IF NOT EXISTS idx_" + QuotaManager.OWNERS_TABLE + "_username ON "
+                    + QuotaManager.OWNERS_TABLE + " (username)");
             }
         }
     }
@@ -50,9 +124,12 @@ public class SqliteUserStore implements UserStore {
         if (username == null || username.trim().isEmpty()) {
             return null;
         }
-        String sql = "SELECT password_hash, profile, enabled FROM " + TABLE + " WHERE username = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        Lookup lookup = null;
+        boolean broken = false;
+        try {
+            lookup = borrow();
+            PreparedStatement ps = lookup.find;
             ps.setString(1, username.trim());
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) {
@@ -70,12 +147,114 @@ public class SqliteUserStore implements UserStore {
                 return new UserInfo(username.trim(), hash, profile, enabled != 0);
             }
         } catch (SQLException e) {
+            broken = true;
+            errors.incrementAndGet();
             FTP.Util.FileLogger.error("SqliteUserStore findByUsername: " + e.getMessage());
             return null;
+        } finally {
+            if (lookup != null) giveBack(lookup, broken);
+            lookupLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean updatePasswordHash(String username, String oldHash, String newHash) {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(UPDATE_HASH_SQL)) {
+            ps.setString(1, newHash);
+            ps.setString(2, username);
+            ps.setString(3, oldHash);
+            return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            errors.incrementAndGet();
+            FTP.Util.FileLogger.error("SqliteUserStore updatePasswordHash: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "usuarios: SQLite " + dbPath + ", pool " + open.get() + "/" + poolSize + " conexiones (libres="
+            + idle.size() + ", esperas=" + poolWaits.get() + ", errores=" + errors.get() + "), búsquedas "
+            + lookupLatency.describe();
+    }
+
+    /** Cierra las conexiones del pool (al parar el servidor). */
+    public void close() {
+        closed = true;
+        Lookup l;
+        while ((l = idle.poll()) != null) closeQuietly(l);
+    }
+
+    /** Conexión a la base de usuarios (también la usa {@link QuotaManager}). */
+    Connection getConnection() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + new File(dbPath).getAbsolutePath());
+        try {
+            tune(conn, false);
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    /** PRAGMAs por conexión: con WAL basta synchronous=NORMAL; las del pool solo pueden leer. */
+    private static void tune(Connection conn, boolean readOnly) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("PRAGMA synchronous=NORMAL");
+            st.execute("PRAGMA mmap_size=" + MMAP_BYTES);
+            st.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MS);
+            if (readOnly) st.execute("PRAGMA query_only=ON");
+        }
+    }
+
+    private Lookup borrow() throws SQLException {
+        Lookup l = idle.poll();
+        if (l != null) return l;
+        if (open.incrementAndGet() <= poolSize) {
+            try {
+                return openLookup();
+            } catch (SQLException e) {
+                open.decrementAndGet();
+                throw e;
+            }
+        }
+        open.decrementAndGet();
+        poolWaits.incrementAndGet();
+        try {
+            l = idle.poll(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido esperando una conexión");
+        }
+        if (l == null) throw new SQLException("Pool de conexiones agotado");
+        return l;
+    }
+
+    private Lookup openLookup() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + new File(dbPath).getAbsolutePath());
+        try {
+            tune(conn, true);
+            return new Lookup(conn, conn.prepareStatement(FIND_SQL));
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    private void giveBack(Lookup l, boolean broken) {
+        if (broken || closed || !idle.offer(l)) {
+            closeQuietly(l);
+            open.decrementAndGet();
         }
     }
 
-    private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection("jdbc:sqlite:" + new File(dbPath).getAbsolutePath());
+    private static void closeQuietly(Lookup l) {
+        try {
+            l.find.close();
+            l.conn.close();
+        } catch (SQLException e) {
+            // cerrando
+        }
     }
 }
@@ -0,0 +1,158 @@
+package FTP.Server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Temporizador de rueda con cubetas (hashed wheel) compartido por todas las sesiones.
+ * <p>
+ * Un único hilo avanza la rueda cada {@code tickMillis}; programar y cancelar un timeout cuesta O(1)
+ * (se encola y se marca, respectivamente) y no hace falta un hilo por sesión. La precisión es de un tick.
+ * Las tareas se ejecutan en el hilo de la rueda, por lo que deben ser rápidas y no bloquear
+ * (p. ej. cerrar un socket o comprobar una marca de tiempo y reprogramarse).
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class TimeoutWheel {
+
+    /**
+     * Timeout programado. {@link #cancel()} es O(1): la entrada se descarta cuando la rueda pasa por su cubeta.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /** Cancela el timeout; no tiene efecto si ya expiró. */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMillis;
+    private final int mask;
+    private final Timeout[] buckets;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final long startMillis;
+    private volatile long currentTick = 0;
+    private volatile boolean running = true;
+    private final Thread worker;
+
+    /**
+     * @param tickMillis Duración de cada tick en milisegundos
+     * @param wheelSize Número de cubetas (se redondea a potencia de 2)
+     */
+    public TimeoutWheel(long tickMillis, int wheelSize) {
+        this.tickMillis = Math.max(1, tickMillis);
+        int size = 1;
+        while (size < wheelSize) size <<= 1;
+        this.mask = size - 1;
+        this.buckets = new Timeout[size];
+        this.startMillis = System.currentTimeMillis();
+        this.worker = new Thread(this::runWheel, "ftp-timeout-wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Programa una tarea para dentro de {@code delayMillis}.
+     *
+     * @param task Tarea (rápida, no bloqueante) a ejecutar al expirar
+     * @param delayMillis Retardo en milisegundos
+     * @return Handle para cancelar
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long elapsed = System.currentTimeMillis() - startMillis;
+        long ticks = (elapsed + Math.max(0, delayMillis) + tickMillis - 1) / tickMillis;
+        Timeout t = new Timeout(task, Math.max(ticks, currentTick + 1));
+        pending.add(t);
+        scheduled.incrementAndGet();
+        return t;
+    }
+
+    /** Detiene el hilo de la rueda; los timeouts pendientes no se ejecutan. */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /** Resumen para SITE STATS / logs. */
+    public String describe() {
+        return "timeouts programados=" + scheduled.get() + ", expirados=" + expired.get() + ", tick=" + tickMillis + "ms, cubetas=" + buckets.length;
+    }
+
+    private void runWheel() {
+        while (running) {
+            long nextTick = currentTick + 1;
+            long sleep = startMillis + nextTick * tickMillis - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) return;
+                }
+            }
+            transferPending(nextTick);
+            expireBucket(nextTick);
+            currentTick = nextTick;
+        }
+    }
+
+    private void transferPending(long tick) {
+        Timeout t;
+        while ((t = pending.poll()) != null) {
+            if (t.cancelled) continue;
+            long target = Math.max(t.deadlineTick, tick);
+            t.remainingRounds = (target - tick) / buckets.length;
+            int idx = (int) (target & mask);
+            t.next = buckets[idx];
+            buckets[idx] = t;
+        }
+    }
+
+    private void expireBucket(long tick) {
+        int idx = (int) (tick & mask);
+        Timeout prev = null;
+        Timeout t = buckets[idx];
+        while (t != null) {
+            Timeout next = t.next;
+            boolean remove;
+            if (t.cancelled) {
+                remove = true;
+            } else if (t.remainingRounds > 0) {
+                t.remainingRounds--;
+                remove = false;
+            } else {
+                remove = true;
+                expired.incrementAndGet();
+                try {
+                    t.task.run();
+                } catch (Throwable e) {
+                    FTP.Util.FileLogger.error("Tarea de timeout fallida: " + e.getMessage());
+                }
+            }
+            if (remove) {
+                if (prev == null) buckets[idx] = next; else prev.next = next;
+                t.next = null;
+            } else {
+                prev = t;
+            }
+            t = next;
+        }
+    }
+}
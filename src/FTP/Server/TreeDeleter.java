@@ -0,0 +1,199 @@
+package FTP.Server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Borrado recursivo de directorios (SITE RMTREE).
+ * <p>
+ * Cada directorio es una tarea de un {@link ForkJoinPool} de paralelismo acotado: borra sus ficheros,
+ * lanza una subtarea por subdirectorio, espera a que terminen y solo entonces borra el propio directorio
+ * (de abajo arriba). Los enlaces simbólicos se borran como entradas, nunca se recorren. Cada fichero se
+ * borra con el lock de escritura de su ruta ({@link PathLockManager}), así no desaparece a mitad de una
+ * RETR o STOR; si otra sesión lo retiene más allá de la espera, cuenta como fallido. El hilo de sesión
+ * no trabaja: espera con {@link Job#await(long)} para informar del progreso, recoger los ficheros borrados
+ * por lotes (cuotas, auditoría) y comprobar ABOR.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class TreeDeleter {
+
+    /** Borrado en curso. */
+    public static final class Job {
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong dirs = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final ConcurrentLinkedQueue<FtpFile> deleted = new ConcurrentLinkedQueue<>();
+        private final long startedAt = System.currentTimeMillis();
+        private final PathLockManager locks;
+        private volatile String firstError;
+        private ForkJoinTask<?> task;
+
+        Job(PathLockManager locks) {
+            this.locks = locks;
+        }
+
+        /**
+         * Espera a que termine el borrado.
+         *
+         * @param millis Espera máxima
+         * @return true si ha terminado
+         */
+        public boolean await(long millis) {
+            try {
+                task.get(millis, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                return false;
+            } catch (Exception e) {
+                return true;
+            }
+        }
+
+        /** Pide a los trabajadores que paren (ABOR); lo ya borrado no se recupera. */
+        public void cancel() {
+            cancelled.set(true);
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * Saca hasta {@code max} ficheros borrados desde la última llamada (para procesarlos por lotes).
+         *
+         * @param max Tamaño máximo del lote
+         * @return Ficheros borrados (vacío si no hay)
+         */
+        public List<FtpFile> drainDeleted(int max) {
+            List<FtpFile> batch = new ArrayList<>();
+            FtpFile f;
+            while (batch.size() < max && (f = deleted.poll()) != null) batch.add(f);
+            return batch;
+        }
+
+        public long getFiles() {
+            return files.get();
+        }
+
+        public long getDirectories() {
+            return dirs.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /** Primer error encontrado, o null. */
+        public String getFirstError() {
+            return firstError;
+        }
+
+        /** Línea de progreso. */
+        public String describe() {
+            long elapsed = Math.max(1, System.currentTimeMillis() - startedAt);
+            return String.format("%d files, %d directories deleted, %d failed (%.0f entries/s)",
+                files.get(), dirs.get(), failed.get(), (files.get() + dirs.get()) * 1000.0 / elapsed);
+        }
+
+        private void fail(FtpFile entry, IOException e) {
+            failed.incrementAndGet();
+            if (firstError == null) firstError = entry.getVirtualPath() + ": " + e.getClass().getSimpleName();
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism Trabajadores de borrado
+     */
+    public TreeDeleter(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Lanza el borrado de {@code dir} y todo su contenido.
+     *
+     * @param dir Directorio (ya validado bajo la raíz, distinto de la raíz)
+     * @return Borrado en curso
+     */
+    public Job start(FtpFile dir) {
+        Job job = new Job(JavaFtpServer.getPathLocks());
+        job.task = pool.submit(new DirTask(dir, job));
+        return job;
+    }
+
+    /** Resumen para SITE STATS. */
+    public String describe() {
+        return "rmtree: " + pool.getParallelism() + " trabajadores, activos=" + pool.getActiveThreadCount()
+            + ", tareas en cola=" + pool.getQueuedTaskCount();
+    }
+
+    private static final class DirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FtpFile dir;
+        private final Job job;
+
+        DirTask(FtpFile dir, Job job) {
+            this.dir = dir;
+            this.job = job;
+        }
+
+        @Override
+        protected void compute() {
+            if (job.isCancelled()) return;
+            List<DirTask> subdirs = new ArrayList<>();
+            try (DirectoryStream<FtpFile> entries = dir.list()) {
+                for (FtpFile child : entries) {
+                    if (job.isCancelled()) break;
+                    if (child.isDirectory() && !child.isSymbolicLink()) {
+                        subdirs.add(new DirTask(child, job));
+                        continue;
+                    }
+                    PathLockManager.Held lock = job.locks.write(child);
+                    if (lock == null) {
+                        job.fail(child, new IOException("File busy"));
+                        continue;
+                    }
+                    try {
+                        child.delete();
+                        job.files.incrementAndGet();
+                        job.deleted.add(child);
+                    } catch (IOException e) {
+                        job.fail(child, e);
+                    } finally {
+                        lock.close();
+                    }
+                }
+            } catch (IOException e) {
+                job.fail(dir, e);
+                return;
+            }
+            invokeAll(subdirs);
+            if (job.isCancelled()) return;
+            try {
+                dir.delete();
+                job.dirs.incrementAndGet();
+            } catch (IOException e) {
+                job.fail(dir, e);
+            }
+        }
+    }
+}
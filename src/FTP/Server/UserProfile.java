@@ -5,7 +5,7 @@ package FTP.Server;
  * <p>
  * Define tres niveles de permisos:
  * <ul>
- *   <li><b>BASICO:</b> Solo lectura (LIST, RETR, SIZE, MDTM, CWD, CDUP, PWD)</li>
+ *   <li><b>BASICO:</b> Solo lectura (LIST, MLSD, MLST, RETR, SIZE, MDTM, CWD, CDUP, PWD)</li>
  *   <li><b>INTERMEDIO:</b> Lectura/escritura (añade STOR, DELE)</li>
  *   <li><b>ADMINISTRADOR:</b> Acceso completo (añade MKD, RMD, RNFR, RNTO)</li>
  * </ul>
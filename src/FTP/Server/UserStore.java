@@ -17,4 +17,26 @@ public interface UserStore {
      * @return UserInfo con hash, profile y enabled, o null si no existe
      */
     UserInfo findByUsername(String username);
+
+    /**
+     * Sustituye el hash de un usuario si sigue siendo el esperado (rehash tras un login con un coste
+     * bcrypt antiguo). Los almacenes de solo lectura no lo soportan.
+     *
+     * @param username Nombre de usuario
+     * @param oldHash Hash que se verificó en el login
+     * @param newHash Hash nuevo con el coste configurado
+     * @return true si se ha actualizado
+     */
+    default boolean updatePasswordHash(String username, String oldHash, String newHash) {
+        return false;
+    }
+
+    /**
+     * Resumen del almacén para SITE STATS.
+     *
+     * @return Una línea de estado
+     */
+    default String describe() {
+        return "usuarios: " + getClass().getSimpleName();
+    }
 }
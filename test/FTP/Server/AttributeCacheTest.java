@@ -0,0 +1,115 @@
+package FTP.Server;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de {@link AttributeCache}: TTL, invalidación de subárboles y límite de entradas.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class AttributeCacheTest {
+
+    private Path tmp;
+    private BasicFileAttributes attrs;
+
+    @Before
+    public void setUp() throws IOException {
+        tmp = Files.createTempFile("ftp-attrs", ".dat");
+        attrs = Files.readAttributes(tmp, BasicFileAttributes.class);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(tmp);
+    }
+
+    @Test
+    public void returnsEntryUntilTtlExpires() throws InterruptedException {
+        AttributeCache cache = new AttributeCache(10, 30);
+        cache.put("k", attrs);
+        assertSame(attrs, cache.get("k"));
+
+        Thread.sleep(60);
+
+        assertNull(cache.get("k"));
+    }
+
+    @Test
+    public void treeInvalidationUsesPlatformSeparator() {
+        AttributeCache cache = new AttributeCache(100, 60_000);
+        String dir = Paths.get("srv", "data").toAbsolutePath().toString();
+        String child = dir + File.separator + "a.txt";
+        String nested = dir + File.separator + "sub" + File.separator + "b.txt";
+        String sibling = dir + "2" + File.separator + "c.txt";
+        for (String key : new String[] { dir, child, nested, sibling }) cache.put(key, attrs);
+
+        cache.invalidate(dir, true);
+
+        assertNull(cache.get(dir));
+        assertNull(cache.get(child));
+        assertNull(cache.get(nested));
+        assertNotNull("un hermano con el mismo prefijo no es parte del subárbol", cache.get(sibling));
+    }
+
+    @Test
+    public void treeInvalidationOfVirtualKeys() {
+        AttributeCache cache = new AttributeCache(100, 60_000);
+        cache.put("mem:/data/a.txt", attrs);
+        cache.put("mem:/data2/a.txt", attrs);
+
+        cache.invalidate("mem:/data", true);
+
+        assertNull(cache.get("mem:/data/a.txt"));
+        assertNotNull(cache.get("mem:/data2/a.txt"));
+    }
+
+    @Test
+    public void singleInvalidationKeepsChildren() {
+        AttributeCache cache = new AttributeCache(100, 60_000);
+        cache.put("/d", attrs);
+        cache.put("/d/f", attrs);
+
+        cache.invalidate("/d", false);
+
+        assertNull(cache.get("/d"));
+        assertNotNull(cache.get("/d/f"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntry() {
+        AttributeCache cache = new AttributeCache(2, 60_000);
+        cache.put("a", attrs);
+        cache.put("b", attrs);
+        assertNotNull(cache.get("a"));
+
+        cache.put("c", attrs);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void keyBoundaryRequiresSeparator() {
+        assertTrue(FtpFile.isUnderKey("/d/f", "/d"));
+        assertTrue(FtpFile.isUnderKey("/d/f", "/"));
+        assertTrue(FtpFile.isUnderKey("d" + File.separator + "f", "d"));
+        assertFalse(FtpFile.isUnderKey("/dx/f", "/d"));
+        assertFalse(FtpFile.isUnderKey("/d", "/d"));
+    }
+}
@@ -0,0 +1,73 @@
+package FTP.Server;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Pruebas de {@link CredentialCache}: aciertos, cambio del hash guardado, invalidación, TTL y límite.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class CredentialCacheTest {
+
+    private static final String HASH = "$2a$10$aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+    private static final String NEW_HASH = "$2a$10$bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+
+    @Test
+    public void matchesOnlyTheVerifiedCombination() {
+        CredentialCache cache = new CredentialCache(10, 60_000);
+        cache.put("alice", "secret", HASH);
+
+        assertTrue(cache.matches("alice", "secret", HASH));
+        assertFalse(cache.matches("alice", "other", HASH));
+        assertFalse(cache.matches("bob", "secret", HASH));
+    }
+
+    @Test
+    public void changedStoredHashInvalidatesEntry() {
+        CredentialCache cache = new CredentialCache(10, 60_000);
+        cache.put("alice", "secret", HASH);
+
+        assertFalse("la contraseña antigua no vale contra el hash nuevo", cache.matches("alice", "secret", NEW_HASH));
+    }
+
+    @Test
+    public void explicitInvalidationForgetsUsers() {
+        CredentialCache cache = new CredentialCache(10, 60_000);
+        cache.put("alice", "secret", HASH);
+        cache.put("bob", "secret", HASH);
+
+        cache.invalidate("alice");
+        assertFalse(cache.matches("alice", "secret", HASH));
+        assertTrue(cache.matches("bob", "secret", HASH));
+
+        cache.invalidateAll();
+        assertFalse(cache.matches("bob", "secret", HASH));
+    }
+
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        CredentialCache cache = new CredentialCache(10, 20);
+        cache.put("alice", "secret", HASH);
+        Thread.sleep(50);
+
+        assertFalse(cache.matches("alice", "secret", HASH));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedUser() {
+        CredentialCache cache = new CredentialCache(2, 60_000);
+        cache.put("alice", "secret", HASH);
+        cache.put("bob", "secret", HASH);
+        assertTrue(cache.matches("alice", "secret", HASH));
+
+        cache.put("carol", "secret", HASH);
+
+        assertTrue(cache.matches("alice", "secret", HASH));
+        assertFalse(cache.matches("bob", "secret", HASH));
+        assertTrue(cache.matches("carol", "secret", HASH));
+    }
+}
@@ -0,0 +1,102 @@
+package FTP.Server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de {@link FileUserStore}: carga del índice y sustitución al cambiar el fichero.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class FileUserStoreTest {
+
+    private static final String HASH_A = "$2a$10$aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+    private static final String HASH_B = "$2a$10$bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("ftp-users", ".txt");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+    }
+
+    @Test
+    public void loadsIndexSkippingMalformedLines() throws IOException {
+        write(0, "# comentario", "alice:" + HASH_A + ":ADMINISTRADOR", "roto", "bob:" + HASH_B + ":NOEXISTE",
+            "alice:" + HASH_B + ":BASICO");
+        FileUserStore store = new FileUserStore(file.toString());
+
+        UserInfo alice = store.findByUsername(" alice ");
+        assertNotNull(alice);
+        assertEquals("gana la primera aparición", HASH_A, alice.getPasswordHash());
+        assertEquals(UserProfile.ADMINISTRADOR, alice.getProfile());
+        assertNull(store.findByUsername("bob"));
+        assertTrue(store.describe().contains("2 líneas mal formadas"));
+    }
+
+    @Test
+    public void reloadSwapsIndexWhenFileChanges() throws IOException {
+        write(0, "alice:" + HASH_A + ":BASICO");
+        FileUserStore store = new FileUserStore(file.toString());
+        UserInfo before = store.findByUsername("alice");
+        assertFalse("sin cambios no se recarga", store.reloadIfChanged());
+        assertSame(before, store.findByUsername("alice"));
+
+        write(5000, "alice:" + HASH_B + ":INTERMEDIO", "bob:" + HASH_A + ":BASICO");
+        assertTrue(store.reloadIfChanged());
+
+        assertEquals(HASH_B, store.findByUsername("alice").getPasswordHash());
+        assertEquals(UserProfile.INTERMEDIO, store.findByUsername("alice").getProfile());
+        assertNotNull(store.findByUsername("bob"));
+        assertEquals("una búsqueda anterior conserva su resultado", HASH_A, before.getPasswordHash());
+    }
+
+    @Test
+    public void missingFileKeepsLoadedUsers() throws IOException {
+        write(0, "alice:" + HASH_A + ":BASICO");
+        FileUserStore store = new FileUserStore(file.toString());
+        Files.delete(file);
+
+        assertFalse(store.reloadIfChanged());
+        assertNotNull(store.findByUsername("alice"));
+    }
+
+    @Test
+    public void updatePasswordHashReloadsWithSameSize() throws IOException {
+        write(0, "alice:" + HASH_A + ":BASICO");
+        FileUserStore store = new FileUserStore(file.toString());
+
+        assertFalse("solo si el hash sigue siendo el esperado", store.updatePasswordHash("alice", HASH_B, HASH_B));
+        assertTrue(store.updatePasswordHash("alice", HASH_A, HASH_B));
+
+        assertEquals(HASH_B, store.findByUsername("alice").getPasswordHash());
+    }
+
+    /** Escribe el fichero y adelanta su fecha para que el cambio se note con resolución de segundos. */
+    private void write(long ageOffsetMillis, String... lines) throws IOException {
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + ageOffsetMillis));
+    }
+}
@@ -0,0 +1,105 @@
+package FTP.Server;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de {@link ListingCache}: invalidación de subárboles y expulsión LRU por bytes.
+ *
+ * @author Eduardo Díaz Sánchez
+ * @version 1.0
+ */
+public class ListingCacheTest {
+
+    private Path root;
+    private String x;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("ftp-listcache");
+        x = Files.createDirectories(root.resolve("x")).toString();
+        Files.createDirectories(root.resolve("x").resolve("b"));
+        Files.createDirectories(root.resolve("x").resolve("c"));
+        Files.createDirectories(root.resolve("xy"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestFiles.deleteTree(root);
+    }
+
+    @Test
+    public void invalidateTreeRemovesCachedSubdirectories() {
+        ListingCache cache = new ListingCache(1 << 20, 0);
+        String b = x + File.separator + "b";
+        String c = x + File.separator + "c";
+        String sibling = root.resolve("xy").toString();
+        put(cache, x, "LIST", "x");
+        put(cache, b, "LIST", "b");
+        put(cache, c, "LIST", "c");
+        put(cache, sibling, "LIST", "xy");
+
+        cache.invalidateTree(x);
+
+        assertNull(cache.get(x, "LIST"));
+        assertNull(cache.get(b, "LIST"));
+        assertNull(cache.get(c, "LIST"));
+        assertNotNull("un hermano con el mismo prefijo no es parte del subárbol", cache.get(sibling, "LIST"));
+    }
+
+    @Test
+    public void renderInvalidatedByTreeIsDiscarded() {
+        ListingCache cache = new ListingCache(1 << 20, 0);
+        String b = x + File.separator + "b";
+        ListingCache.Render render = cache.beginRender(b);
+        cache.invalidateTree(x);
+        cache.finishRender(render, "LIST", bytes("b", 10));
+
+        assertNull(cache.get(b, "LIST"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedDirectoryWhenOverBytes() {
+        // 800 bytes en total, 100 como máximo por variante
+        ListingCache cache = new ListingCache(800, 0);
+        String[] dirs = new String[9];
+        for (int i = 0; i < dirs.length; i++) dirs[i] = root.resolve("d" + i).toString();
+        for (int i = 0; i < 8; i++) cache.finishRender(cache.beginRender(dirs[i]), "LIST", bytes("d", 100));
+        assertNotNull(cache.get(dirs[0], "LIST"));
+
+        cache.finishRender(cache.beginRender(dirs[8]), "LIST", bytes("d", 100));
+
+        assertNotNull("el más usado recientemente se conserva", cache.get(dirs[0], "LIST"));
+        assertNull("el menos usado recientemente se expulsa", cache.get(dirs[1], "LIST"));
+        assertNotNull(cache.get(dirs[8], "LIST"));
+    }
+
+    @Test
+    public void payloadLargerThanEntryLimitIsNotStored() {
+        ListingCache cache = new ListingCache(800, 0);
+        cache.finishRender(cache.beginRender(x), "LIST", bytes("x", (int) cache.getMaxEntryBytes() + 1));
+
+        assertNull(cache.get(x, "LIST"));
+    }
+
+    private static void put(ListingCache cache, String dir, String variant, String payload) {
+        cache.finishRender(cache.beginRender(dir), variant, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] bytes(String fill, int length) {
+        byte[] b = new byte[length];
+        Arrays.fill(b, (byte) fill.charAt(0));
+        return b;
+    }
+}